@@ -0,0 +1,94 @@
+package acceleration;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Tests one ray against four packed triangles at a time with the Vector API
+ * Every lane does the arithmetic of Triangle.intersectEdges in the same order,
+ * so each lane's t is exactly the t the scalar test finds, and the same
+ * triangle is picked: the nearest, the first slot of those at the same t, or
+ * with anyHit the first slot hit
+ * It needs the jdk.incubator.vector module, so it is kept out of src and
+ * built and run with --add-modules jdk.incubator.vector, see the README
+ * PackedTriangles loads it only when that module is there
+ * @author alexaulabaugh
+ *
+ */
+final class VectorTriangleKernel implements PackedTriangles.Kernel
+{
+	//Four doubles, as many as a leaf of the default BoundingVolumeHierarchy holds
+	private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_256;
+
+	@Override
+	public int lanes()
+	{
+		return SPECIES.length();
+	}
+
+	@Override
+	public int intersect(PackedTriangles packed, int start, int end, double[] org, double[] dir, double tMin, double[] tHit, boolean anyHit)
+	{
+		double nearest = tHit[0];
+		int nearestSlot = -1;
+		DoubleVector orgX = DoubleVector.broadcast(SPECIES, org[0]);
+		DoubleVector orgY = DoubleVector.broadcast(SPECIES, org[1]);
+		DoubleVector orgZ = DoubleVector.broadcast(SPECIES, org[2]);
+		DoubleVector one = DoubleVector.broadcast(SPECIES, 1.0);
+		for(int i = start; i < end; i += SPECIES.length())
+		{
+			//Lanes past end read the padding or the next range's slots, and are masked off
+			VectorMask<Double> inRange = SPECIES.indexInRange(i, end);
+			DoubleVector e1x = DoubleVector.fromArray(SPECIES, packed.e1x, i);
+			DoubleVector e1y = DoubleVector.fromArray(SPECIES, packed.e1y, i);
+			DoubleVector e1z = DoubleVector.fromArray(SPECIES, packed.e1z, i);
+			DoubleVector e2x = DoubleVector.fromArray(SPECIES, packed.e2x, i);
+			DoubleVector e2y = DoubleVector.fromArray(SPECIES, packed.e2y, i);
+			DoubleVector e2z = DoubleVector.fromArray(SPECIES, packed.e2z, i);
+
+			//p = dir x e2
+			DoubleVector px = e2z.mul(dir[1]).sub(e2y.mul(dir[2]));
+			DoubleVector py = e2x.mul(dir[2]).sub(e2z.mul(dir[0]));
+			DoubleVector pz = e2y.mul(dir[0]).sub(e2x.mul(dir[1]));
+
+			DoubleVector det = e1x.mul(px).add(e1y.mul(py)).add(e1z.mul(pz));
+			DoubleVector invDet = one.div(det);
+
+			DoubleVector sx = orgX.sub(DoubleVector.fromArray(SPECIES, packed.v0x, i));
+			DoubleVector sy = orgY.sub(DoubleVector.fromArray(SPECIES, packed.v0y, i));
+			DoubleVector sz = orgZ.sub(DoubleVector.fromArray(SPECIES, packed.v0z, i));
+
+			DoubleVector u = sx.mul(px).add(sy.mul(py)).add(sz.mul(pz)).mul(invDet);
+
+			//q = s x e1
+			DoubleVector qx = sy.mul(e1z).sub(sz.mul(e1y));
+			DoubleVector qy = sz.mul(e1x).sub(sx.mul(e1z));
+			DoubleVector qz = sx.mul(e1y).sub(sy.mul(e1x));
+
+			DoubleVector v = qx.mul(dir[0]).add(qy.mul(dir[1])).add(qz.mul(dir[2])).mul(invDet);
+			DoubleVector t = e2x.mul(qx).add(e2y.mul(qy)).add(e2z.mul(qz)).mul(invDet);
+
+			//The rejections of intersectEdges, then t < nearest, which also turns away a NaN t like the scalar loop does
+			VectorMask<Double> missed = det.compare(VectorOperators.EQ, 0)
+					.or(u.compare(VectorOperators.LT, 0)).or(u.compare(VectorOperators.GT, 1))
+					.or(v.compare(VectorOperators.LT, 0)).or(u.add(v).compare(VectorOperators.GT, 1))
+					.or(t.compare(VectorOperators.LE, 0)).or(t.compare(VectorOperators.LE, tMin));
+			VectorMask<Double> hit = missed.not().and(t.compare(VectorOperators.LT, nearest)).and(inRange);
+			if(hit.anyTrue())
+			{
+				if(anyHit)
+				{
+					int lane = hit.firstTrue();
+					tHit[0] = t.lane(lane);
+					return i + lane;
+				}
+				nearest = t.reduceLanes(VectorOperators.MIN, hit);
+				nearestSlot = i + hit.and(t.compare(VectorOperators.EQ, nearest)).firstTrue();
+			}
+		}
+		tHit[0] = nearest;
+		return nearestSlot;
+	}
+}
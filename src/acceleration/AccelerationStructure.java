@@ -1,9 +1,15 @@
 package acceleration;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import geometry.GeometricObject;
+import geometry.TriangleMesh;
 import rendering.HitPoint;
 import rendering.Ray;
+import rendering.TripletVector;
 
 /**
  * Abstract class for all AccelerationStructure types
@@ -15,6 +21,27 @@ public abstract class AccelerationStructure
 {
 	//All objects held by the structure
 	protected ArrayList<GeometricObject> sceneObjects;
+	//Meshes held by the structure, addressed a triangle at a time
+	protected ArrayList<TriangleMesh> sceneMeshes = new ArrayList<TriangleMesh>();
+	//Structures refer to primitives by id: first the sceneObjects, then the
+	//triangles of each mesh starting from meshOffsets[mesh]
+	protected int[] meshOffsets = new int[0];
+	protected int primitiveCount;
+	//Number of threads used while building the structure
+	protected int buildThreads = Runtime.getRuntime().availableProcessors();
+	
+	/**
+	 * Work done on one contiguous chunk of a range during a parallel build
+	 */
+	protected interface ChunkTask
+	{
+		/**
+		 * @param chunk index of this chunk
+		 * @param start first index of the chunk
+		 * @param end one past the last index of the chunk
+		 */
+		void run(int chunk, int start, int end);
+	}
 	
 	/**
 	 * Adds a new GeometricObject to the structure
@@ -26,12 +53,309 @@ public abstract class AccelerationStructure
 	 * Adds an entire list of GeometricObjects to the structure
 	 * @param objects
 	 */
-	public abstract void addGeometricObjectList(ArrayList<GeometricObject> objects);
+	public void addGeometricObjectList(ArrayList<GeometricObject> objects)
+	{
+		addGeometricObjectList(objects, new ArrayList<TriangleMesh>());
+	}
+	
+	/**
+	 * Adds an entire list of GeometricObjects and TriangleMeshes to the structure,
+	 * the triangles of the meshes are read straight from the mesh arrays
+	 * @param objects
+	 * @param meshes
+	 */
+	public abstract void addGeometricObjectList(ArrayList<GeometricObject> objects, ArrayList<TriangleMesh> meshes);
 	
 	/**
 	 * Given an in-ray, determine a hit point on one of the objects (or none)
 	 * @param sceneRay
 	 * @return
 	 */
-	public abstract HitPoint intersectRay(Ray sceneRay);
+	public HitPoint intersectRay(Ray sceneRay)
+	{
+		HitPoint hit = new HitPoint(null, null, sceneRay);
+		intersectRay(sceneRay, hit);
+		return hit;
+	}
+	
+	/**
+	 * Given an in-ray, determine a hit point on one of the objects (or none),
+	 * filling in a hitpoint the caller reuses rather than making a new one
+	 * @param sceneRay
+	 * @param hit overwritten with the nearest hit, its object is null if nothing is hit
+	 */
+	public void intersectRay(Ray sceneRay, HitPoint hit)
+	{
+		intersectRay(sceneRay, hit, new TraversalScratch());
+	}
+	
+	/**
+	 * Given an in-ray, determine a hit point on one of the objects (or none),
+	 * walking the structure with arrays the calling thread reuses
+	 * @param sceneRay
+	 * @param hit overwritten with the nearest hit, its object is null if nothing is hit
+	 * @param scratch the calling thread's traversal arrays
+	 */
+	public abstract void intersectRay(Ray sceneRay, HitPoint hit, TraversalScratch scratch);
+	
+	/**
+	 * Determines if anything blocks a ray before it travels maxT,
+	 * stopping at the first hit found rather than the nearest
+	 * @param sceneRay
+	 * @param maxT how far along the ray to look, e.g. the distance to a light
+	 * @return true if some object is hit with 0 < t < maxT
+	 */
+	public boolean occluded(Ray sceneRay, double maxT)
+	{
+		return occluded(sceneRay, maxT, new TraversalScratch());
+	}
+	
+	/**
+	 * Determines if anything blocks a ray before it travels maxT,
+	 * walking the structure with arrays the calling thread reuses
+	 * @param sceneRay
+	 * @param maxT how far along the ray to look, e.g. the distance to a light
+	 * @param scratch the calling thread's traversal arrays
+	 * @return true if some object is hit with 0 < t < maxT
+	 */
+	public abstract boolean occluded(Ray sceneRay, double maxT, TraversalScratch scratch);
+
+	/**
+	 * @return true if intersectPacket and occludedPacket walk a packet's rays
+	 * together, false if they trace them one at a time
+	 */
+	public boolean walksPackets()
+	{
+		return false;
+	}
+
+	/**
+	 * Finds the nearest hit of every ray in a packet, each hit the same as
+	 * intersectRay would find. This traces the rays one at a time, structures
+	 * that can walk a packet together override it
+	 * @param packet
+	 * @param hits overwritten with each ray's nearest hit, in packet order
+	 * @param scratch the calling thread's traversal arrays
+	 */
+	public void intersectPacket(RayPacket packet, HitPoint[] hits, TraversalScratch scratch)
+	{
+		for(int r = 0; r < packet.size(); r++)
+		{
+			intersectRay(packet.getRay(r), hits[r], scratch);
+		}
+	}
+
+	/**
+	 * Finds which shadow rays of a packet are blocked before their end, each
+	 * the same as occluded would find. This traces the rays one at a time,
+	 * structures that can walk a packet together override it
+	 * @param packet shadow rays, see RayPacket.setShadowRays, marked blocked or not
+	 * @param scratch the calling thread's traversal arrays
+	 */
+	public void occludedPacket(RayPacket packet, TraversalScratch scratch)
+	{
+		for(int r = 0; r < packet.size(); r++)
+		{
+			packet.setBlocked(r, occluded(packet.getRay(r), packet.getMaxT(r), scratch));
+		}
+	}
+
+	/**
+	 * Numbers the primitives once sceneObjects holds every object the
+	 * structure will index
+	 * @param meshes
+	 */
+	protected void indexPrimitives(ArrayList<TriangleMesh> meshes)
+	{
+		sceneMeshes = new ArrayList<TriangleMesh>(meshes);
+		meshOffsets = new int[sceneMeshes.size()];
+		long count = sceneObjects.size();
+		for(int mesh = 0; mesh < sceneMeshes.size(); mesh++)
+		{
+			meshOffsets[mesh] = (int)count;
+			count += sceneMeshes.get(mesh).getTriangleCount();
+		}
+		if(count >= Integer.MAX_VALUE)
+		{
+			throw new RuntimeException("Error: Too many primitives in the scene");
+		}
+		primitiveCount = (int)count;
+	}
+	
+	/**
+	 * @param prim a primitive id at or past sceneObjects.size()
+	 * @return the index of the mesh the primitive belongs to
+	 */
+	private int meshOf(int prim)
+	{
+		//A mesh with no triangles shares its offset with the next mesh, the search may land on
+		//either, so step forward to the last mesh starting at or before prim
+		int mesh = Arrays.binarySearch(meshOffsets, prim);
+		if(mesh < 0)
+		{
+			return -mesh - 2;
+		}
+		while(mesh + 1 < meshOffsets.length && meshOffsets[mesh + 1] == prim)
+		{
+			mesh++;
+		}
+		return mesh;
+	}
+	
+	/**
+	 * Intersects a ray with one primitive
+	 * @param prim
+	 * @param sceneRay
+	 * @param tMin
+	 * @param tMax
+	 * @return the t of the hit with tMin < t < tMax, or GeometricObject.NO_HIT
+	 */
+	protected double intersectPrimitive(int prim, Ray sceneRay, double tMin, double tMax)
+	{
+		if(prim < sceneObjects.size())
+		{
+			return sceneObjects.get(prim).intersect(sceneRay, tMin, tMax);
+		}
+		int mesh = meshOf(prim);
+		return sceneMeshes.get(mesh).intersectTriangle(prim - meshOffsets[mesh], sceneRay, tMin, tMax);
+	}
+	
+	/**
+	 * Writes the bounding box of one primitive
+	 * @param prim
+	 * @param bounds where to write min xyz then max xyz
+	 * @param offset where in bounds to start writing
+	 */
+	protected void primitiveBounds(int prim, double[] bounds, int offset)
+	{
+		if(prim < sceneObjects.size())
+		{
+			//Not every object keeps its corners in min, max order
+			TripletVector[] objectBounds = sceneObjects.get(prim).getBounds();
+			double[] a = objectBounds[0].getComponents();
+			double[] b = objectBounds[1].getComponents();
+			for(int i = 0; i < 3; i++)
+			{
+				bounds[offset + i] = Math.min(a[i], b[i]);
+				bounds[offset + 3 + i] = Math.max(a[i], b[i]);
+			}
+			return;
+		}
+		int mesh = meshOf(prim);
+		sceneMeshes.get(mesh).getTriangleBounds(prim - meshOffsets[mesh], bounds, offset);
+	}
+	
+	/**
+	 * Copies the mesh triangles among a list of primitive ids into a
+	 * PackedTriangles with one slot per entry of the list
+	 * @param pool the pool to copy on
+	 * @param order primitive ids, in the order the structure visits them
+	 * @param count how many entries of order to pack
+	 * @return
+	 */
+	protected PackedTriangles packTriangles(ForkJoinPool pool, final int[] order, int count)
+	{
+		final PackedTriangles packed = new PackedTriangles(count);
+		if(sceneMeshes.isEmpty() || count == 0)
+		{
+			return packed;
+		}
+		parallelChunks(pool, count, chunkCount(count), new ChunkTask()
+		{
+			@Override
+			public void run(int chunk, int start, int end)
+			{
+				double[] edges = new double[9];
+				for(int slot = start; slot < end; slot++)
+				{
+					int prim = order[slot];
+					if(prim >= sceneObjects.size())
+					{
+						int mesh = meshOf(prim);
+						sceneMeshes.get(mesh).getTriangleEdges(prim - meshOffsets[mesh], edges, 0);
+						packed.setTriangle(slot, edges);
+					}
+				}
+			}
+		});
+		return packed;
+	}
+	
+	/**
+	 * Records a hit on a primitive, mesh triangles are recorded as their mesh
+	 * and index so no Triangle is made for them
+	 * @param hit the hitpoint to overwrite
+	 * @param prim
+	 * @param sceneRay the ray that made the hit
+	 * @param t how far along the ray the hit is
+	 */
+	protected void setPrimitiveHit(HitPoint hit, int prim, Ray sceneRay, double t)
+	{
+		if(prim < sceneObjects.size())
+		{
+			hit.setHit(sceneObjects.get(prim), sceneRay, t);
+			return;
+		}
+		int mesh = meshOf(prim);
+		hit.setMeshHit(sceneMeshes.get(mesh), prim - meshOffsets[mesh], sceneRay, t);
+	}
+	
+	/**
+	 * Sets how many threads addGeometricObjectList may use
+	 * @param threads
+	 */
+	public void setBuildThreads(int threads)
+	{
+		buildThreads = Math.max(1, threads);
+	}
+	
+	/**
+	 * Splits [0, count) into contiguous chunks and runs the task on each chunk
+	 * in parallel, returning once every chunk is done
+	 * @param pool the pool to run on
+	 * @param count size of the range
+	 * @param chunks number of chunks, see chunkCount
+	 * @param task the work for one chunk
+	 */
+	protected void parallelChunks(ForkJoinPool pool, int count, int chunks, final ChunkTask task)
+	{
+		ArrayList<Callable<Void>> work = new ArrayList<Callable<Void>>();
+		for(int chunk = 0; chunk < chunks; chunk++)
+		{
+			final int chunkIndex = chunk;
+			final int start = (int)((long)count*chunk/chunks);
+			final int end = (int)((long)count*(chunk+1)/chunks);
+			work.add(new Callable<Void>()
+			{
+				@Override
+				public Void call()
+				{
+					task.run(chunkIndex, start, end);
+					return null;
+				}
+			});
+		}
+		try
+		{
+			for(Future<Void> f : pool.invokeAll(work))
+			{
+				f.get();
+			}
+		}
+		catch(InterruptedException | ExecutionException e)
+		{
+			throw new RuntimeException("Error: Parallel build failed", e);
+		}
+	}
+	
+	/**
+	 * A few chunks per thread so uneven chunks still balance out,
+	 * but never more chunks than items
+	 * @param count size of the range to be split
+	 * @return number of chunks for parallelChunks
+	 */
+	protected int chunkCount(int count)
+	{
+		return Math.max(1, Math.min(count, buildThreads*4));
+	}
 }
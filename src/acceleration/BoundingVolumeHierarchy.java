@@ -0,0 +1,797 @@
+package acceleration;
+
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import geometry.GeometricObject;
+import geometry.TriangleMesh;
+import rendering.HitPoint;
+import rendering.Ray;
+import rendering.TripletVector;
+
+/**
+ * A Bounding Volume Hierarchy Acceleration Structure
+ * A binary tree of axis-aligned boxes, split using the surface area heuristic,
+ * where each leaf holds a small list of objects.
+ * The tree is flattened into arrays in depth-first order so the left child
+ * of a node is always stored directly after it.
+ * @author alexaulabaugh
+ *
+ */
+
+public class BoundingVolumeHierarchy extends AccelerationStructure
+{
+	//Number of buckets object centroids are sorted into when looking for a split
+	private static final int SAH_BUCKETS = 16;
+	//Cost of visiting a node relative to intersecting one object
+	private static final double TRAVERSAL_COST = 0.125;
+	//Subtrees with fewer objects than this are built on the current thread
+	private static final int PARALLEL_SUBTREE_SIZE = 4096;
+	//Fewest primitives in the tree for walking packets to pay, a smaller tree is walked as fast a ray at a time
+	private static final int PACKET_PRIMITIVES = 64;
+
+	//The most objects a leaf may hold before it is forced to split
+	private int maxLeafSize;
+
+	//Objects that can't be bounded but still need to be intersected
+	//e.g. planes
+	private ArrayList<GeometricObject> extraObjects;
+
+	//Primitive ids in leaf order, leaves point into this array
+	private int[] orderedObjects;
+	//The mesh triangles of orderedObjects, in the same order
+	private PackedTriangles packedTriangles;
+
+	//Flattened tree, six bounds (min xyz, max xyz) per node
+	private double[] nodeBounds;
+	//Leaves: index of the first object. Interior nodes: index of the right child
+	private int[] nodeOffsets;
+	//Leaves: number of objects. Interior nodes: 0
+	private int[] nodeCounts;
+	//Interior nodes: the axis the node was split along
+	private int[] nodeAxes;
+	//Deepest path in the tree, sizes the traversal stack
+	private int treeDepth;
+
+	/**
+	 * A node of the tree while it is being built, before flattening
+	 */
+	private static class BuildNode
+	{
+		double[] bounds;
+		BuildNode left;
+		BuildNode right;
+		int axis;
+		int first;
+		int count;
+	}
+
+	public BoundingVolumeHierarchy(int leafSize)
+	{
+		maxLeafSize = Math.max(1, leafSize);
+		sceneObjects = new ArrayList<GeometricObject>();
+		extraObjects = new ArrayList<GeometricObject>();
+	}
+
+	public BoundingVolumeHierarchy()
+	{
+		this(4);
+	}
+
+	@Override
+	protected void addGeometricObject(GeometricObject obj)
+	{
+		TripletVector[] objectBounds = obj.getBounds();
+		double[] nullBoundsTest = objectBounds[0].sub(objectBounds[1]).getComponents();
+		if(nullBoundsTest[0] == 0 && nullBoundsTest[1] == 0 && nullBoundsTest[2] == 0)
+		{
+			extraObjects.add(obj);
+		}
+		else
+		{
+			sceneObjects.add(obj);
+		}
+	}
+
+	@Override
+	public void addGeometricObjectList(ArrayList<GeometricObject> objects, ArrayList<TriangleMesh> meshes)
+	{
+		System.out.println("Building Bounding Volume Hierarchy");
+		for(GeometricObject object : objects)
+		{
+			addGeometricObject(object);
+		}
+		indexPrimitives(meshes);
+		ForkJoinPool pool = new ForkJoinPool(buildThreads);
+		try
+		{
+			buildTree(pool);
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+		System.out.println("Bounding Volume Hierarchy Complete");
+	}
+
+	/**
+	 * Builds the subtree over one range of objects, forking the two halves
+	 * of big ranges so they are built at the same time
+	 */
+	private class SubtreeTask extends RecursiveTask<BuildNode>
+	{
+		private static final long serialVersionUID = 1L;
+		private int[] objectIndices;
+		private double[] objectBounds;
+		private double[] centroids;
+		private int start;
+		private int end;
+		
+		SubtreeTask(int[] indices, double[] bounds, double[] cents, int first, int last)
+		{
+			objectIndices = indices;
+			objectBounds = bounds;
+			centroids = cents;
+			start = first;
+			end = last;
+		}
+		
+		@Override
+		protected BuildNode compute()
+		{
+			BuildNode node = new BuildNode();
+			int mid = splitNode(node, objectIndices, objectBounds, centroids, start, end);
+			if(mid < 0)
+			{
+				return node;
+			}
+			if(end - start < PARALLEL_SUBTREE_SIZE)
+			{
+				node.left = new SubtreeTask(objectIndices, objectBounds, centroids, start, mid).compute();
+				node.right = new SubtreeTask(objectIndices, objectBounds, centroids, mid, end).compute();
+			}
+			else
+			{
+				SubtreeTask leftTask = new SubtreeTask(objectIndices, objectBounds, centroids, start, mid);
+				leftTask.fork();
+				node.right = new SubtreeTask(objectIndices, objectBounds, centroids, mid, end).compute();
+				node.left = leftTask.join();
+			}
+			return node;
+		}
+	}
+
+	/**
+	 * Builds the hierarchy over every bounded primitive, then flattens it
+	 * @param pool
+	 */
+	private void buildTree(ForkJoinPool pool)
+	{
+		int objectCount = primitiveCount;
+		if(objectCount == 0)
+		{
+			return;
+		}
+		final double[] objectBounds = new double[objectCount*6];
+		final double[] centroids = new double[objectCount*3];
+		final int[] objectIndices = new int[objectCount];
+		parallelChunks(pool, objectCount, chunkCount(objectCount), new ChunkTask()
+		{
+			@Override
+			public void run(int chunk, int start, int end)
+			{
+				for(int i = start; i < end; i++)
+				{
+					primitiveBounds(i, objectBounds, i*6);
+					for(int axis = 0; axis < 3; axis++)
+					{
+						centroids[i*3 + axis] = 0.5*(objectBounds[i*6 + axis] + objectBounds[i*6 + 3 + axis]);
+					}
+					objectIndices[i] = i;
+				}
+			}
+		});
+
+		BuildNode root = pool.invoke(new SubtreeTask(objectIndices, objectBounds, centroids, 0, objectCount));
+
+		orderedObjects = objectIndices;
+		packedTriangles = packTriangles(pool, orderedObjects, objectCount);
+		int nodeTotal = countNodes(root);
+		treeDepth = subtreeDepth(root);
+		nodeBounds = new double[nodeTotal*6];
+		nodeOffsets = new int[nodeTotal];
+		nodeCounts = new int[nodeTotal];
+		nodeAxes = new int[nodeTotal];
+		flatten(root, new int[1]);
+	}
+
+	/**
+	 * Bounds a node and decides how to split it. Leaves are filled in,
+	 * interior nodes get their axis and have their range partitioned
+	 * @param node the node being built
+	 * @param objectIndices primitive ids, partitioned in place
+	 * @param objectBounds six bounds per object
+	 * @param centroids three coordinates per object
+	 * @param start first index of the range
+	 * @param end one past the last index of the range
+	 * @return where the right child's range starts, or -1 if the node is a leaf
+	 */
+	private int splitNode(BuildNode node, int[] objectIndices, double[] objectBounds, double[] centroids, int start, int end)
+	{
+		node.bounds = emptyBounds();
+		double[] centroidBounds = emptyBounds();
+		for(int i = start; i < end; i++)
+		{
+			int obj = objectIndices[i];
+			for(int axis = 0; axis < 3; axis++)
+			{
+				node.bounds[axis] = Math.min(node.bounds[axis], objectBounds[obj*6 + axis]);
+				node.bounds[3 + axis] = Math.max(node.bounds[3 + axis], objectBounds[obj*6 + 3 + axis]);
+				centroidBounds[axis] = Math.min(centroidBounds[axis], centroids[obj*3 + axis]);
+				centroidBounds[3 + axis] = Math.max(centroidBounds[3 + axis], centroids[obj*3 + axis]);
+			}
+		}
+
+		int count = end - start;
+		int splitAxis = -1;
+		int splitBucket = -1;
+		if(count > 1)
+		{
+			//Citation: Physically Based Rendering, Pharr, Jakob & Humphreys, 4.3.2
+			double bestCost = Double.MAX_VALUE;
+			double parentArea = surfaceArea(node.bounds);
+			for(int axis = 0; axis < 3; axis++)
+			{
+				double extent = centroidBounds[3 + axis] - centroidBounds[axis];
+				if(extent <= 0)
+				{
+					continue;
+				}
+				int[] bucketCounts = new int[SAH_BUCKETS];
+				double[][] bucketBounds = new double[SAH_BUCKETS][];
+				for(int b = 0; b < SAH_BUCKETS; b++)
+				{
+					bucketBounds[b] = emptyBounds();
+				}
+				for(int i = start; i < end; i++)
+				{
+					int obj = objectIndices[i];
+					int b = bucketIndex(centroids[obj*3 + axis], centroidBounds[axis], extent);
+					bucketCounts[b]++;
+					growBounds(bucketBounds[b], objectBounds, obj*6);
+				}
+
+				//sweep from the right to get the area and count above each split
+				double[] rightAreas = new double[SAH_BUCKETS];
+				int[] rightCounts = new int[SAH_BUCKETS];
+				double[] sweep = emptyBounds();
+				int sweepCount = 0;
+				for(int b = SAH_BUCKETS-1; b > 0; b--)
+				{
+					growBounds(sweep, bucketBounds[b], 0);
+					sweepCount += bucketCounts[b];
+					rightAreas[b] = surfaceArea(sweep);
+					rightCounts[b] = sweepCount;
+				}
+				sweep = emptyBounds();
+				sweepCount = 0;
+				for(int b = 0; b < SAH_BUCKETS-1; b++)
+				{
+					growBounds(sweep, bucketBounds[b], 0);
+					sweepCount += bucketCounts[b];
+					if(sweepCount == 0 || rightCounts[b+1] == 0)
+					{
+						continue;
+					}
+					double cost = TRAVERSAL_COST + (surfaceArea(sweep)*sweepCount + rightAreas[b+1]*rightCounts[b+1])/parentArea;
+					if(cost < bestCost)
+					{
+						bestCost = cost;
+						splitAxis = axis;
+						splitBucket = b;
+					}
+				}
+			}
+			//Only split if it's cheaper than testing every object, or the leaf would be too big
+			if(splitAxis >= 0 && bestCost >= count && count <= maxLeafSize)
+			{
+				splitAxis = -1;
+			}
+		}
+
+		if(splitAxis < 0)
+		{
+			node.first = start;
+			node.count = count;
+			return -1;
+		}
+
+		//partition the range around the chosen bucket
+		double axisMin = centroidBounds[splitAxis];
+		double axisExtent = centroidBounds[3 + splitAxis] - axisMin;
+		int mid = start;
+		for(int i = start; i < end; i++)
+		{
+			int obj = objectIndices[i];
+			if(bucketIndex(centroids[obj*3 + splitAxis], axisMin, axisExtent) <= splitBucket)
+			{
+				objectIndices[i] = objectIndices[mid];
+				objectIndices[mid] = obj;
+				mid++;
+			}
+		}
+
+		node.axis = splitAxis;
+		return mid;
+	}
+
+	/**
+	 * @param node
+	 * @return number of nodes in the subtree
+	 */
+	private int countNodes(BuildNode node)
+	{
+		if(node.left == null)
+		{
+			return 1;
+		}
+		return 1 + countNodes(node.left) + countNodes(node.right);
+	}
+
+	/**
+	 * @param node
+	 * @return number of nodes on the longest path down the subtree
+	 */
+	private int subtreeDepth(BuildNode node)
+	{
+		if(node.left == null)
+		{
+			return 1;
+		}
+		return 1 + Math.max(subtreeDepth(node.left), subtreeDepth(node.right));
+	}
+
+
+	/**
+	 * Writes a subtree into the node arrays in depth-first order
+	 * @param node the root of the subtree
+	 * @param nextIndex the next free slot in the node arrays
+	 * @return the index the node was written to
+	 */
+	private int flatten(BuildNode node, int[] nextIndex)
+	{
+		int index = nextIndex[0]++;
+		System.arraycopy(node.bounds, 0, nodeBounds, index*6, 6);
+		if(node.left == null)
+		{
+			nodeOffsets[index] = node.first;
+			nodeCounts[index] = node.count;
+		}
+		else
+		{
+			nodeAxes[index] = node.axis;
+			flatten(node.left, nextIndex);
+			nodeOffsets[index] = flatten(node.right, nextIndex);
+		}
+		return index;
+	}
+
+	/**
+	 * Which SAH bucket a centroid coordinate falls into
+	 * @param coordinate the centroid coordinate along the split axis
+	 * @param axisMin the smallest centroid coordinate along the axis
+	 * @param extent the spread of centroid coordinates along the axis
+	 * @return the bucket index
+	 */
+	private int bucketIndex(double coordinate, double axisMin, double extent)
+	{
+		int b = (int)(SAH_BUCKETS*((coordinate - axisMin)/extent));
+		if(b >= SAH_BUCKETS)
+		{
+			b = SAH_BUCKETS-1;
+		}
+		return b;
+	}
+
+	/**
+	 * @return a bounding box that contains nothing
+	 */
+	private double[] emptyBounds()
+	{
+		double[] bounds = new double[6];
+		for(int axis = 0; axis < 3; axis++)
+		{
+			bounds[axis] = Double.MAX_VALUE;
+			bounds[3 + axis] = -Double.MAX_VALUE;
+		}
+		return bounds;
+	}
+
+	/**
+	 * Expands a bounding box to enclose another
+	 * @param bounds the box to grow
+	 * @param other array holding the other box
+	 * @param offset where the other box starts in its array
+	 */
+	private void growBounds(double[] bounds, double[] other, int offset)
+	{
+		for(int axis = 0; axis < 3; axis++)
+		{
+			bounds[axis] = Math.min(bounds[axis], other[offset + axis]);
+			bounds[3 + axis] = Math.max(bounds[3 + axis], other[offset + 3 + axis]);
+		}
+	}
+
+	/**
+	 * @param bounds
+	 * @return the surface area of a bounding box, 0 if it is empty
+	 */
+	private double surfaceArea(double[] bounds)
+	{
+		double dx = bounds[3] - bounds[0];
+		double dy = bounds[4] - bounds[1];
+		double dz = bounds[5] - bounds[2];
+		if(dx < 0 || dy < 0 || dz < 0)
+		{
+			return 0;
+		}
+		return 2*(dx*dy + dy*dz + dz*dx);
+	}
+
+	/**
+	 * Slab test of a ray against one node's box
+	 * @param node index of the node
+	 * @param origin ray origin components
+	 * @param inverseDirection reciprocal of each ray direction component
+	 * @param maxT the nearest hit found so far, farther boxes are skipped
+	 * @return true if the ray enters the box before maxT
+	 */
+	private boolean nodeHit(int node, double[] origin, double[] inverseDirection, double maxT)
+	{
+		return nodeHit(node, origin, inverseDirection, 0, maxT);
+	}
+
+	/**
+	 * Slab test of one ray of a packet against one node's box
+	 * @param node index of the node
+	 * @param origin ray origin components
+	 * @param inverseDirection reciprocal of each ray direction component
+	 * @param ray where the ray's components start in origin and inverseDirection
+	 * @param maxT the nearest hit found so far, farther boxes are skipped
+	 * @return true if the ray enters the box before maxT
+	 */
+	private boolean nodeHit(int node, double[] origin, double[] inverseDirection, int ray, double maxT)
+	{
+		double tNear = 0;
+		double tFar = maxT;
+		int offset = node*6;
+		for(int axis = 0; axis < 3; axis++)
+		{
+			double tA = (nodeBounds[offset + axis] - origin[ray + axis])*inverseDirection[ray + axis];
+			double tB = (nodeBounds[offset + 3 + axis] - origin[ray + axis])*inverseDirection[ray + axis];
+			if(tA > tB)
+			{
+				double swap = tA;
+				tA = tB;
+				tB = swap;
+			}
+			if(tA > tNear) {tNear = tA;}
+			if(tB < tFar) {tFar = tB;}
+			if(tNear > tFar)
+			{
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Tests a ray against everything in one leaf
+	 * @param node index of the leaf
+	 * @param sceneRay
+	 * @param origin ray origin components
+	 * @param direction ray direction components
+	 * @param tHit holds the farthest t to look to, updated to the t of the hit found
+	 * @param anyHit true to stop at the first hit rather than the nearest
+	 * @return the primitive hit, or -1 if nothing in the leaf is hit before tHit
+	 */
+	private int leafHit(int node, Ray sceneRay, double[] origin, double[] direction, double[] tHit, boolean anyHit)
+	{
+		int first = nodeOffsets[node];
+		int end = first + nodeCounts[node];
+		int closestPrimitive = -1;
+		int slot = packedTriangles.intersect(first, end, origin, direction, 0, tHit, anyHit);
+		if(slot >= 0)
+		{
+			if(anyHit)
+			{
+				return orderedObjects[slot];
+			}
+			closestPrimitive = orderedObjects[slot];
+		}
+		//Objects other than mesh triangles are tested one at a time
+		for(int i = first; i < end && !sceneObjects.isEmpty(); i++)
+		{
+			if(packedTriangles.isTriangle(i))
+			{
+				continue;
+			}
+			double tValue = intersectPrimitive(orderedObjects[i], sceneRay, 0, tHit[0]);
+			if(tValue < tHit[0])
+			{
+				tHit[0] = tValue;
+				if(anyHit)
+				{
+					return orderedObjects[i];
+				}
+				closestPrimitive = orderedObjects[i];
+			}
+		}
+		return closestPrimitive;
+	}
+
+	@Override
+	public void intersectRay(Ray sceneRay, HitPoint closestHit, TraversalScratch scratch)
+	{
+		double smallestT = Double.MAX_VALUE;
+		GeometricObject closestObject = null;
+		for(GeometricObject obj : extraObjects)
+		{
+			double tValue = obj.intersect(sceneRay, 0, smallestT);
+			if(tValue < smallestT)
+			{
+				smallestT = tValue;
+				closestObject = obj;
+			}
+		}
+		double[] tHit = scratch.getTHit();
+		tHit[0] = smallestT;
+		int treePrimitive = traverse(sceneRay, tHit, false, scratch);
+		if(treePrimitive >= 0)
+		{
+			setPrimitiveHit(closestHit, treePrimitive, sceneRay, tHit[0]);
+		}
+		else if(closestObject != null)
+		{
+			closestHit.setHit(closestObject, sceneRay, smallestT);
+		}
+		else
+		{
+			closestHit.setMiss(sceneRay);
+		}
+	}
+
+	@Override
+	public boolean occluded(Ray sceneRay, double maxT, TraversalScratch scratch)
+	{
+		for(GeometricObject obj : extraObjects)
+		{
+			if(obj.intersect(sceneRay, 0, maxT) < maxT)
+			{
+				return true;
+			}
+		}
+		double[] tHit = scratch.getTHit();
+		tHit[0] = maxT;
+		return traverse(sceneRay, tHit, true, scratch) >= 0;
+	}
+
+	/**
+	 * Walks the tree, visiting the child nearer the ray origin first
+	 * MovingObjects calls it directly to look for a hit nearer than one it already has
+	 * @param sceneRay
+	 * @param tHit holds the farthest t to look to, updated to the t of the hit found
+	 * @param anyHit true to stop at the first hit rather than the nearest
+	 * @param scratch holds the traversal stack
+	 * @return the primitive hit, or -1 if nothing is hit before tHit
+	 */
+	int traverse(Ray sceneRay, double[] tHit, boolean anyHit, TraversalScratch scratch)
+	{
+		double smallestT = tHit[0];
+		int closestPrimitive = -1;
+		if(orderedObjects != null)
+		{
+			double[] origin = sceneRay.getOrigin().getComponents();
+			double[] direction = sceneRay.getDirection().getComponents();
+			double[] inverseDirection = scratch.getInverseDirection();
+			for(int axis = 0; axis < 3; axis++)
+			{
+				inverseDirection[axis] = 1.0/direction[axis];
+			}
+
+			int[] toVisit = scratch.getStack(treeDepth+1);
+			int toVisitCount = 0;
+			int current = 0;
+			while(true)
+			{
+				if(nodeHit(current, origin, inverseDirection, smallestT))
+				{
+					if(nodeCounts[current] > 0)
+					{
+						tHit[0] = smallestT;
+						int primitive = leafHit(current, sceneRay, origin, direction, tHit, anyHit);
+						if(primitive >= 0)
+						{
+							if(anyHit)
+							{
+								return primitive;
+							}
+							smallestT = tHit[0];
+							closestPrimitive = primitive;
+						}
+						if(toVisitCount == 0) {break;}
+						current = toVisit[--toVisitCount];
+					}
+					else if(direction[nodeAxes[current]] < 0)
+					{
+						toVisit[toVisitCount++] = current+1;
+						current = nodeOffsets[current];
+					}
+					else
+					{
+						toVisit[toVisitCount++] = nodeOffsets[current];
+						current = current+1;
+					}
+				}
+				else
+				{
+					if(toVisitCount == 0) {break;}
+					current = toVisit[--toVisitCount];
+				}
+			}
+		}
+
+		tHit[0] = smallestT;
+		return closestPrimitive;
+	}
+
+	@Override
+	public boolean walksPackets()
+	{
+		return orderedObjects != null && primitiveCount >= PACKET_PRIMITIVES;
+	}
+
+	@Override
+	public void intersectPacket(RayPacket packet, HitPoint[] hits, TraversalScratch scratch)
+	{
+		if(!packet.isCoherent() || !walksPackets())
+		{
+			super.intersectPacket(packet, hits, scratch);
+			return;
+		}
+		for(int r = 0; r < packet.size(); r++)
+		{
+			Ray sceneRay = packet.getRay(r);
+			for(GeometricObject obj : extraObjects)
+			{
+				double tValue = obj.intersect(sceneRay, 0, packet.tHit[r]);
+				if(tValue < packet.tHit[r])
+				{
+					packet.tHit[r] = tValue;
+					packet.objects[r] = obj;
+				}
+			}
+		}
+		traversePacket(packet, false, scratch);
+		for(int r = 0; r < packet.size(); r++)
+		{
+			Ray sceneRay = packet.getRay(r);
+			if(packet.primitives[r] >= 0)
+			{
+				setPrimitiveHit(hits[r], packet.primitives[r], sceneRay, packet.tHit[r]);
+			}
+			else if(packet.objects[r] != null)
+			{
+				hits[r].setHit(packet.objects[r], sceneRay, packet.tHit[r]);
+			}
+			else
+			{
+				hits[r].setMiss(sceneRay);
+			}
+		}
+	}
+
+	@Override
+	public void occludedPacket(RayPacket packet, TraversalScratch scratch)
+	{
+		if(!packet.isCoherent() || !walksPackets())
+		{
+			super.occludedPacket(packet, scratch);
+			return;
+		}
+		for(int r = 0; r < packet.size(); r++)
+		{
+			for(GeometricObject obj : extraObjects)
+			{
+				if(obj.intersect(packet.getRay(r), 0, packet.getMaxT(r)) < packet.getMaxT(r))
+				{
+					packet.blocked[r] = true;
+					break;
+				}
+			}
+		}
+		traversePacket(packet, true, scratch);
+	}
+
+	/**
+	 * Walks the tree with every ray of a coherent packet at once, visiting
+	 * the children of each node in the order traverse would for any of its rays
+	 * Each node keeps the first ray that reaches it, rays before that one
+	 * missed the node or one holding it and are skipped below it. A node the
+	 * first ray misses is skipped outright if it's outside the packet's
+	 * frustum, otherwise the later rays are tried until one reaches it
+	 * At a leaf each ray is tested against the leaf's box on its own, so every
+	 * ray tests the same leaves in the same order as traverse, and finds the same hit
+	 * @param packet its tHit, primitives and blocked are updated with what each ray hits
+	 * @param anyHit true to stop each ray at its first hit, marking it blocked
+	 * @param scratch holds the traversal stacks
+	 */
+	private void traversePacket(RayPacket packet, boolean anyHit, TraversalScratch scratch)
+	{
+		int count = packet.size();
+		double[] origins = packet.origins;
+		double[] inverseDirections = packet.inverseDirections;
+		double[] tHit = scratch.getTHit();
+		int[] toVisit = scratch.getStack(treeDepth+1);
+		int[] firstRays = scratch.getFirstRays(treeDepth+1);
+		int toVisitCount = 0;
+		int current = 0;
+		int firstRay = 0;
+		while(true)
+		{
+			boolean firstReaches = !(anyHit && packet.blocked[firstRay]) && nodeHit(current, origins, inverseDirections, firstRay*3, packet.tHit[firstRay]);
+			if(!firstReaches && packet.outsideFrustum(nodeBounds, current*6))
+			{
+				firstRay = count;
+			}
+			else if(!firstReaches)
+			{
+				firstRay++;
+				while(firstRay < count && (anyHit && packet.blocked[firstRay] || !nodeHit(current, origins, inverseDirections, firstRay*3, packet.tHit[firstRay])))
+				{
+					firstRay++;
+				}
+			}
+			if(firstRay < count && nodeCounts[current] > 0)
+			{
+				for(int r = firstRay; r < count; r++)
+				{
+					if(anyHit && packet.blocked[r] || !nodeHit(current, origins, inverseDirections, r*3, packet.tHit[r]))
+					{
+						continue;
+					}
+					Ray sceneRay = packet.getRay(r);
+					tHit[0] = packet.tHit[r];
+					int primitive = leafHit(current, sceneRay, sceneRay.getOrigin().getComponents(), sceneRay.getDirection().getComponents(), tHit, anyHit);
+					if(primitive >= 0)
+					{
+						packet.tHit[r] = tHit[0];
+						packet.primitives[r] = primitive;
+						packet.blocked[r] = anyHit;
+					}
+				}
+			}
+			else if(firstRay < count)
+			{
+				//The packet is coherent, so its first ray points the same way as all the others
+				if(packet.isNegative(nodeAxes[current]))
+				{
+					firstRays[toVisitCount] = firstRay;
+					toVisit[toVisitCount++] = current+1;
+					current = nodeOffsets[current];
+				}
+				else
+				{
+					firstRays[toVisitCount] = firstRay;
+					toVisit[toVisitCount++] = nodeOffsets[current];
+					current = current+1;
+				}
+				continue;
+			}
+			if(toVisitCount == 0) {break;}
+			current = toVisit[--toVisitCount];
+			firstRay = firstRays[toVisitCount];
+		}
+	}
+}
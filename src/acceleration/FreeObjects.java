@@ -5,13 +5,17 @@ package acceleration;
  */
 
 import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
 
 import geometry.GeometricObject;
+import geometry.TriangleMesh;
 import rendering.HitPoint;
 import rendering.Ray;
 
 public class FreeObjects extends AccelerationStructure
 {
+	//Every primitive in id order, only the mesh triangles are filled in
+	private PackedTriangles packedTriangles;
 	
 	public FreeObjects()
 	{
@@ -25,34 +29,76 @@ public class FreeObjects extends AccelerationStructure
 	}
 
 	@Override
-	public void addGeometricObjectList(ArrayList<GeometricObject> objects)
+	public void addGeometricObjectList(ArrayList<GeometricObject> objects, ArrayList<TriangleMesh> meshes)
 	{
 		for(GeometricObject object : objects)
 		{
 			addGeometricObject(object);
 		}
+		indexPrimitives(meshes);
+		int[] order = new int[primitiveCount];
+		for(int prim = 0; prim < primitiveCount; prim++)
+		{
+			order[prim] = prim;
+		}
+		ForkJoinPool pool = new ForkJoinPool(buildThreads);
+		try
+		{
+			packedTriangles = packTriangles(pool, order, primitiveCount);
+		}
+		finally
+		{
+			pool.shutdown();
+		}
 	}
 
 	@Override
-	public HitPoint intersectRay(Ray sceneRay)
+	public void intersectRay(Ray sceneRay, HitPoint closestHit, TraversalScratch scratch)
 	{
-		HitPoint closestHit = new HitPoint(null, null, sceneRay);
 		double smallestT = Double.MAX_VALUE;
+		int closestPrimitive = -1;
 		
-		for(GeometricObject obj : sceneObjects)
+		for(int prim = 0; prim < sceneObjects.size(); prim++)
+		{
+			double tValue = intersectPrimitive(prim, sceneRay, 0, smallestT);
+			if(tValue < smallestT)
+			{
+				smallestT = tValue;
+				closestPrimitive = prim;
+			}
+		}
+		//Mesh triangles follow the objects and are all tested in one pass
+		double[] tHit = scratch.getTHit();
+		tHit[0] = smallestT;
+		int slot = packedTriangles.intersect(sceneObjects.size(), primitiveCount, sceneRay.getOrigin().getComponents(), sceneRay.getDirection().getComponents(), 0, tHit, false);
+		if(slot >= 0)
+		{
+			smallestT = tHit[0];
+			closestPrimitive = slot;
+		}
+		if(closestPrimitive >= 0)
+		{
+			setPrimitiveHit(closestHit, closestPrimitive, sceneRay, smallestT);
+		}
+		else
+		{
+			closestHit.setMiss(sceneRay);
+		}
+	}
+	
+	@Override
+	public boolean occluded(Ray sceneRay, double maxT, TraversalScratch scratch)
+	{
+		for(int prim = 0; prim < sceneObjects.size(); prim++)
 		{
-			ArrayList<Double> intersections = obj.intersect(sceneRay);
-			for(double tValue : intersections)
+			if(intersectPrimitive(prim, sceneRay, 0, maxT) < maxT)
 			{
-				if(tValue < smallestT && tValue > 0)
-				{
-					smallestT = tValue;
-					closestHit.setObject(obj);
-					closestHit.setHitPoint(sceneRay.getPoint(smallestT));
-				}
+				return true;
 			}
 		}
-		return closestHit;
+		double[] tHit = scratch.getTHit();
+		tHit[0] = maxT;
+		return packedTriangles.intersect(sceneObjects.size(), primitiveCount, sceneRay.getOrigin().getComponents(), sceneRay.getDirection().getComponents(), 0, tHit, true) >= 0;
 	}
 
 }
@@ -0,0 +1,224 @@
+package acceleration;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.IdentityHashMap;
+
+import geometry.GeometricObject;
+import geometry.TriangleMesh;
+import rendering.HitPoint;
+import rendering.Ray;
+
+/**
+ * Splits a scene into the objects and meshes an animation moves and everything else
+ * The still objects and meshes go into another structure, built once and
+ * reused for every frame, and the moving objects are tested on their own like
+ * FreeObjects does, so moving them between frames needs no rebuild
+ * The moving meshes are too big to test on their own, so they get a
+ * BoundingVolumeHierarchy of their own that is rebuilt whenever they move
+ * @author alexaulabaugh
+ *
+ */
+public class MovingObjects extends AccelerationStructure
+{
+	//Holds everything that never moves
+	private AccelerationStructure stillStructure;
+	//The objects and meshes that move, sceneObjects holds the objects of them that were added
+	private IdentityHashMap<GeometricObject, Boolean> moving;
+	//The moving meshes that were added, and the structure over where they are now, null if there are none
+	private ArrayList<TriangleMesh> movingMeshes;
+	private BoundingVolumeHierarchy movingMeshStructure;
+
+	/**
+	 * @param still the structure to build from the objects and meshes that never move
+	 * @param movingObjects the objects that may move between frames
+	 * @param animatedMeshes the meshes that may move between frames
+	 */
+	public MovingObjects(AccelerationStructure still, Collection<GeometricObject> movingObjects, Collection<TriangleMesh> animatedMeshes)
+	{
+		stillStructure = still;
+		sceneObjects = new ArrayList<GeometricObject>();
+		movingMeshes = new ArrayList<TriangleMesh>();
+		moving = new IdentityHashMap<GeometricObject, Boolean>();
+		for(GeometricObject object : movingObjects)
+		{
+			moving.put(object, Boolean.TRUE);
+		}
+		for(TriangleMesh mesh : animatedMeshes)
+		{
+			moving.put(mesh, Boolean.TRUE);
+		}
+	}
+
+	@Override
+	protected void addGeometricObject(GeometricObject obj)
+	{
+		sceneObjects.add(obj);
+	}
+
+	@Override
+	public void addGeometricObjectList(ArrayList<GeometricObject> objects, ArrayList<TriangleMesh> meshes)
+	{
+		ArrayList<GeometricObject> stillObjects = new ArrayList<GeometricObject>();
+		for(GeometricObject object : objects)
+		{
+			if(moving.containsKey(object))
+			{
+				addGeometricObject(object);
+			}
+			else
+			{
+				stillObjects.add(object);
+			}
+		}
+		ArrayList<TriangleMesh> stillMeshes = new ArrayList<TriangleMesh>();
+		for(TriangleMesh mesh : meshes)
+		{
+			if(moving.containsKey(mesh))
+			{
+				movingMeshes.add(mesh);
+			}
+			else
+			{
+				stillMeshes.add(mesh);
+			}
+		}
+		stillStructure.addGeometricObjectList(stillObjects, stillMeshes);
+		meshesMoved();
+	}
+
+	/**
+	 * Rebuilds the structure over the moving meshes, to be called after any of them
+	 * moves and before the next ray is traced
+	 */
+	public void meshesMoved()
+	{
+		if(movingMeshes.isEmpty())
+		{
+			return;
+		}
+		movingMeshStructure = new BoundingVolumeHierarchy();
+		movingMeshStructure.setBuildThreads(buildThreads);
+		movingMeshStructure.addGeometricObjectList(new ArrayList<GeometricObject>(), movingMeshes);
+	}
+
+	@Override
+	public void setBuildThreads(int threads)
+	{
+		super.setBuildThreads(threads);
+		stillStructure.setBuildThreads(threads);
+	}
+
+	/**
+	 * Replaces a hit found in the still structure with the nearest moving object in front of it
+	 * @param sceneRay
+	 * @param hit the hit from the still structure, overwritten if a moving object is nearer
+	 */
+	private void nearestMoving(Ray sceneRay, HitPoint hit)
+	{
+		double smallestT = hit.getObject() == null ? Double.MAX_VALUE : hit.getT();
+		GeometricObject closestObject = null;
+		for(GeometricObject object : sceneObjects)
+		{
+			double tValue = object.intersect(sceneRay, 0, smallestT);
+			if(tValue < smallestT)
+			{
+				smallestT = tValue;
+				closestObject = object;
+			}
+		}
+		if(closestObject != null)
+		{
+			hit.setHit(closestObject, sceneRay, smallestT);
+		}
+	}
+
+	/**
+	 * Replaces a hit found in the still structure with the nearest moving mesh
+	 * or moving object in front of it
+	 * @param sceneRay
+	 * @param hit the hit from the still structure, overwritten if anything moving is nearer
+	 * @param scratch the calling thread's traversal arrays
+	 */
+	private void nearestMovingHit(Ray sceneRay, HitPoint hit, TraversalScratch scratch)
+	{
+		if(movingMeshStructure != null)
+		{
+			double[] tHit = scratch.getTHit();
+			tHit[0] = hit.getObject() == null ? Double.MAX_VALUE : hit.getT();
+			int meshPrimitive = movingMeshStructure.traverse(sceneRay, tHit, false, scratch);
+			if(meshPrimitive >= 0)
+			{
+				movingMeshStructure.setPrimitiveHit(hit, meshPrimitive, sceneRay, tHit[0]);
+			}
+		}
+		nearestMoving(sceneRay, hit);
+	}
+
+	@Override
+	public void intersectRay(Ray sceneRay, HitPoint closestHit, TraversalScratch scratch)
+	{
+		stillStructure.intersectRay(sceneRay, closestHit, scratch);
+		nearestMovingHit(sceneRay, closestHit, scratch);
+	}
+
+	@Override
+	public boolean occluded(Ray sceneRay, double maxT, TraversalScratch scratch)
+	{
+		for(GeometricObject object : sceneObjects)
+		{
+			if(object.intersect(sceneRay, 0, maxT) < maxT)
+			{
+				return true;
+			}
+		}
+		if(movingMeshStructure != null && movingMeshStructure.occluded(sceneRay, maxT, scratch))
+		{
+			return true;
+		}
+		return stillStructure.occluded(sceneRay, maxT, scratch);
+	}
+
+	@Override
+	public boolean walksPackets()
+	{
+		return stillStructure.walksPackets();
+	}
+
+	@Override
+	public void intersectPacket(RayPacket packet, HitPoint[] hits, TraversalScratch scratch)
+	{
+		stillStructure.intersectPacket(packet, hits, scratch);
+		for(int r = 0; r < packet.size(); r++)
+		{
+			nearestMovingHit(packet.getRay(r), hits[r], scratch);
+		}
+	}
+
+	@Override
+	public void occludedPacket(RayPacket packet, TraversalScratch scratch)
+	{
+		stillStructure.occludedPacket(packet, scratch);
+		for(int r = 0; r < packet.size(); r++)
+		{
+			if(packet.isBlocked(r))
+			{
+				continue;
+			}
+			Ray sceneRay = packet.getRay(r);
+			double maxT = packet.getMaxT(r);
+			for(GeometricObject object : sceneObjects)
+			{
+				if(object.intersect(sceneRay, 0, maxT) < maxT)
+				{
+					packet.setBlocked(r, true);
+					break;
+				}
+			}
+			if(!packet.isBlocked(r) && movingMeshStructure != null)
+			{
+				packet.setBlocked(r, movingMeshStructure.occluded(sceneRay, maxT, scratch));
+			}
+		}
+	}
+}
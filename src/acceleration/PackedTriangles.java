@@ -0,0 +1,177 @@
+package acceleration;
+
+import geometry.Triangle;
+
+/**
+ * Mesh triangles copied out in the order a structure visits them, one array
+ * per component, so the triangles of a leaf or cell sit next to each other
+ * in memory and are tested against a ray in one loop with no lookups through
+ * the mesh's index array. The test itself is Triangle.intersectEdges
+ * Slots holding anything other than a mesh triangle are left degenerate
+ * and are never hit, the structure tests those objects itself
+ * When the jdk.incubator.vector module is loaded and VectorTriangleKernel was
+ * built, from src-vector, several slots are tested at once with the Vector API,
+ * otherwise one slot at a time. Both give the same hits, see the README
+ * @author alexaulabaugh
+ *
+ */
+final class PackedTriangles
+{
+	/**
+	 * Tests one ray against a range of slots several at a time, with the same
+	 * arguments, result and hits as intersectScalar
+	 */
+	interface Kernel
+	{
+		/**
+		 * @return how many slots are tested at once, a test may read this many minus one slots past the range
+		 */
+		int lanes();
+
+		/**
+		 * @see PackedTriangles#intersectScalar
+		 */
+		int intersect(PackedTriangles packed, int start, int end, double[] org, double[] dir, double tMin, double[] tHit, boolean anyHit);
+	}
+
+	//The Vector API kernel, or null to test one slot at a time
+	private static final Kernel VECTOR_KERNEL = loadVectorKernel();
+	//Ranges shorter than this are tested one slot at a time even with the Vector API kernel
+	private static final int VECTOR_MIN_SLOTS = 2;
+
+	//First vertex of each slot's triangle, read directly by the kernels
+	final double[] v0x, v0y, v0z;
+	//Edges from the first vertex to the second and third
+	final double[] e1x, e1y, e1z;
+	final double[] e2x, e2y, e2z;
+	//False for slots that hold something other than a mesh triangle
+	private boolean[] triangle;
+
+	/**
+	 * @param slots how many primitives will be packed
+	 */
+	PackedTriangles(int slots)
+	{
+		//Degenerate slots past the end that a kernel can read without going out of bounds
+		int padded = VECTOR_KERNEL == null ? slots : slots + VECTOR_KERNEL.lanes() - 1;
+		v0x = new double[padded];
+		v0y = new double[padded];
+		v0z = new double[padded];
+		e1x = new double[padded];
+		e1y = new double[padded];
+		e1z = new double[padded];
+		e2x = new double[padded];
+		e2y = new double[padded];
+		e2z = new double[padded];
+		triangle = new boolean[slots];
+	}
+
+	/**
+	 * @return the Vector API kernel, or null if jdk.incubator.vector isn't loaded
+	 * or the kernel wasn't built
+	 */
+	private static Kernel loadVectorKernel()
+	{
+		if(!ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent())
+		{
+			return null;
+		}
+		try
+		{
+			return (Kernel)Class.forName("acceleration.VectorTriangleKernel").getDeclaredConstructor().newInstance();
+		}
+		catch(ReflectiveOperationException | LinkageError e)
+		{
+			System.out.println("Error: jdk.incubator.vector is loaded but VectorTriangleKernel can't be, testing triangles one at a time");
+			return null;
+		}
+	}
+
+	/**
+	 * @return the kernel intersect uses for longer ranges, or null if it tests one slot at a time
+	 */
+	static Kernel getVectorKernel()
+	{
+		return VECTOR_KERNEL;
+	}
+
+	/**
+	 * @param slot
+	 * @param edges the first vertex then the two edges leaving it, see TriangleMesh.getTriangleEdges
+	 */
+	void setTriangle(int slot, double[] edges)
+	{
+		v0x[slot] = edges[0];
+		v0y[slot] = edges[1];
+		v0z[slot] = edges[2];
+		e1x[slot] = edges[3];
+		e1y[slot] = edges[4];
+		e1z[slot] = edges[5];
+		e2x[slot] = edges[6];
+		e2y[slot] = edges[7];
+		e2z[slot] = edges[8];
+		triangle[slot] = true;
+	}
+
+	/**
+	 * @param slot
+	 * @return true if the slot holds a mesh triangle, false if the caller must test it
+	 */
+	boolean isTriangle(int slot)
+	{
+		return triangle[slot];
+	}
+
+	/**
+	 * Intersects one ray with the triangles in a range of slots, with the
+	 * Vector API kernel if there is one and the range is long enough
+	 * @param start first slot to test
+	 * @param end one past the last slot to test
+	 * @param org the ray origin
+	 * @param dir the ray direction
+	 * @param tMin hits at or before this t are ignored
+	 * @param tHit holds the farthest t to look to, updated to the t of the hit found
+	 * @param anyHit true to stop at the first hit rather than the nearest
+	 * @return the slot hit, or -1 if no triangle is hit before tHit
+	 */
+	int intersect(int start, int end, double[] org, double[] dir, double tMin, double[] tHit, boolean anyHit)
+	{
+		if(VECTOR_KERNEL != null && end - start >= VECTOR_MIN_SLOTS)
+		{
+			return VECTOR_KERNEL.intersect(this, start, end, org, dir, tMin, tHit, anyHit);
+		}
+		return intersectScalar(start, end, org, dir, tMin, tHit, anyHit);
+	}
+
+	/**
+	 * Intersects one ray with the triangles in a range of slots, one slot at a time
+	 * @param start first slot to test
+	 * @param end one past the last slot to test
+	 * @param org the ray origin
+	 * @param dir the ray direction
+	 * @param tMin hits at or before this t are ignored
+	 * @param tHit holds the farthest t to look to, updated to the t of the hit found
+	 * @param anyHit true to stop at the first hit rather than the nearest
+	 * @return the slot hit, or -1 if no triangle is hit before tHit
+	 */
+	int intersectScalar(int start, int end, double[] org, double[] dir, double tMin, double[] tHit, boolean anyHit)
+	{
+		double nearest = tHit[0];
+		int nearestSlot = -1;
+		for(int i = start; i < end; i++)
+		{
+			double t = Triangle.intersectEdges(org, dir, v0x[i], v0y[i], v0z[i], e1x[i], e1y[i], e1z[i], e2x[i], e2y[i], e2z[i], tMin, nearest);
+			if(t < nearest)
+			{
+				nearest = t;
+				nearestSlot = i;
+				if(anyHit)
+				{
+					break;
+				}
+			}
+		}
+		tHit[0] = nearest;
+		return nearestSlot;
+	}
+}
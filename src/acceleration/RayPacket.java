@@ -0,0 +1,370 @@
+package acceleration;
+
+import java.util.Arrays;
+
+import geometry.GeometricObject;
+import rendering.Ray;
+
+/**
+ * A bundle of rays walked through a structure together, like the camera rays
+ * of a block of pixels or the shadow rays from their hits toward one light
+ * The packet is coherent when every ray points the same way along each axis,
+ * so a tree visits the children of a node in the same order for every ray.
+ * When the rays leave from one point, or all end at one point, the packet
+ * also has a frustum: four planes through that point that every ray stays
+ * between, so a node outside them is skipped with one test for the whole packet
+ * Structures that can't walk a packet, or are given one that isn't coherent,
+ * trace its rays one at a time
+ * @author alexaulabaugh
+ *
+ */
+public final class RayPacket
+{
+	//Fewest rays worth walking together
+	private static final int MIN_RAYS = 4;
+	//How far the frustum is widened past its rays, so rounding never puts a ray outside it
+	private static final double FRUSTUM_SLACK = 1e-7;
+
+	private int count;
+	private Ray[] rays;
+	//xyz of each ray's origin and the reciprocals of its direction, as a single ray walk works them out
+	double[] origins;
+	double[] inverseDirections;
+	//How far each shadow ray goes before it reaches its end
+	private double[] maxT;
+	//Each ray's farthest t to look to, updated to the t of the nearest hit found
+	double[] tHit;
+	//The tree primitive each ray hits or -1, and the unbounded object it hits nearer than tHit or null
+	int[] primitives;
+	GeometricObject[] objects;
+	//Whether each shadow ray is blocked before its end
+	boolean[] blocked;
+	private boolean coherent;
+	//Four planes, each a normal xyz, that every ray stays on the positive side of, through apex
+	private boolean hasFrustum;
+	private double[] apex;
+	private double[] planes;
+	//Min xyz then max xyz of the box every shadow ray stays in, when the rays have an end
+	private boolean hasBounds;
+	private double[] bounds;
+	//Which way the first ray points along each axis, and the vector a frustum is measured along
+	private boolean[] negative;
+	private double[] spread;
+
+	public RayPacket()
+	{
+		rays = new Ray[0];
+		apex = new double[3];
+		planes = new double[12];
+		bounds = new double[6];
+		negative = new boolean[3];
+		spread = new double[3];
+		grow(0);
+	}
+
+	/**
+	 * @param size the most rays the packet must hold
+	 */
+	private void grow(int size)
+	{
+		if(rays.length >= size && origins != null)
+		{
+			return;
+		}
+		rays = new Ray[size];
+		maxT = new double[size];
+		origins = new double[size*3];
+		inverseDirections = new double[size*3];
+		tHit = new double[size];
+		primitives = new int[size];
+		objects = new GeometricObject[size];
+		blocked = new boolean[size];
+	}
+
+	/**
+	 * Makes the packet from rays looking for their nearest hit
+	 * @param packetRays
+	 * @param rayCount how many of packetRays are in the packet
+	 */
+	public void setRays(Ray[] packetRays, int rayCount)
+	{
+		fill(packetRays, rayCount);
+		for(int r = 0; r < rayCount; r++)
+		{
+			tHit[r] = Double.MAX_VALUE;
+		}
+		hasBounds = false;
+		hasFrustum = false;
+		if(coherent && sameOrigins())
+		{
+			//The frustum spreads out from the shared origin along the rays
+			double[] origin = rays[0].getOrigin().getComponents();
+			hasFrustum = buildFrustum(origin, true);
+		}
+	}
+
+	/**
+	 * Makes the packet from shadow rays that all end at the same point
+	 * @param packetRays
+	 * @param rayMaxT how far each ray goes before it reaches the end
+	 * @param rayCount how many of packetRays are in the packet
+	 * @param end where every ray ends, e.g. a point light
+	 */
+	public void setShadowRays(Ray[] packetRays, double[] rayMaxT, int rayCount, double[] end)
+	{
+		fill(packetRays, rayCount);
+		System.arraycopy(rayMaxT, 0, maxT, 0, rayCount);
+		System.arraycopy(rayMaxT, 0, tHit, 0, rayCount);
+		hasBounds = false;
+		hasFrustum = false;
+		if(!coherent)
+		{
+			return;
+		}
+		//The frustum spreads out from the end back toward the origins
+		hasFrustum = buildFrustum(end, false);
+		for(int axis = 0; axis < 3; axis++)
+		{
+			bounds[axis] = end[axis];
+			bounds[3 + axis] = end[axis];
+		}
+		for(int r = 0; r < rayCount; r++)
+		{
+			for(int axis = 0; axis < 3; axis++)
+			{
+				bounds[axis] = Math.min(bounds[axis], origins[r*3 + axis]);
+				bounds[3 + axis] = Math.max(bounds[3 + axis], origins[r*3 + axis]);
+			}
+		}
+		for(int axis = 0; axis < 3; axis++)
+		{
+			double slack = FRUSTUM_SLACK*(1 + Math.abs(bounds[axis]) + Math.abs(bounds[3 + axis]));
+			bounds[axis] -= slack;
+			bounds[3 + axis] += slack;
+		}
+		hasBounds = true;
+	}
+
+	/**
+	 * Copies the rays' origins and inverse directions, and checks they point the same way
+	 * @param packetRays
+	 * @param rayCount
+	 */
+	private void fill(Ray[] packetRays, int rayCount)
+	{
+		grow(rayCount);
+		count = rayCount;
+		coherent = rayCount >= MIN_RAYS;
+		for(int r = 0; r < rayCount; r++)
+		{
+			rays[r] = packetRays[r];
+			double[] origin = packetRays[r].getOrigin().getComponents();
+			double[] direction = packetRays[r].getDirection().getComponents();
+			for(int axis = 0; axis < 3; axis++)
+			{
+				origins[r*3 + axis] = origin[axis];
+				inverseDirections[r*3 + axis] = 1.0/direction[axis];
+				if(r == 0)
+				{
+					negative[axis] = direction[axis] < 0;
+				}
+				else if(negative[axis] != direction[axis] < 0)
+				{
+					coherent = false;
+				}
+			}
+			primitives[r] = -1;
+			objects[r] = null;
+			blocked[r] = false;
+		}
+	}
+
+	/**
+	 * @return true if every ray leaves from exactly the same point
+	 */
+	private boolean sameOrigins()
+	{
+		for(int r = 1; r < count; r++)
+		{
+			for(int axis = 0; axis < 3; axis++)
+			{
+				if(origins[r*3 + axis] != origins[axis])
+				{
+					return false;
+				}
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Finds the planes through a point that every ray stays between
+	 * They are found from the slopes of the rays across the axis the first
+	 * ray goes along most, so every ray must go the same way along that axis
+	 * @param point where the frustum starts, the rays' shared origin or end
+	 * @param fromOrigin true if the rays leave point, false if they end at it
+	 * @return false if the rays spread too far for a frustum
+	 */
+	private boolean buildFrustum(double[] point, boolean fromOrigin)
+	{
+		System.arraycopy(point, 0, apex, 0, 3);
+		raySpread(0, fromOrigin, spread);
+		int k = 0;
+		for(int axis = 1; axis < 3; axis++)
+		{
+			if(Math.abs(spread[axis]) > Math.abs(spread[k]))
+			{
+				k = axis;
+			}
+		}
+		int i = (k + 1)%3;
+		int j = (k + 2)%3;
+		double sign = spread[k] < 0 ? -1 : 1;
+		double uMin = Double.MAX_VALUE;
+		double uMax = -Double.MAX_VALUE;
+		double vMin = Double.MAX_VALUE;
+		double vMax = -Double.MAX_VALUE;
+		for(int r = 0; r < count; r++)
+		{
+			raySpread(r, fromOrigin, spread);
+			if(!(spread[k]*sign > 0))
+			{
+				return false;
+			}
+			double u = spread[i]/spread[k];
+			double v = spread[j]/spread[k];
+			uMin = Math.min(uMin, u);
+			uMax = Math.max(uMax, u);
+			vMin = Math.min(vMin, v);
+			vMax = Math.max(vMax, v);
+		}
+		uMin -= FRUSTUM_SLACK*(1 + Math.abs(uMin));
+		uMax += FRUSTUM_SLACK*(1 + Math.abs(uMax));
+		vMin -= FRUSTUM_SLACK*(1 + Math.abs(vMin));
+		vMax += FRUSTUM_SLACK*(1 + Math.abs(vMax));
+		//A point p is inside when uMin <= (p[i] - apex[i])/(p[k] - apex[k]) <= uMax, and the same for v along j
+		//Multiplied through by (p[k] - apex[k]), which has the rays' sign, each bound is a plane through apex
+		Arrays.fill(planes, 0);
+		planes[i] = sign;
+		planes[k] = -sign*uMin;
+		planes[3 + i] = -sign;
+		planes[3 + k] = sign*uMax;
+		planes[6 + j] = sign;
+		planes[6 + k] = -sign*vMin;
+		planes[9 + j] = -sign;
+		planes[9 + k] = sign*vMax;
+		return true;
+	}
+
+	/**
+	 * @param r
+	 * @param fromOrigin true for the ray's direction, false for the way from its end back to its origin
+	 * @param dest where to write the vector
+	 */
+	private void raySpread(int r, boolean fromOrigin, double[] dest)
+	{
+		if(fromOrigin)
+		{
+			System.arraycopy(rays[r].getDirection().getComponents(), 0, dest, 0, 3);
+			return;
+		}
+		for(int axis = 0; axis < 3; axis++)
+		{
+			dest[axis] = origins[r*3 + axis] - apex[axis];
+		}
+	}
+
+	/**
+	 * @param nodeBounds min xyz then max xyz of boxes
+	 * @param offset where the box starts in nodeBounds
+	 * @return true if no ray of the packet can reach anything in the box
+	 */
+	boolean outsideFrustum(double[] nodeBounds, int offset)
+	{
+		if(hasBounds)
+		{
+			for(int axis = 0; axis < 3; axis++)
+			{
+				if(nodeBounds[offset + axis] > bounds[3 + axis] || nodeBounds[offset + 3 + axis] < bounds[axis])
+				{
+					return true;
+				}
+			}
+		}
+		if(!hasFrustum)
+		{
+			return false;
+		}
+		for(int plane = 0; plane < 12; plane += 3)
+		{
+			//The corner of the box farthest along the plane's normal, measured from the apex
+			double farthest = 0;
+			for(int axis = 0; axis < 3; axis++)
+			{
+				double normal = planes[plane + axis];
+				double low = nodeBounds[offset + axis] - apex[axis];
+				double high = nodeBounds[offset + 3 + axis] - apex[axis];
+				farthest += Math.max(normal*low, normal*high);
+			}
+			if(farthest < 0)
+			{
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * @return true if the rays point the same way along each axis, so a structure can walk them together
+	 */
+	public boolean isCoherent()
+	{
+		return coherent;
+	}
+
+	/**
+	 * @param axis
+	 * @return true if the rays point toward -axis, the same for every ray of a coherent packet
+	 */
+	boolean isNegative(int axis)
+	{
+		return negative[axis];
+	}
+
+	public int size()
+	{
+		return count;
+	}
+
+	public Ray getRay(int r)
+	{
+		return rays[r];
+	}
+
+	/**
+	 * @param r
+	 * @return how far shadow ray r goes before it reaches its end
+	 */
+	public double getMaxT(int r)
+	{
+		return maxT[r];
+	}
+
+	/**
+	 * @param r
+	 * @return true if shadow ray r is blocked before its end, valid once the packet has been tested
+	 */
+	public boolean isBlocked(int r)
+	{
+		return blocked[r];
+	}
+
+	/**
+	 * @param r
+	 * @param isBlocked whether shadow ray r is blocked before its end
+	 */
+	public void setBlocked(int r, boolean isBlocked)
+	{
+		blocked[r] = isBlocked;
+	}
+}
@@ -1,9 +1,12 @@
 package acceleration;
 
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicIntegerArray;
 
 import geometry.GeometricObject;
+import geometry.TriangleMesh;
 import rendering.HitPoint;
 import rendering.Ray;
 import rendering.TripletVector;
@@ -31,13 +34,30 @@ public class RegularGrid extends AccelerationStructure
 	private double wz;
 	
 	//number of cells each dimension
-	private double nx;
-	private double ny;
-	private double nz;
+	private int nx;
+	private int ny;
+	private int nz;
 	
-	//A hash from cell index to list of objects
-	//should be sparse
-	private HashMap<String, ArrayList<GeometricObject>> cells;
+	//Lattices with more cells than this are stored sparsely
+	private static final long DENSE_CELL_LIMIT = 1L << 24;
+	//Sparse cell indices are packed alongside an object index into a long
+	private static final long MAX_CELLS = 1L << 32;
+	//The most object references the cell arrays can hold, the largest array the VM reliably allocates
+	private static final long MAX_ENTRIES = Integer.MAX_VALUE - 8;
+	
+	//true to store only the occupied cells
+	private boolean sparse;
+	
+	//Cells are stored compressed-row style: the primitive ids of a cell are
+	//cellObjects[cellStarts[c]] up to (not including) cellObjects[cellStarts[c+1]]
+	//In dense mode c is the cell index, in sparse mode it is the position of the
+	//cell index in occupiedCells
+	private int[] cellStarts;
+	private int[] cellObjects;
+	//The mesh triangles of cellObjects, in the same order
+	private PackedTriangles packedTriangles;
+	//Sparse mode only: sorted indices of every cell holding at least one object
+	private long[] occupiedCells;
 	
 	//Objects that can't be contained in the grid but still need to be
 	//intersected
@@ -45,9 +65,18 @@ public class RegularGrid extends AccelerationStructure
 	private ArrayList<GeometricObject> extraGridObjects;
 	
 	public RegularGrid(int m)
+	{
+		this(m, false);
+	}
+	
+	/**
+	 * @param m the ratio of cells to objects
+	 * @param sparseCells true to only store occupied cells, for very large lattices
+	 */
+	public RegularGrid(int m, boolean sparseCells)
 	{
 		m_constant = m;
-		cells = new HashMap<String, ArrayList<GeometricObject>>();
+		sparse = sparseCells;
 		sceneObjects = new ArrayList<GeometricObject>();
 		extraGridObjects = new ArrayList<GeometricObject>();
 	}
@@ -64,71 +93,332 @@ public class RegularGrid extends AccelerationStructure
 		else
 		{
 			sceneObjects.add(obj);
-			if(minBound == null)
+		}
+	}
+
+	@Override
+	public void addGeometricObjectList(ArrayList<GeometricObject> objects, ArrayList<TriangleMesh> meshes)
+	{
+		System.out.println("Building Regular Grid");
+		for(GeometricObject object: objects)
+		{
+			addGeometricObject(object);
+		}
+		indexPrimitives(meshes);
+		if(primitiveCount > 0)
+		{
+			ForkJoinPool pool = new ForkJoinPool(buildThreads);
+			try
 			{
-				minBound = new TripletVector(objectBounds[0]);
+				computeBounds(pool);
+				setupCells();
+				placeObjects(pool);
+				packedTriangles = packTriangles(pool, cellObjects, cellObjects.length);
 			}
-			if(maxBound == null)
+			finally
 			{
-				maxBound = new TripletVector(objectBounds[1]);
+				pool.shutdown();
 			}
-			double[] minBoundComponents = minBound.getComponents();
-			double[] maxBoundComponents = maxBound.getComponents();
-			
-			for(int i = 0; i < 2; i++)
+		}
+		System.out.println("Regular Grid Complete");
+	}
+	
+	/**
+	 * Finds the bounding box of the whole grid, each chunk of primitives
+	 * bounds itself and the chunk boxes are merged
+	 * @param pool
+	 */
+	private void computeBounds(ForkJoinPool pool)
+	{
+		int chunks = chunkCount(primitiveCount);
+		final double[][] chunkBounds = new double[chunks][];
+		parallelChunks(pool, primitiveCount, chunks, new ChunkTask()
+		{
+			@Override
+			public void run(int chunk, int start, int end)
 			{
-				double[] components = objectBounds[i].getComponents();
-				for(int j = 0; j < 3; j++)
+				double[] bounds = {Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+				double[] primBounds = new double[6];
+				for(int prim = start; prim < end; prim++)
 				{
-					if(minBoundComponents[j] > components[j])
-					{
-						minBoundComponents[j] = components[j];
-					}
-					if(maxBoundComponents[j] < components[j])
+					primitiveBounds(prim, primBounds, 0);
+					for(int j = 0; j < 3; j++)
 					{
-						maxBoundComponents[j] = components[j];
+						bounds[j] = Math.min(bounds[j], primBounds[j]);
+						bounds[3 + j] = Math.max(bounds[3 + j], primBounds[3 + j]);
 					}
 				}
+				chunkBounds[chunk] = bounds;
+			}
+		});
+		double[] minBoundComponents = chunkBounds[0].clone();
+		double[] maxBoundComponents = new double[3];
+		System.arraycopy(chunkBounds[0], 3, maxBoundComponents, 0, 3);
+		for(double[] bounds : chunkBounds)
+		{
+			for(int j = 0; j < 3; j++)
+			{
+				minBoundComponents[j] = Math.min(minBoundComponents[j], bounds[j]);
+				maxBoundComponents[j] = Math.max(maxBoundComponents[j], bounds[3 + j]);
 			}
-			minBound = new TripletVector(minBoundComponents);
-			maxBound = new TripletVector(maxBoundComponents);
 		}
+		minBound = new TripletVector(minBoundComponents);
+		maxBound = new TripletVector(maxBoundComponents);
 	}
 
 	@Override
-	public void addGeometricObjectList(ArrayList<GeometricObject> objects)
+	public void intersectRay(Ray sceneRay, HitPoint closestHit, TraversalScratch scratch)
 	{
-		System.out.println("Building Regular Grid");
-		for(GeometricObject object: objects)
+		double smallestT = Double.MAX_VALUE;
+		GeometricObject closestObject = null;
+		for(GeometricObject obj : extraGridObjects)
 		{
-			addGeometricObject(object);
+			double tValue = obj.intersect(sceneRay, 0, smallestT);
+			if(tValue < smallestT)
+			{
+				smallestT = tValue;
+				closestObject = obj;
+			}
+		}
+		double[] tHit = scratch.getTHit();
+		tHit[0] = smallestT;
+		int gridPrimitive = walkLattice(sceneRay, tHit, false, scratch);
+		if(gridPrimitive >= 0)
+		{
+			setPrimitiveHit(closestHit, gridPrimitive, sceneRay, tHit[0]);
+		}
+		else if(closestObject != null)
+		{
+			closestHit.setHit(closestObject, sceneRay, smallestT);
+		}
+		else
+		{
+			closestHit.setMiss(sceneRay);
 		}
-		setupCells();
-		placeObjects();
-		System.out.println("Regular Grid Complete");
 	}
-
+	
 	@Override
-	public HitPoint intersectRay(Ray sceneRay)
+	public boolean occluded(Ray sceneRay, double maxT, TraversalScratch scratch)
 	{
-		double[] sceneRayDirectionComp = sceneRay.getDirection().getComponents();
-		HitPoint closestHit = new HitPoint(null, null, sceneRay);
-		double smallestT = Double.MAX_VALUE;
 		for(GeometricObject obj : extraGridObjects)
 		{
-			ArrayList<Double> intersections = obj.intersect(sceneRay);
-			for(double tValue : intersections)
+			if(obj.intersect(sceneRay, 0, maxT) < maxT)
 			{
-				if(tValue < smallestT && tValue > 0)
+				return true;
+			}
+		}
+		double[] tHit = scratch.getTHit();
+		tHit[0] = maxT;
+		return walkLattice(sceneRay, tHit, true, scratch) >= 0;
+	}
+	
+	/**
+	 * Walks the lattice with an incremental 3D-DDA: the t at which the ray crosses
+	 * into the next cell along each axis is tracked, so each step only adds
+	 * that axis' per-cell t to its crossing
+	 * Citation: A Fast Voxel Traversal Algorithm for Ray Tracing, Amanatides & Woo
+	 * @param sceneRay
+	 * @param tHit holds the farthest t to look to, updated to the t of the hit found
+	 * @param anyHit true to stop at the first hit rather than the nearest
+	 * @param scratch holds the slab times of the lattice's box
+	 * @return the primitive hit, or -1 if nothing is hit before tHit
+	 */
+	private int walkLattice(Ray sceneRay, double[] tHit, boolean anyHit, TraversalScratch scratch)
+	{
+		double smallestT = tHit[0];
+		int closestPrimitive = -1;
+		if(primitiveCount > 0)
+		{
+			double[] origin = sceneRay.getOrigin().getComponents();
+			double[] direction = sceneRay.getDirection().getComponents();
+			double[] minBoundComponents = minBound.getComponents();
+			
+			double t = 0;
+			if(!pointInBoundingBox(sceneRay.getOrigin(), minBound, maxBound))
+			{
+				t = boundingBoxIntersect(sceneRay, minBound, maxBound, scratch.getSlabTimes());
+			}
+			if(t >= 0 && t < smallestT)
+			{
+				//The cell the ray enters the lattice in
+				int ix = clampCoord((int)(nx*(origin[0] + t*direction[0] - minBoundComponents[0])/wx), nx);
+				int iy = clampCoord((int)(ny*(origin[1] + t*direction[1] - minBoundComponents[1])/wy), ny);
+				int iz = clampCoord((int)(nz*(origin[2] + t*direction[2] - minBoundComponents[2])/wz), nz);
+				
+				double cellX = wx/nx;
+				double cellY = wy/ny;
+				double cellZ = wz/nz;
+				
+				//t between crossings of cell walls along each axis
+				double tDeltaX = Math.abs(cellX/direction[0]);
+				double tDeltaY = Math.abs(cellY/direction[1]);
+				double tDeltaZ = Math.abs(cellZ/direction[2]);
+				
+				//t at which the ray crosses the next cell wall along each axis
+				double tMaxX = Double.MAX_VALUE;
+				double tMaxY = Double.MAX_VALUE;
+				double tMaxZ = Double.MAX_VALUE;
+				int stepX = 0;
+				int stepY = 0;
+				int stepZ = 0;
+				if(direction[0] > 0) {stepX = 1; tMaxX = (minBoundComponents[0] + (ix+1)*cellX - origin[0])/direction[0];}
+				if(direction[0] < 0) {stepX = -1; tMaxX = (minBoundComponents[0] + ix*cellX - origin[0])/direction[0];}
+				if(direction[1] > 0) {stepY = 1; tMaxY = (minBoundComponents[1] + (iy+1)*cellY - origin[1])/direction[1];}
+				if(direction[1] < 0) {stepY = -1; tMaxY = (minBoundComponents[1] + iy*cellY - origin[1])/direction[1];}
+				if(direction[2] > 0) {stepZ = 1; tMaxZ = (minBoundComponents[2] + (iz+1)*cellZ - origin[2])/direction[2];}
+				if(direction[2] < 0) {stepZ = -1; tMaxZ = (minBoundComponents[2] + iz*cellZ - origin[2])/direction[2];}
+				
+				//Walk through the lattice
+				while(true)
 				{
-					smallestT = tValue;
-					closestHit.setObject(obj);
-					closestHit.setHitPoint(sceneRay.getPoint(smallestT));
+					int slot = getCellSlot(ix, iy, iz);
+					if(slot >= 0)
+					{
+						tHit[0] = smallestT;
+						int prim = cellHit(slot, sceneRay, tHit, anyHit);
+						if(prim >= 0)
+						{
+							if(anyHit)
+							{
+								return prim;
+							}
+							smallestT = tHit[0];
+							closestPrimitive = prim;
+						}
+					}
+					
+					//Step into whichever neighbour the ray reaches first
+					if(tMaxX < tMaxY && tMaxX < tMaxZ)
+					{
+						if(smallestT <= tMaxX) {break;}
+						ix += stepX;
+						if(ix < 0 || ix >= nx) {break;}
+						tMaxX += tDeltaX;
+					}
+					else if(tMaxY < tMaxZ)
+					{
+						if(smallestT <= tMaxY) {break;}
+						iy += stepY;
+						if(iy < 0 || iy >= ny) {break;}
+						tMaxY += tDeltaY;
+					}
+					else
+					{
+						if(smallestT <= tMaxZ) {break;}
+						iz += stepZ;
+						if(iz < 0 || iz >= nz) {break;}
+						tMaxZ += tDeltaZ;
+					}
+				}
+			}
+		}
+		tHit[0] = smallestT;
+		return closestPrimitive;
+	}
+	
+	/**
+	 * Tests a ray against every primitive in one cell
+	 * @param slot the cell, see getCellSlot
+	 * @param sceneRay
+	 * @param tHit holds the farthest t to look to, updated to the t of the hit found
+	 * @param anyHit true to stop at the first hit rather than the nearest
+	 * @return the primitive hit, or -1 if nothing in the cell is hit before tHit
+	 */
+	private int cellHit(int slot, Ray sceneRay, double[] tHit, boolean anyHit)
+	{
+		int first = cellStarts[slot];
+		int end = cellStarts[slot+1];
+		double smallestT = tHit[0];
+		int closestPrimitive = -1;
+		int hitSlot = packedTriangles.intersect(first, end, sceneRay.getOrigin().getComponents(), sceneRay.getDirection().getComponents(), 0, tHit, anyHit);
+		if(hitSlot >= 0)
+		{
+			if(anyHit)
+			{
+				return cellObjects[hitSlot];
+			}
+			smallestT = tHit[0];
+			closestPrimitive = cellObjects[hitSlot];
+		}
+		//Objects other than mesh triangles are tested one at a time
+		for(int i = first; i < end && !sceneObjects.isEmpty(); i++)
+		{
+			if(packedTriangles.isTriangle(i))
+			{
+				continue;
+			}
+			int prim = cellObjects[i];
+			double tValue = intersectPrimitive(prim, sceneRay, 0, smallestT);
+			if(tValue < smallestT)
+			{
+				if(anyHit)
+				{
+					return prim;
 				}
+				smallestT = tValue;
+				closestPrimitive = prim;
 			}
 		}
+		tHit[0] = smallestT;
+		return closestPrimitive;
+	}
+	
+	/**
+	 * The nearest hit found by the box-stepping walk the 3D-DDA replaced, see walkLatticeLegacy
+	 * Only GridTraversalBenchmark uses it
+	 * @param sceneRay
+	 * @param closestHit overwritten with the nearest hit, its object is null if nothing is hit
+	 */
+	void intersectRayLegacy(Ray sceneRay, HitPoint closestHit)
+	{
+		double smallestT = Double.MAX_VALUE;
+		GeometricObject closestObject = null;
+		for(GeometricObject obj : extraGridObjects)
+		{
+			double tValue = obj.intersect(sceneRay, 0, smallestT);
+			if(tValue < smallestT)
+			{
+				smallestT = tValue;
+				closestObject = obj;
+			}
+		}
+		double[] tHit = {smallestT};
+		int gridPrimitive = walkLatticeLegacy(sceneRay, tHit);
+		if(gridPrimitive >= 0)
+		{
+			setPrimitiveHit(closestHit, gridPrimitive, sceneRay, tHit[0]);
+		}
+		else if(closestObject != null)
+		{
+			closestHit.setHit(closestObject, sceneRay, smallestT);
+		}
+		else
+		{
+			closestHit.setMiss(sceneRay);
+		}
+	}
+	
+	/**
+	 * The lattice walk from before the 3D-DDA, frozen so GridTraversalBenchmark can
+	 * time walkLattice against it. Every step intersects the ray with the box of the
+	 * cell it steps into and works out the next crossing from that entry point.
+	 * A hit counts once its point lies in the cell being tested. Cells are tested
+	 * with cellHit like walkLattice does, so the two differ only in how they step.
+	 * The original checked every axis against nx, this checks each axis against its own count
+	 * @param sceneRay
+	 * @param tHit holds the farthest t to look to, updated to the t of the hit found
+	 * @return the primitive hit, or -1 if nothing is hit before tHit
+	 */
+	private int walkLatticeLegacy(Ray sceneRay, double[] tHit)
+	{
+		double smallestT = tHit[0];
+		if(primitiveCount == 0)
+		{
+			return -1;
+		}
+		double[] sceneRayDirectionComp = sceneRay.getDirection().getComponents();
 		TripletVector currentPoint = new TripletVector(sceneRay.getOrigin());
-		int[] currentCoords = new int[3];
+		int[] currentCoords;
 		double t = 0;
 		if(pointInBoundingBox(sceneRay.getOrigin(), minBound, maxBound))
 		{
@@ -136,108 +426,90 @@ public class RegularGrid extends AccelerationStructure
 		}
 		else
 		{
-			t = boundingBoxIntersect(sceneRay, minBound, maxBound);
+			t = boundingBoxIntersect(sceneRay, minBound, maxBound, new double[6]);
 			if(t < 0.0)
 			{
-				return closestHit;
+				return -1;
 			}
 			currentPoint = sceneRay.getPoint(t);
 			currentCoords = getCoords(currentPoint);
 		}
+		int[] counts = {nx, ny, nz};
 		//Walk through the lattice
 		while(true)
 		{
-			HitPoint newHit = cellHitCheck(sceneRay, currentCoords[0], currentCoords[1], currentCoords[2]);
-			if(newHit.getObject() != null)
+			int slot = getCellSlot(currentCoords[0], currentCoords[1], currentCoords[2]);
+			if(slot >= 0)
 			{
-				int[] newHitCoords = getCoords(newHit.getPoint());
-				if(newHitCoords[0] == currentCoords[0] && newHitCoords[1] == currentCoords[1] && newHitCoords[2] == currentCoords[2])
+				tHit[0] = smallestT;
+				int prim = cellHit(slot, sceneRay, tHit, false);
+				if(prim >= 0)
 				{
-					if(newHit.getPoint().sub(sceneRay.getOrigin()).getLength() < smallestT)
-						return newHit;
-					else
-						return closestHit;
+					int[] newHitCoords = getCoords(sceneRay.getPoint(tHit[0]));
+					if(newHitCoords[0] == currentCoords[0] && newHitCoords[1] == currentCoords[1] && newHitCoords[2] == currentCoords[2])
+					{
+						return prim;
+					}
 				}
 			}
 			
 			TripletVector[] ourBox = getCellBoundingBox(currentCoords[0], currentCoords[1], currentCoords[2]);
 			double[] currentXYZ = currentPoint.getComponents();
-	        double nextX = currentXYZ[0];
-	        double nextY = currentXYZ[1];
-	        double nextZ = currentXYZ[2];
-	        
-	        if(sceneRayDirectionComp[0] > 0) { nextX = ourBox[1].getComponents()[0];}
-	        if(sceneRayDirectionComp[0] < 0) { nextX = ourBox[0].getComponents()[0];}
-	        
-	        if(sceneRayDirectionComp[1] > 0) { nextY = ourBox[1].getComponents()[1];}
-	        if(sceneRayDirectionComp[1] < 0) { nextY = ourBox[0].getComponents()[1];}
-	        
-	        if(sceneRayDirectionComp[2] > 0) { nextZ = ourBox[1].getComponents()[2];}
-	        if(sceneRayDirectionComp[2] < 0) { nextZ = ourBox[0].getComponents()[2];}
-	        
-	        double deltaX = Double.MAX_VALUE;
-	        if(sceneRayDirectionComp[0] != 0)
-	        	deltaX = (nextX - currentPoint.getComponents()[0])/(sceneRayDirectionComp[0]);
-	        double deltaY = Double.MAX_VALUE;
-	        if(sceneRayDirectionComp[1] != 0)
-	        	deltaY = (nextY - currentPoint.getComponents()[1])/(sceneRayDirectionComp[1]);
-	        double deltaZ = Double.MAX_VALUE;
-	        if(sceneRayDirectionComp[2] != 0)
-	        	deltaZ = (nextZ - currentPoint.getComponents()[2])/(sceneRayDirectionComp[2]); 
-	        
-	        if(deltaX < deltaY && deltaX < deltaZ)
-	        {
-	            if(sceneRayDirectionComp[0] > 0)
-	            {
-	            	currentCoords[0]++;
-	            }
-	            else
-	            {
-	            	currentCoords[0]--;
-	            }
-	        }
-	        else if(deltaY < deltaZ)
-	        {
-	            if(sceneRayDirectionComp[1] > 0)
-	            {
-	            	currentCoords[1]++;
-	            }
-	            else
-	            {
-	            	currentCoords[1]--;
-	            }
-	        }
-	        else 
-	        {
-	            if(sceneRayDirectionComp[2] > 0)
-	            {
-	            	currentCoords[2]++;
-	            }
-	            else
-	            {
-	            	currentCoords[2]--;
-	            }
-	        }
-	        
-	        for(int i = 0; i < 3; i++)
-	        {
-	        	if(currentCoords[i] < 0 || currentCoords[i] >= nx){return closestHit;}
-	        }
-	        TripletVector[] nextBox = getCellBoundingBox(currentCoords[0], currentCoords[1], currentCoords[2]);
-	        t = boundingBoxIntersect(sceneRay, nextBox[0], nextBox[1]);
-	        if(t < 0.0){return closestHit;}
-	        currentPoint = sceneRay.getPoint(t);
-		}		
+			double nextX = currentXYZ[0];
+			double nextY = currentXYZ[1];
+			double nextZ = currentXYZ[2];
+			
+			if(sceneRayDirectionComp[0] > 0) {nextX = ourBox[1].getComponents()[0];}
+			if(sceneRayDirectionComp[0] < 0) {nextX = ourBox[0].getComponents()[0];}
+			
+			if(sceneRayDirectionComp[1] > 0) {nextY = ourBox[1].getComponents()[1];}
+			if(sceneRayDirectionComp[1] < 0) {nextY = ourBox[0].getComponents()[1];}
+			
+			if(sceneRayDirectionComp[2] > 0) {nextZ = ourBox[1].getComponents()[2];}
+			if(sceneRayDirectionComp[2] < 0) {nextZ = ourBox[0].getComponents()[2];}
+			
+			double deltaX = Double.MAX_VALUE;
+			if(sceneRayDirectionComp[0] != 0)
+				deltaX = (nextX - currentXYZ[0])/(sceneRayDirectionComp[0]);
+			double deltaY = Double.MAX_VALUE;
+			if(sceneRayDirectionComp[1] != 0)
+				deltaY = (nextY - currentXYZ[1])/(sceneRayDirectionComp[1]);
+			double deltaZ = Double.MAX_VALUE;
+			if(sceneRayDirectionComp[2] != 0)
+				deltaZ = (nextZ - currentXYZ[2])/(sceneRayDirectionComp[2]);
+			
+			if(deltaX < deltaY && deltaX < deltaZ)
+			{
+				currentCoords[0] += sceneRayDirectionComp[0] > 0 ? 1 : -1;
+			}
+			else if(deltaY < deltaZ)
+			{
+				currentCoords[1] += sceneRayDirectionComp[1] > 0 ? 1 : -1;
+			}
+			else
+			{
+				currentCoords[2] += sceneRayDirectionComp[2] > 0 ? 1 : -1;
+			}
+			
+			for(int i = 0; i < 3; i++)
+			{
+				if(currentCoords[i] < 0 || currentCoords[i] >= counts[i]) {return -1;}
+			}
+			TripletVector[] nextBox = getCellBoundingBox(currentCoords[0], currentCoords[1], currentCoords[2]);
+			t = boundingBoxIntersect(sceneRay, nextBox[0], nextBox[1], new double[6]);
+			if(t < 0.0) {return -1;}
+			currentPoint = sceneRay.getPoint(t);
+		}
 	}
 	
 	/**
-	 * Get the worldspace bounding box of a cell by its index
+	 * Get the worldspace bounding box of a cell by its index, for walkLatticeLegacy
 	 * @param ix
 	 * @param iy
 	 * @param iz
 	 * @return bounding box
 	 */
-	TripletVector[] getCellBoundingBox(int ix, int iy, int iz)
+	private TripletVector[] getCellBoundingBox(int ix, int iy, int iz)
 	{
 		double[] minBoxCoords = new double[3];
 		double[] maxBoxCoords = new double[3];
@@ -246,15 +518,44 @@ public class RegularGrid extends AccelerationStructure
 		minBoxCoords[0] = minBoundComponents[0] + (wx/(1.0*nx))*ix;
 		minBoxCoords[1] = minBoundComponents[1] + (wy/(1.0*ny))*iy;
 		minBoxCoords[2] = minBoundComponents[2] + (wz/(1.0*nz))*iz;
-	    
+		
 		maxBoxCoords[0] = minBoxCoords[0] + (wx/(1.0*nx));
 		maxBoxCoords[1] = minBoxCoords[1] + (wy/(1.0*ny));
 		maxBoxCoords[2] = minBoxCoords[2] + (wz/(1.0*nz));
-	    
-	    TripletVector[] returnVals = new TripletVector[2];
-	    returnVals[0] = new TripletVector(minBoxCoords);
-	    returnVals[1] = new TripletVector(maxBoxCoords);
-	    return returnVals;
+		
+		TripletVector[] returnVals = new TripletVector[2];
+		returnVals[0] = new TripletVector(minBoxCoords);
+		returnVals[1] = new TripletVector(maxBoxCoords);
+		return returnVals;
+	}
+	
+	/**
+	 * Determines which cell holds a point, for walkLatticeLegacy
+	 * @param point
+	 * @return
+	 */
+	private int[] getCoords(TripletVector point)
+	{
+		double[] pointComponents = point.getComponents();
+		int[] coords = new int[3];
+		for(int axis = 0; axis < 3; axis++)
+		{
+			coords[axis] = getCoord(pointComponents[axis], axis);
+		}
+		return coords;
+	}
+	
+	/**
+	 * Keeps a lattice coordinate inside [0, n)
+	 * @param coord
+	 * @param n number of cells along the axis
+	 * @return
+	 */
+	private int clampCoord(int coord, int n)
+	{
+		if(coord < 0) {return 0;}
+		if(coord >= n) {return n-1;}
+		return coord;
 	}
 	
 	/**
@@ -285,47 +586,45 @@ public class RegularGrid extends AccelerationStructure
 	 * @param viewRay
 	 * @param minBound
 	 * @param maxBound
+	 * @param slabTimes room for six values, overwritten with the entry then exit t of each slab
 	 * @return the t value
 	 */
 	//Citation: Ray Tracing From The Ground Up, Suffern, Kevin
-	private double boundingBoxIntersect(Ray viewRay, TripletVector minBound, TripletVector maxBound)
+	private double boundingBoxIntersect(Ray viewRay, TripletVector minBound, TripletVector maxBound, double[] slabTimes)
 	{
 		double[] minBoundComponents = minBound.getComponents();
 		double[] maxBoundComponents = maxBound.getComponents();
 	    double[] originComponents = viewRay.getOrigin().getComponents();
 	    double[] directionComponents = viewRay.getDirection().getComponents();
 	    
-	    double[] t_min = new double[3];
-	    double[] t_max = new double[3];
-	    
 	    for(int i = 0; i < 3; i++)
 	    {
 	    	double a = 1.0/directionComponents[i];
 		    if( a >= 0)
 		    {
-		        t_min[i] = (minBoundComponents[i] - originComponents[i])*a;
-		        t_max[i] = (maxBoundComponents[i] - originComponents[i])*a;
+		        slabTimes[i] = (minBoundComponents[i] - originComponents[i])*a;
+		        slabTimes[3 + i] = (maxBoundComponents[i] - originComponents[i])*a;
 		    }
 		    else
 		    {
-		        t_min[i] = (maxBoundComponents[i] - originComponents[i])*a;
-		        t_max[i] = (minBoundComponents[i] - originComponents[i])*a;
+		        slabTimes[i] = (maxBoundComponents[i] - originComponents[i])*a;
+		        slabTimes[3 + i] = (minBoundComponents[i] - originComponents[i])*a;
 		    }
 	    }
 	    
 	    double t0 = -1;
 	    
-	    if(t_min[0] > t_min[1]) {t0 = t_min[0];}
-	    else {t0 = t_min[1];}
-	    if(t_min[2] > t0) {t0 = t_min[2];}
+	    if(slabTimes[0] > slabTimes[1]) {t0 = slabTimes[0];}
+	    else {t0 = slabTimes[1];}
+	    if(slabTimes[2] > t0) {t0 = slabTimes[2];}
 	    
 	    double t1 = -1;
-	    if(t_max[0] < t_max[1])
-	        t1 = t_max[0];
+	    if(slabTimes[3] < slabTimes[4])
+	        t1 = slabTimes[3];
 	    else
-	        t1 = t_max[1];
-	    if(t_max[2] < t1)
-	        t1 = t_max[2];
+	        t1 = slabTimes[4];
+	    if(slabTimes[5] < t1)
+	        t1 = slabTimes[5];
 	    
 	    if(t0 >= t1 || t1 <= 0.0001){return -1;}
 	    
@@ -333,49 +632,36 @@ public class RegularGrid extends AccelerationStructure
 	}
 	
 	/**
-	 * Checks if a ray passing through a cell hits any objects within
-	 * @param sceneRay
-	 * @param ix
-	 * @param iy
-	 * @param iz
+	 * Flattens lattice coordinates into a single cell index
+	 * @param x
+	 * @param y
+	 * @param z
 	 * @return
 	 */
-	private HitPoint cellHitCheck(Ray sceneRay, int ix, int iy, int iz)
+	private long getCellIndex(int x, int y, int z)
 	{
-	    HitPoint closestHit = new HitPoint(null, null, sceneRay);
-		double smallestT = Double.MAX_VALUE;
-
-	    String key = getKey(ix, iy, iz);
-	    ArrayList<GeometricObject> objectList = cells.get(key);
-	    
-	    if(objectList == null) {return closestHit;}
-	    		
-		for(GeometricObject obj : objectList)
-		{
-			ArrayList<Double> intersections = obj.intersect(sceneRay);
-			for(double tValue : intersections)
-			{
-				if(tValue < smallestT && tValue > 0)
-				{
-					smallestT = tValue;
-					closestHit.setObject(obj);
-					closestHit.setHitPoint(sceneRay.getPoint(smallestT));
-				}
-			}
-		}
-		return closestHit;
+		return x + (long)nx*(y + (long)ny*z);
 	}
 	
 	/**
-	 * Key to the index->arraylist hash function
+	 * Finds where a cell's entry lives in cellStarts
 	 * @param x
 	 * @param y
 	 * @param z
-	 * @return
+	 * @return the slot, or -1 if the cell is empty or outside the lattice
 	 */
-	private String getKey(int x, int y, int z)
+	private int getCellSlot(int x, int y, int z)
 	{
-		return x + "_" + y + "_" + z;
+		if(x < 0 || y < 0 || z < 0 || x >= nx || y >= ny || z >= nz) {return -1;}
+		long cellIndex = getCellIndex(x, y, z);
+		if(sparse)
+		{
+			int slot = Arrays.binarySearch(occupiedCells, cellIndex);
+			return slot < 0 ? -1 : slot;
+		}
+		int slot = (int)cellIndex;
+		if(cellStarts[slot] == cellStarts[slot+1]) {return -1;}
+		return slot;
 	}
 	
 	/**
@@ -389,74 +675,285 @@ public class RegularGrid extends AccelerationStructure
 	    wy = Math.abs(maxBoundComponents[1] - minBoundComponents[1]);
 	    wz = Math.abs(maxBoundComponents[2] - minBoundComponents[2]);
 	    
-	    double s = Math.pow((wx*wy*wz / (sceneObjects.size()*1.0)), 1.0/3.0);
+	    double s = Math.pow((wx*wy*wz / (primitiveCount*1.0)), 1.0/3.0);
 	    
 	    nx = (int)(m_constant*wx/s) + 1;
 	    ny = (int)(m_constant*wy/s) + 1;
 	    nz = (int)(m_constant*wz/s) + 1;
 	    
+	    //Keep the cell count addressable by shrinking every dimension evenly
+	    long cellCount = (long)nx*ny*nz;
+	    if(cellCount >= MAX_CELLS)
+	    {
+	    	double shrink = Math.cbrt((MAX_CELLS - 1)/(double)cellCount);
+	    	nx = Math.max(1, (int)(nx*shrink));
+	    	ny = Math.max(1, (int)(ny*shrink));
+	    	nz = Math.max(1, (int)(nz*shrink));
+	    	cellCount = (long)nx*ny*nz;
+	    }
+	    if(cellCount > DENSE_CELL_LIMIT)
+	    {
+	    	sparse = true;
+	    }
+	    System.out.println("Regular Grid: " + nx + "x" + ny + "x" + nz + (sparse ? " sparse" : " dense") + " cells");
 	}
 	
 	/**
-	 * Determines which index bounding box holds a point
-	 * @param point
+	 * Determines which cell along one axis holds a coordinate
+	 * @param component the coordinate
+	 * @param axis 0, 1 or 2 for x, y or z
 	 * @return
 	 */
-	private int[] getCoords(TripletVector point)
+	private int getCoord(double component, int axis)
 	{
-		double[] pointComponents = point.getComponents();
-		double[] minBoundComponents = minBound.getComponents();
+		double width = axis == 0 ? wx : (axis == 1 ? wy : wz);
+		int n = axis == 0 ? nx : (axis == 1 ? ny : nz);
+		int coord = (int)(n*((component - minBound.getComponents()[axis])/(width)));
+		if(coord == n){coord--;}
+		return coord;
+	}
+	
+	/**
+	 * Places all primitives into the lattice
+	 * A counting pass sizes every cell, then a second pass fills them in
+	 * @param pool
+	 */
+	private void placeObjects(ForkJoinPool pool)
+	{
+		//Cell ranges of each primitive, min xyz then max xyz
+		final int[] ranges = new int[primitiveCount*6];
+		final int objectChunks = chunkCount(primitiveCount);
+		//References each chunk of primitives adds to the cells
+		final long[] chunkEntries = new long[objectChunks];
+		parallelChunks(pool, primitiveCount, objectChunks, new ChunkTask()
+		{
+			@Override
+			public void run(int chunk, int start, int end)
+			{
+				long entries = 0;
+				double[] bounds = new double[6];
+				for(int obj = start; obj < end; obj++)
+				{
+					primitiveBounds(obj, bounds, 0);
+					for(int i = 0; i < 3; i++)
+					{
+						ranges[obj*6 + i] = getCoord(bounds[i], i);
+						ranges[obj*6 + 3 + i] = getCoord(bounds[3 + i], i);
+					}
+					entries += cellsCovered(ranges, obj);
+				}
+				chunkEntries[chunk] = entries;
+			}
+		});
+		long totalEntries = 0;
+		for(long entries : chunkEntries)
+		{
+			totalEntries += entries;
+		}
+		if(totalEntries > MAX_ENTRIES)
+		{
+			throw new RuntimeException("Error: Regular Grid has too many object references, lower the grid constant");
+		}
 		
-		int[] coords = new int[3];
+		if(sparse)
+		{
+			placeObjectsSparse(pool, ranges, objectChunks, chunkEntries, (int)totalEntries);
+		}
+		else
+		{
+			placeObjectsDense(pool, ranges, objectChunks, (int)totalEntries);
+		}
+	}
+	
+	/**
+	 * @param ranges cell ranges of each object
+	 * @param obj
+	 * @return the number of cells an object's bounding box overlaps
+	 */
+	private long cellsCovered(int[] ranges, int obj)
+	{
+		return (long)(ranges[obj*6 + 3] - ranges[obj*6] + 1)*(ranges[obj*6 + 4] - ranges[obj*6 + 1] + 1)*(ranges[obj*6 + 5] - ranges[obj*6 + 2] + 1);
+	}
+	
+	/**
+	 * Fills a cellStarts entry for every cell in the lattice
+	 * Cells are counted in parallel, turned into offsets by a parallel prefix sum,
+	 * then filled in parallel and each cell sorted so the order doesn't depend on
+	 * thread timing
+	 * @param pool
+	 * @param ranges cell ranges of each object
+	 * @param objectChunks number of chunks the objects were split into
+	 * @param totalEntries total object references across all cells
+	 */
+	private void placeObjectsDense(ForkJoinPool pool, final int[] ranges, int objectChunks, int totalEntries)
+	{
+		final int cellCount = nx*ny*nz;
+		cellStarts = new int[cellCount+1];
+		cellObjects = new int[totalEntries];
+		//Object count of each cell, later reused as each cell's fill position
+		final AtomicIntegerArray cellCursors = new AtomicIntegerArray(cellCount);
 		
-		double fpx = (pointComponents[0] - minBoundComponents[0])/(wx);
-	    int ix = (int)(nx*fpx);
-	    if(ix == nx){ix--;}
-	    
-	    double fpy = (pointComponents[1] - minBoundComponents[1])/(wy);
-	    int iy = (int)(ny*fpy);
-	    if(iy == ny){iy--;}
-	    
-	    double fpz = (pointComponents[2] - minBoundComponents[2])/(wz);
-	    int iz = (int)(nz*fpz);
-	    if(iz == nz){iz--;}
-	    
-	    coords[0] = ix;
-	    coords[1] = iy;
-	    coords[2] = iz;
-	    
-	    return coords;
+		parallelChunks(pool, primitiveCount, objectChunks, new ChunkTask()
+		{
+			@Override
+			public void run(int chunk, int start, int end)
+			{
+				for(int obj = start; obj < end; obj++)
+				{
+					for(int ix = ranges[obj*6]; ix <= ranges[obj*6 + 3]; ix++)
+			        {
+			            for(int iy = ranges[obj*6 + 1]; iy <= ranges[obj*6 + 4]; iy++)
+			            {
+			                for(int iz = ranges[obj*6 + 2]; iz <= ranges[obj*6 + 5]; iz++)
+			                {
+			                	cellCursors.incrementAndGet((int)getCellIndex(ix, iy, iz));
+			                }
+			            }
+			        }
+				}
+			}
+		});
 		
+		//Prefix sum: each chunk of cells totals itself, the totals are scanned,
+		//then each chunk writes its offsets starting from its scanned total
+		int cellChunks = chunkCount(cellCount);
+		final int[] chunkOffsets = new int[cellChunks];
+		parallelChunks(pool, cellCount, cellChunks, new ChunkTask()
+		{
+			@Override
+			public void run(int chunk, int start, int end)
+			{
+				int sum = 0;
+				for(int c = start; c < end; c++)
+				{
+					sum += cellCursors.get(c);
+				}
+				chunkOffsets[chunk] = sum;
+			}
+		});
+		int runningTotal = 0;
+		for(int chunk = 0; chunk < cellChunks; chunk++)
+		{
+			int chunkTotal = chunkOffsets[chunk];
+			chunkOffsets[chunk] = runningTotal;
+			runningTotal += chunkTotal;
+		}
+		parallelChunks(pool, cellCount, cellChunks, new ChunkTask()
+		{
+			@Override
+			public void run(int chunk, int start, int end)
+			{
+				int offset = chunkOffsets[chunk];
+				for(int c = start; c < end; c++)
+				{
+					cellStarts[c] = offset;
+					offset += cellCursors.get(c);
+					cellCursors.set(c, cellStarts[c]);
+				}
+			}
+		});
+		cellStarts[cellCount] = totalEntries;
+		
+		parallelChunks(pool, primitiveCount, objectChunks, new ChunkTask()
+		{
+			@Override
+			public void run(int chunk, int start, int end)
+			{
+				for(int obj = start; obj < end; obj++)
+				{
+					for(int ix = ranges[obj*6]; ix <= ranges[obj*6 + 3]; ix++)
+			        {
+			            for(int iy = ranges[obj*6 + 1]; iy <= ranges[obj*6 + 4]; iy++)
+			            {
+			                for(int iz = ranges[obj*6 + 2]; iz <= ranges[obj*6 + 5]; iz++)
+			                {
+			                	cellObjects[cellCursors.getAndIncrement((int)getCellIndex(ix, iy, iz))] = obj;
+			                }
+			            }
+			        }
+				}
+			}
+		});
+		
+		parallelChunks(pool, cellCount, cellChunks, new ChunkTask()
+		{
+			@Override
+			public void run(int chunk, int start, int end)
+			{
+				for(int c = start; c < end; c++)
+				{
+					if(cellStarts[c+1] - cellStarts[c] > 1)
+					{
+						Arrays.sort(cellObjects, cellStarts[c], cellStarts[c+1]);
+					}
+				}
+			}
+		});
 	}
 	
 	/**
-	 * Places all sceneObjects into the lattice
+	 * Only stores cells that hold objects, found by binary search at trace time
+	 * @param pool
+	 * @param ranges cell ranges of each object
+	 * @param objectChunks number of chunks the objects were split into
+	 * @param chunkEntries object references each chunk of objects adds
+	 * @param totalEntries total object references across all cells
 	 */
-	private void placeObjects()
+	private void placeObjectsSparse(ForkJoinPool pool, final int[] ranges, int objectChunks, long[] chunkEntries, int totalEntries)
 	{
-		for(GeometricObject obj : sceneObjects)
+		//(cell, object) pairs, sorted so each cell's objects end up together
+		final long[] pairs = new long[totalEntries];
+		final int[] chunkOffsets = new int[objectChunks];
+		for(int chunk = 1; chunk < objectChunks; chunk++)
+		{
+			chunkOffsets[chunk] = chunkOffsets[chunk-1] + (int)chunkEntries[chunk-1];
+		}
+		parallelChunks(pool, primitiveCount, objectChunks, new ChunkTask()
 		{
-			TripletVector[] bounds = obj.getBounds();
-			int[] minRes = getCoords(bounds[0]);
-			int[] maxRes = getCoords(bounds[1]);
+			@Override
+			public void run(int chunk, int start, int end)
+			{
+				int pairIndex = chunkOffsets[chunk];
+				for(int obj = start; obj < end; obj++)
+				{
+					for(int ix = ranges[obj*6]; ix <= ranges[obj*6 + 3]; ix++)
+			        {
+			            for(int iy = ranges[obj*6 + 1]; iy <= ranges[obj*6 + 4]; iy++)
+			            {
+			                for(int iz = ranges[obj*6 + 2]; iz <= ranges[obj*6 + 5]; iz++)
+			                {
+			                	pairs[pairIndex++] = (getCellIndex(ix, iy, iz) << 31) | obj;
+			                }
+			            }
+			        }
+				}
+			}
+		});
+		Arrays.parallelSort(pairs);
 		
-			for(int ix = minRes[0]; ix <= maxRes[0]; ix++)
-	        {
-	            for(int iy = minRes[1]; iy <= maxRes[1]; iy++)
-	            {
-	                for(int iz = minRes[2]; iz <= maxRes[2]; iz++)
-	                {
-	                	String cellKey = getKey(ix, iy, iz);
-	                    if(cells.get(cellKey) == null)
-	                    {
-	                        cells.put(cellKey, new ArrayList<GeometricObject>());  
-	                    }
-	                    ArrayList<GeometricObject> itemsSoFar = cells.get(cellKey);
-	                    itemsSoFar.add(obj);
-	                    cells.put(cellKey, itemsSoFar);
-	                }
-	            }
-	        }
+		int occupiedCount = 0;
+		for(int i = 0; i < totalEntries; i++)
+		{
+			if(i == 0 || (pairs[i] >>> 31) != (pairs[i-1] >>> 31))
+			{
+				occupiedCount++;
+			}
+		}
+		occupiedCells = new long[occupiedCount];
+		cellStarts = new int[occupiedCount+1];
+		cellObjects = new int[totalEntries];
+		int slot = -1;
+		for(int i = 0; i < totalEntries; i++)
+		{
+			long cellIndex = pairs[i] >>> 31;
+			if(slot < 0 || occupiedCells[slot] != cellIndex)
+			{
+				slot++;
+				occupiedCells[slot] = cellIndex;
+				cellStarts[slot] = i;
+			}
+			cellObjects[i] = (int)(pairs[i] & Integer.MAX_VALUE);
 		}
+		cellStarts[occupiedCount] = totalEntries;
 	}
 }
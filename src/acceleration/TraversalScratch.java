@@ -0,0 +1,73 @@
+package acceleration;
+
+/**
+ * The arrays one thread walks acceleration structures with, made once and
+ * overwritten for every ray so a traversal makes no garbage
+ * A structure only ever uses one at a time, so it can be shared by every
+ * intersectRay, occluded, intersectPacket and occludedPacket call a thread makes
+ * @author alexaulabaugh
+ *
+ */
+public class TraversalScratch
+{
+	//Nodes still to visit
+	private int[] stack;
+	//The first ray of a packet still walking each node waiting on the stack
+	private int[] firstRays;
+	//Reciprocal of each ray direction component
+	private double[] inverseDirection;
+	//The entry t of the ray into each slab of a box, then the exit t
+	private double[] slabTimes;
+	//The farthest t a walk looks to, updated to the t of the hit it finds
+	private double[] tHit;
+
+	public TraversalScratch()
+	{
+		stack = new int[0];
+		firstRays = new int[0];
+		inverseDirection = new double[3];
+		slabTimes = new double[6];
+		tHit = new double[1];
+	}
+
+	/**
+	 * @param size the most entries the walk keeps waiting, e.g. the depth of a tree
+	 * @return room for the walk, grown if needed
+	 */
+	public int[] getStack(int size)
+	{
+		if(stack.length < size)
+		{
+			stack = new int[size];
+		}
+		return stack;
+	}
+
+	/**
+	 * @param size the most entries a packet walk keeps waiting
+	 * @return room for the first ray of each node on the stack, grown if needed
+	 */
+	public int[] getFirstRays(int size)
+	{
+		if(firstRays.length < size)
+		{
+			firstRays = new int[size];
+		}
+		return firstRays;
+	}
+
+	public double[] getInverseDirection()
+	{
+		return inverseDirection;
+	}
+
+	public double[] getSlabTimes()
+	{
+		return slabTimes;
+	}
+
+	public double[] getTHit()
+	{
+		return tHit;
+	}
+}
@@ -0,0 +1,175 @@
+package cli;
+
+import java.util.Locale;
+
+import rendering.TracingCoordinator;
+
+/**
+ * Renders one settings file from the command line without the GUI, for
+ * batch jobs on machines with no display. Swing is never loaded and AWT
+ * runs headless, only ImageIO is used to write the picture
+ * Finishes with one line of timings in JSON so scripts can collect them
+ * @author alexaulabaugh
+ *
+ */
+public class BatchRenderer
+{
+	private static final String USAGE = "Usage: java cli.BatchRenderer <settings file> [--scene <scene file>] [--camera <camera file>]"
+			+ " [--threads <n>] [--output <png file>] [--resolution <width>x<height>] [--animation <animation file>]";
+
+	//Paths given on the command line, null for those left out
+	private String settingsPath;
+	private String scenePath;
+	private String cameraPath;
+	private String outputPath;
+	private String animationPath;
+	//Overrides given on the command line, 0 for those left out
+	private int threads;
+	private int width;
+	private int height;
+
+	/**
+	 * Reads the command line
+	 * @param args
+	 * @throws IllegalArgumentException if the arguments can't be understood
+	 */
+	public BatchRenderer(String[] args)
+	{
+		for(int i = 0; i < args.length; i++)
+		{
+			if(!args[i].startsWith("--"))
+			{
+				if(settingsPath != null)
+				{
+					throw new IllegalArgumentException("More than one settings file given");
+				}
+				settingsPath = args[i];
+				continue;
+			}
+			if(i+1 >= args.length)
+			{
+				throw new IllegalArgumentException("No value given for " + args[i]);
+			}
+			String value = args[++i];
+			switch(args[i-1])
+			{
+				case "--scene":
+					scenePath = value;
+					break;
+				case "--camera":
+					cameraPath = value;
+					break;
+				case "--output":
+					outputPath = value;
+					break;
+				case "--animation":
+					animationPath = value;
+					break;
+				case "--threads":
+					threads = parsePositive(value, "--threads");
+					break;
+				case "--resolution":
+					String[] dims = value.toLowerCase(Locale.ROOT).split("x");
+					if(dims.length != 2)
+					{
+						throw new IllegalArgumentException("Resolution must be <width>x<height>: " + value);
+					}
+					width = parsePositive(dims[0], "--resolution");
+					height = parsePositive(dims[1], "--resolution");
+					break;
+				default:
+					throw new IllegalArgumentException("Unknown option: " + args[i-1]);
+			}
+		}
+		if(settingsPath == null)
+		{
+			throw new IllegalArgumentException("No settings file given");
+		}
+	}
+
+	/**
+	 * @param value
+	 * @param option the option the value belongs to, for the error message
+	 * @return the value as a number above 0
+	 * @throws IllegalArgumentException if it isn't one
+	 */
+	private static int parsePositive(String value, String option)
+	{
+		try
+		{
+			int number = Integer.parseInt(value);
+			if(number > 0)
+			{
+				return number;
+			}
+		}
+		catch(NumberFormatException e)
+		{
+			//Reported below
+		}
+		throw new IllegalArgumentException(option + " needs a whole number above 0: " + value);
+	}
+
+	/**
+	 * Loads, renders and writes the picture, or every frame of the animation, then prints the timings
+	 * @return false if the files couldn't be loaded
+	 */
+	public boolean render()
+	{
+		TracingCoordinator coordinator = new TracingCoordinator();
+		if(animationPath != null && !coordinator.loadAnimation(animationPath))
+		{
+			return false;
+		}
+		if(!coordinator.loadFromPaths(settingsPath, scenePath, cameraPath))
+		{
+			return false;
+		}
+		if(threads > 0)
+		{
+			coordinator.setRenderThreads(threads);
+		}
+		if(width > 0)
+		{
+			coordinator.setResolution(width, height);
+		}
+		if(animationPath != null)
+		{
+			coordinator.renderAnimation(outputPath);
+		}
+		else
+		{
+			coordinator.renderToFile(outputPath);
+		}
+		System.out.println(String.format(Locale.ROOT, "{\"parse\":%.3f,\"build\":%.3f,\"trace\":%.3f,\"write\":%.3f}",
+				coordinator.getParseMillis()*0.001, coordinator.getBuildMillis()*0.001,
+				coordinator.getTraceMillis()*0.001, coordinator.getWriteMillis()*0.001));
+		return true;
+	}
+
+	/**
+	 * Exits with status 1 if the files couldn't be loaded, 2 if the command line is wrong
+	 * @param args see USAGE
+	 */
+	public static void main(String[] args)
+	{
+		//Must be set before any AWT class is loaded
+		System.setProperty("java.awt.headless", "true");
+		BatchRenderer renderer;
+		try
+		{
+			renderer = new BatchRenderer(args);
+		}
+		catch(IllegalArgumentException e)
+		{
+			System.out.println("Error: " + e.getMessage());
+			System.out.println(USAGE);
+			System.exit(2);
+			return;
+		}
+		if(!renderer.render())
+		{
+			System.exit(1);
+		}
+	}
+}
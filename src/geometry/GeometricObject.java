@@ -20,6 +20,8 @@ public abstract class GeometricObject
 	protected double reflectivity;
 	//The exponent used for glossy reflection, 0 if standard reflection
 	protected double glossyExponent;
+	//Glossy reflection rays shot from this object, 0 to use the scene's count
+	protected int glossySamples;
 	//the fraction of light to be refracted by the object
 	protected double refractivity;
 	protected double refractionIndex;
@@ -28,6 +30,8 @@ public abstract class GeometricObject
 	//Bounds used for Acceleration Structures
 	protected TripletVector minBound;
 	protected TripletVector maxBound;
+	//The image texture of the object, or null if it has none
+	protected Texture texture;
 	
 	/**
 	 * Finds the color at a point on the object
@@ -36,19 +40,68 @@ public abstract class GeometricObject
 	 */
 	public abstract TripletVector getColor(TripletVector point);
 	
+	/**
+	 * Finds the color at a point as seen over a small area around it, textured
+	 * objects read their texture at the mip level matching the area and make no new vectors
+	 * @param point the point on the object of which we want the color
+	 * @param footprint the width of the area in scene units, 0 for the point alone
+	 * @param dest may be overwritten with the color and returned
+	 * @return the color at the specified point
+	 */
+	public TripletVector getColor(TripletVector point, double footprint, TripletVector dest)
+	{
+		return getColor(point);
+	}
+	
+	/**
+	 * Loads the image texture named in a scene file, objects naming the same file share one decoded copy
+	 * @param filename the image file, or "none"
+	 * @return filename, or "none" if there is no texture or it can't be loaded
+	 */
+	protected String loadTexture(String filename)
+	{
+		texture = null;
+		if(filename.equals("none"))
+		{
+			return filename;
+		}
+		try
+		{
+			texture = Texture.load(filename);
+		}
+		catch(Exception e)
+		{
+			System.out.println("Error! Unable to load image: " + filename + ". Continuing with default");
+			return "none";
+		}
+		return filename;
+	}
+	
 	/**
 	 * Finds the normal at a point on the object
 	 * @param point the point on the object of which we want the normal
 	 * @return the normal at the specified point
+	 * @throws UnsupportedOperationException for a TriangleMesh, whose normal needs the triangle hit
 	 */
 	public abstract TripletVector getNormal(TripletVector point);
 	
 	/**
-	 * Finds all intersections a ray has with the object
+	 * Moves the whole object, e.g. between the frames of an animation
+	 * @param transition the offset to move by
+	 */
+	public abstract void translate(TripletVector transition);
+	
+	//Returned by intersect when the ray misses the object
+	public static final double NO_HIT = Double.POSITIVE_INFINITY;
+	
+	/**
+	 * Finds the nearest intersection a ray has with the object inside an interval
 	 * @param intersectRay the incoming ray for which to find intersections
-	 * @return an ArrayList of all intersections, represented as the t component of the o+td model of the ray
+	 * @param tMin intersections at or before this t are ignored
+	 * @param tMax intersections at or beyond this t are ignored
+	 * @return the smallest t component of the o+td model of the ray with tMin < t < tMax, or NO_HIT
 	 */
-	public abstract ArrayList<Double> intersect(Ray intersectRay);
+	public abstract double intersect(Ray intersectRay, double tMin, double tMax);
 	
 	/**
 	 * Specific for area lights
@@ -67,7 +120,54 @@ public abstract class GeometricObject
 	 * @param sampleSize Number of samples to be gathered
 	 * @return A list of rays that will sample the object from the given origin
 	 */
-	public abstract ArrayList<Ray> getSampleRays(TripletVector origin, String sampleType, int sampleSize);
+	public ArrayList<Ray> getSampleRays(TripletVector origin, String sampleType, int sampleSize)
+	{
+		ArrayList<Ray> sampleRays = new ArrayList<Ray>();
+		double[] points = new double[sampleSize*3];
+		int count = getSamplePoints(sampleType, sampleSize, new double[sampleSize*2], points);
+		for(int sample = 0; sample < count; sample++)
+		{
+			Ray sampleRay = new Ray();
+			aimSampleRay(sampleRay, origin.getComponents(), points, sample);
+			sampleRays.add(sampleRay);
+		}
+		return sampleRays;
+	}
+	
+	/**
+	 * Samples points on the object for when it emits light, writing them into
+	 * existing arrays so an emitter can be sampled from every hit without making garbage
+	 * Objects that can't be sampled give no points
+	 * @param sampleType A string describing the sample type, see Sampler.getSamples
+	 * @param sampleSize Number of samples to be gathered
+	 * @param samples room for 2*sampleSize values, overwritten with the unit square samples used
+	 * @param dest room for 3*sampleSize values, overwritten with the x, y and z of each point
+	 * @return the number of points written
+	 */
+	public int getSamplePoints(String sampleType, int sampleSize, double[] samples, double[] dest)
+	{
+		return 0;
+	}
+	
+	/**
+	 * Points a ray from just off a location toward one sampled point
+	 * @param sampleRay the ray to aim
+	 * @param origin the location requesting the sample
+	 * @param points sampled points, see getSamplePoints
+	 * @param sample which point to aim at
+	 * @return sampleRay
+	 */
+	public static Ray aimSampleRay(Ray sampleRay, double[] origin, double[] points, int sample)
+	{
+		double dx = points[sample*3] - origin[0];
+		double dy = points[sample*3 + 1] - origin[1];
+		double dz = points[sample*3 + 2] - origin[2];
+		double length = Math.sqrt(dx*dx + dy*dy + dz*dz);
+		dx = dx/length;
+		dy = dy/length;
+		dz = dz/length;
+		return sampleRay.set(origin[0] + dx*0.01, origin[1] + dy*0.01, origin[2] + dz*0.01, dx, dy, dz);
+	}
 	
 	/**
 	 * 
@@ -96,6 +196,22 @@ public abstract class GeometricObject
 		return glossyExponent;
 	}
 	
+	/**
+	 * @return glossy reflection rays to shoot from this object, or 0 for the scene's count
+	 */
+	public int getGlossySamples()
+	{
+		return glossySamples;
+	}
+	
+	/**
+	 * @param samples glossy reflection rays to shoot from this object, 0 for the scene's count
+	 */
+	public void setGlossySamples(int samples)
+	{
+		glossySamples = samples;
+	}
+	
 	/**
 	 * @return refractivity fraction
 	 */
@@ -117,15 +233,32 @@ public abstract class GeometricObject
 	 * @param intersectRay the incoming ray
 	 * @param point the intersection point
 	 * @return a reflection ray
+	 * @throws UnsupportedOperationException for a TriangleMesh, see getNormal
 	 */
 	public Ray getReflectionRay(Ray intersectRay, TripletVector point)
 	{
-		TripletVector rayD = intersectRay.getDirection();
-		TripletVector norm = this.getNormal(point);
-		TripletVector reflD = new TripletVector(rayD.add(norm.scale(norm.dot(rayD.scale(-1))*2)));
-		TripletVector reflO = point.add(reflD.scale(0.0001));
-		int[] pixel = intersectRay.getPixel();
-		return new Ray(reflO, reflD, pixel[0], pixel[1], reflectivity*intersectRay.getWeight(), intersectRay.getRefraction(), intersectRay.getDepth()+1);
+		return getReflectionRay(intersectRay, point, getNormal(point), new Ray());
+	}
+	
+	/**
+	 * Calculates which way the reflection rays go, into an existing ray
+	 * @param intersectRay the incoming ray
+	 * @param point the intersection point
+	 * @param norm the normal at the intersection point
+	 * @param dest the ray to overwrite
+	 * @return dest, the reflection ray
+	 */
+	public Ray getReflectionRay(Ray intersectRay, TripletVector point, TripletVector norm, Ray dest)
+	{
+		double[] rayD = intersectRay.getDirection().getComponents();
+		double[] n = norm.getComponents();
+		double[] p = point.getComponents();
+		double twiceCosine = (n[0]*-rayD[0] + n[1]*-rayD[1] + n[2]*-rayD[2])*2;
+		double rx = rayD[0] + n[0]*twiceCosine;
+		double ry = rayD[1] + n[1]*twiceCosine;
+		double rz = rayD[2] + n[2]*twiceCosine;
+		dest.set(p[0] + rx*0.0001, p[1] + ry*0.0001, p[2] + rz*0.0001, rx, ry, rz);
+		return dest.setAttributes(intersectRay.getPixelX(), intersectRay.getPixelY(), reflectivity*intersectRay.getWeight(), intersectRay.getRefraction(), intersectRay.getDepth()+1);
 	}
 	
 	/**
@@ -134,59 +267,121 @@ public abstract class GeometricObject
 	 * @param point the point of intersection
 	 * @param numRays the number of glossy rays to shoot
 	 * @return an arrayList of every glossy ray
+	 * @throws UnsupportedOperationException for a TriangleMesh, see getNormal
 	 */
 	public ArrayList<Ray> getReflectionRaysGlossy(Ray intersectRay, TripletVector point, int numRays)
 	{
-		ArrayList<Ray> glossyRays = new ArrayList<Ray>();
-		ArrayList<double[]> samples = Sampler.getSamples("MultiJitter", numRays);
-		TripletVector rayD = intersectRay.getDirection();
-		TripletVector norm = this.getNormal(point);
-		TripletVector reflD = new TripletVector(rayD.add(norm.scale(norm.dot(rayD.scale(-1))*2)));
+		Ray[] rays = new Ray[numRays];
+		for(int i = 0; i < numRays; i++)
+		{
+			rays[i] = new Ray();
+		}
+		int count = getReflectionRaysGlossy(intersectRay, point, getNormal(point), numRays, new double[numRays*2], rays);
+		return new ArrayList<Ray>(Arrays.asList(rays).subList(0, count));
+	}
+	
+	/**
+	 * Calculates numRays glossy (noisy) reflection rays that are multi-jittered,
+	 * into existing rays
+	 * @param intersectRay the incident ray
+	 * @param point the point of intersection
+	 * @param norm the normal at the point of intersection
+	 * @param numRays the number of glossy rays to shoot, a perfect square
+	 * @param samples room for 2*numRays values, overwritten with the samples used
+	 * @param dest at least numRays rays, the first ones are overwritten with the glossy rays
+	 * @return the number of glossy rays written
+	 */
+	public int getReflectionRaysGlossy(Ray intersectRay, TripletVector point, TripletVector norm, int numRays, double[] samples, Ray[] dest)
+	{
+		int count = Sampler.getSamples("MultiJitter", numRays, samples);
+		double[] rayD = intersectRay.getDirection().getComponents();
+		double[] n = norm.getComponents();
+		double[] p = point.getComponents();
+		double twiceCosine = (n[0]*-rayD[0] + n[1]*-rayD[1] + n[2]*-rayD[2])*2;
 		
-		TripletVector wAxis = new TripletVector(reflD);
-        wAxis.normalize();
-        TripletVector uAxis = wAxis.cross(new TripletVector(1, 1, 1));
-        if(uAxis.getLength() == 0)
-        {
-        	uAxis = wAxis.cross(new TripletVector(1, 1, 2));
-        }
-        uAxis.normalize();
-        TripletVector vAxis = wAxis.cross(uAxis);
-        vAxis.normalize();
-        TripletVector inverseNorm = new TripletVector(norm).scale(-1);
+		//The lobe is built around the mirror direction w
+		double wx = rayD[0] + n[0]*twiceCosine;
+		double wy = rayD[1] + n[1]*twiceCosine;
+		double wz = rayD[2] + n[2]*twiceCosine;
+		double length = Math.sqrt(wx*wx + wy*wy + wz*wz);
+		wx = wx/length;
+		wy = wy/length;
+		wz = wz/length;
+		//u is w crossed with (1, 1, 1), or (1, 1, 2) if w lies along it
+		double ux = wy - wz;
+		double uy = wz - wx;
+		double uz = wx - wy;
+		length = Math.sqrt(ux*ux + uy*uy + uz*uz);
+		if(length == 0)
+		{
+			ux = wy*2 - wz;
+			uy = wz - wx*2;
+			uz = wx - wy;
+			length = Math.sqrt(ux*ux + uy*uy + uz*uz);
+		}
+		ux = ux/length;
+		uy = uy/length;
+		uz = uz/length;
+		double vx = wy*uz - wz*uy;
+		double vy = wz*ux - wx*uz;
+		double vz = wx*uy - wy*ux;
+		length = Math.sqrt(vx*vx + vy*vy + vz*vz);
+		vx = vx/length;
+		vy = vy/length;
+		vz = vz/length;
 		
-		for(int i = 0; i < numRays; i++)
-		{	
-			double psi = 2*Math.PI*samples.get(i)[0];
-            double theta = 1-(samples.get(i)[1]);
-            double reflExp = glossyExponent;
-            theta = Math.pow(theta, (1.0/(reflExp+1)));
-            theta = Math.acos(theta);
+		for(int i = 0; i < count; i++)
+		{
+			double psi = 2*Math.PI*samples[2*i];
+			double theta = 1-(samples[2*i + 1]);
+			theta = Math.pow(theta, (1.0/(glossyExponent+1)));
+			theta = Math.acos(theta);
+			
+			double uScale = Math.sin(theta)*Math.cos(psi);
+			double vScale = Math.sin(theta)*Math.sin(psi);
+			double wScale = Math.cos(theta);
+			double gx = ux*uScale + vx*vScale + wx*wScale;
+			double gy = uy*uScale + vy*vScale + wy*wScale;
+			double gz = uz*uScale + vz*vScale + wz*wScale;
+			length = Math.sqrt(gx*gx + gy*gy + gz*gz);
+			gx = gx/length;
+			gy = gy/length;
+			gz = gz/length;
 			
-            TripletVector glossyDirection = new TripletVector((uAxis.scale(Math.sin(theta)*Math.cos(psi))).add((vAxis.scale(Math.sin(theta)*Math.sin(psi)))).add((wAxis.scale(Math.cos(theta)))));
-            glossyDirection.normalize();
-            
-            if(glossyDirection.dot(inverseNorm) < 0)
-            {
-            	double[] vecComponents = glossyDirection.getComponents();
-            	vecComponents[0] = vecComponents[0]*-1;
-            	vecComponents[1] = vecComponents[1]*-1;
-            }
+			if(gx*-n[0] + gy*-n[1] + gz*-n[2] < 0)
+			{
+				gx = -gx;
+				gy = -gy;
+			}
 			
-			TripletVector reflO = point.add(glossyDirection.scale(0.1));
-			int[] pixel = intersectRay.getPixel();
-			glossyRays.add(new Ray(reflO, glossyDirection, pixel[0], pixel[1], reflectivity*intersectRay.getWeight()/(numRays*1.0), intersectRay.getRefraction(), intersectRay.getDepth()+1));
+			dest[i].set(p[0] + gx*0.1, p[1] + gy*0.1, p[2] + gz*0.1, gx, gy, gz);
+			dest[i].setAttributes(intersectRay.getPixelX(), intersectRay.getPixelY(), reflectivity*intersectRay.getWeight()/(count*1.0), intersectRay.getRefraction(), intersectRay.getDepth()+1);
 		}
-		return glossyRays;
+		return count;
 	}
 	
 	/**
 	 * Calculates which way the refraction rays go
+	 * @throws UnsupportedOperationException for a TriangleMesh, see getNormal
 	 */
 	public Ray getRefractionray(Ray intersectRay, TripletVector point)
 	{
-		TripletVector rayD = intersectRay.getDirection();
-		TripletVector norm = this.getNormal(point);
+		return getRefractionray(intersectRay, point, getNormal(point), new Ray());
+	}
+	
+	/**
+	 * Calculates which way the refraction rays go, into an existing ray
+	 * @param intersectRay the incoming ray
+	 * @param point the intersection point
+	 * @param norm the normal at the intersection point
+	 * @param dest the ray to overwrite
+	 * @return dest, the refraction ray
+	 */
+	public Ray getRefractionray(Ray intersectRay, TripletVector point, TripletVector norm, Ray dest)
+	{
+		double[] rayD = intersectRay.getDirection().getComponents();
+		double[] n = norm.getComponents();
+		double[] p = point.getComponents();
 		double relativeRefraction = intersectRay.getRefraction()/refractionIndex;
 		double outRefraction = refractionIndex;
 		if(relativeRefraction == 1.0)
@@ -194,12 +389,17 @@ public abstract class GeometricObject
 			relativeRefraction = intersectRay.getRefraction()/1.0;
 			outRefraction = 1.0;
 		}
-		double cosine = rayD.dot(norm);
+		double cosine = rayD[0]*n[0] + rayD[1]*n[1] + rayD[2]*n[2];
+		double nx = n[0];
+		double ny = n[1];
+		double nz = n[2];
 		
 		//Citation: http://stackoverflow.com/questions/26087106/refraction-in-raytracing
 		if(cosine > 0.0)
 		{
-			norm = norm.scale(-1);
+			nx = -nx;
+			ny = -ny;
+			nz = -nz;
 		}
 		else
 		{
@@ -207,10 +407,13 @@ public abstract class GeometricObject
 		}
 		
 		double sin2theta = relativeRefraction*relativeRefraction*(1-(cosine*cosine));
-		TripletVector tFinal = rayD.scale(relativeRefraction).add(norm.scale((relativeRefraction*cosine)-Math.sqrt(1-sin2theta)));
+		double normalScale = (relativeRefraction*cosine)-Math.sqrt(1-sin2theta);
+		double tx = rayD[0]*relativeRefraction + nx*normalScale;
+		double ty = rayD[1]*relativeRefraction + ny*normalScale;
+		double tz = rayD[2]*relativeRefraction + nz*normalScale;
 		
-		int[] pixel = intersectRay.getPixel();
-		return new Ray(point.add(tFinal.scale(0.0001)), tFinal, pixel[0], pixel[1], refractivity*intersectRay.getWeight(), outRefraction, intersectRay.getDepth()+1);
+		dest.set(p[0] + tx*0.0001, p[1] + ty*0.0001, p[2] + tz*0.0001, tx, ty, tz);
+		return dest.setAttributes(intersectRay.getPixelX(), intersectRay.getPixelY(), refractivity*intersectRay.getWeight(), outRefraction, intersectRay.getDepth()+1);
 	}
 	
 	/**
@@ -0,0 +1,548 @@
+package geometry;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Reads the vertices and faces of a .obj file into packed arrays for a TriangleMesh.
+ * The file is streamed through a byte buffer and numbers are parsed straight
+ * from the bytes. Polygons are split into triangle fans and negative (relative)
+ * indices are supported, texture and normal indices are ignored.
+ * The result can be written to a binary cache file next to the .obj. The next time
+ * the mesh is loaded the cache is memory-mapped and its arrays are copied straight
+ * out of the mapping, instead of parsing the .obj.
+ * @author alexaulabaugh
+ *
+ */
+
+class ObjLoader
+{
+	//Identifies a mesh cache file, "OBJC"
+	private static final int CACHE_MAGIC = 0x4F424A43;
+	private static final int CACHE_VERSION = 1;
+	//magic, version, source length, source modified time, vertex count, triangle count
+	private static final int CACHE_HEADER_BYTES = 4 + 4 + 8 + 8 + 4 + 4;
+	//Size of each read from the .obj file, and of each write of a cache file
+	private static final int READ_BUFFER_BYTES = 1 << 16;
+	//Most bytes of a cache file mapped at once, a single mapping can't pass 2 GiB
+	private static final int MAP_REGION_BYTES = 1 << 30;
+	//Powers of ten a double holds exactly, see parseDouble
+	private static final double[] EXACT_POWERS = {1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11, 1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+	//xyz of every vertex
+	private double[] positions;
+	private int vertexCount;
+	//Three vertex indices per triangle
+	private int[] indices;
+	private int triangleCount;
+
+	//Streaming state while parsing
+	private FileChannel channel;
+	private ByteBuffer readBuffer;
+	//The last token read, and its length
+	private byte[] token;
+	private int tokenLength;
+	//Vertex indices of the face being read
+	private int[] polygon;
+
+	/**
+	 * Loads a .obj file, from its cache if allowed and the cache is up to date
+	 * @param filename the .obj file
+	 * @param useCache true to read and write filename.cache
+	 * @throws IOException if the .obj can't be read or is malformed
+	 */
+	public void load(String filename, boolean useCache) throws IOException
+	{
+		File objFile = new File(filename);
+		File cacheFile = new File(filename + ".cache");
+		if(useCache && cacheFile.exists() && readCache(cacheFile, objFile))
+		{
+			return;
+		}
+		parse(objFile);
+		if(useCache)
+		{
+			try
+			{
+				writeCache(cacheFile, objFile);
+			}
+			catch(IOException e)
+			{
+				System.out.println("Error: Could not write mesh cache: " + cacheFile.getPath());
+			}
+		}
+	}
+
+	/**
+	 * @return xyz of every vertex, exactly getVertexCount()*3 long
+	 */
+	public double[] getPositions()
+	{
+		return positions;
+	}
+
+	/**
+	 * @return three vertex indices per triangle, exactly getTriangleCount()*3 long
+	 */
+	public int[] getIndices()
+	{
+		return indices;
+	}
+
+	public int getVertexCount()
+	{
+		return vertexCount;
+	}
+
+	public int getTriangleCount()
+	{
+		return triangleCount;
+	}
+
+	/**
+	 * Parses the .obj file one line at a time
+	 * @param objFile
+	 * @throws IOException
+	 */
+	private void parse(File objFile) throws IOException
+	{
+		positions = new double[3*1024];
+		indices = new int[3*1024];
+		vertexCount = 0;
+		triangleCount = 0;
+		token = new byte[64];
+		polygon = new int[8];
+		readBuffer = ByteBuffer.allocate(READ_BUFFER_BYTES);
+		readBuffer.flip();
+		channel = FileChannel.open(objFile.toPath(), StandardOpenOption.READ);
+		try
+		{
+			int c;
+			while((c = readToken()) != -1)
+			{
+				if(tokenLength == 1 && token[0] == 'v')
+				{
+					c = parseVertex(c);
+				}
+				else if(tokenLength == 1 && token[0] == 'f')
+				{
+					c = parseFace(c);
+				}
+				//Everything else (comments, vt, vn, groups, materials...) is skipped
+				if(c != '\n' && c != -1)
+				{
+					c = skipLine();
+				}
+				if(c == -1)
+				{
+					break;
+				}
+			}
+		}
+		finally
+		{
+			channel.close();
+			channel = null;
+			readBuffer = null;
+		}
+		positions = Arrays.copyOf(positions, vertexCount*3);
+		indices = Arrays.copyOf(indices, triangleCount*3);
+	}
+
+	/**
+	 * Reads the x, y and z of a v line, any w is skipped with the rest of the line
+	 * @param c the character that ended the v
+	 * @return the character that ended the last token read
+	 * @throws IOException
+	 */
+	private int parseVertex(int c) throws IOException
+	{
+		if(vertexCount*3 == positions.length)
+		{
+			positions = Arrays.copyOf(positions, positions.length*2);
+		}
+		for(int axis = 0; axis < 3; axis++)
+		{
+			if(c != '\n' && c != -1)
+			{
+				c = readToken();
+			}
+			else
+			{
+				tokenLength = 0;
+			}
+			if(tokenLength == 0)
+			{
+				throw new IOException("vertex " + (vertexCount+1) + " has fewer than three coordinates");
+			}
+			positions[vertexCount*3 + axis] = parseDouble();
+		}
+		vertexCount++;
+		return c;
+	}
+
+	/**
+	 * Reads an f line and adds its polygon as a fan of triangles
+	 * @param c the character that ended the f
+	 * @return the character that ended the last token read
+	 * @throws IOException
+	 */
+	private int parseFace(int c) throws IOException
+	{
+		int corners = 0;
+		while(c != '\n' && c != -1)
+		{
+			c = readToken();
+			if(tokenLength == 0)
+			{
+				break;
+			}
+			if(corners == polygon.length)
+			{
+				polygon = Arrays.copyOf(polygon, polygon.length*2);
+			}
+			polygon[corners++] = parseIndex();
+		}
+		if(corners < 3)
+		{
+			throw new IOException("face " + (triangleCount+1) + " has fewer than three vertices");
+		}
+		for(int corner = 1; corner < corners - 1; corner++)
+		{
+			if(triangleCount*3 == indices.length)
+			{
+				indices = Arrays.copyOf(indices, indices.length*2);
+			}
+			//The first two vertices are swapped to keep the winding the renderer expects
+			indices[triangleCount*3] = polygon[corner];
+			indices[triangleCount*3 + 1] = polygon[0];
+			indices[triangleCount*3 + 2] = polygon[corner + 1];
+			triangleCount++;
+		}
+		return c;
+	}
+
+	/**
+	 * @return the next byte of the file, or -1 at the end
+	 * @throws IOException
+	 */
+	private int nextByte() throws IOException
+	{
+		if(!readBuffer.hasRemaining())
+		{
+			readBuffer.clear();
+			int read;
+			do
+			{
+				read = channel.read(readBuffer);
+			}
+			while(read == 0);
+			readBuffer.flip();
+			if(read < 0)
+			{
+				return -1;
+			}
+		}
+		return readBuffer.get() & 0xFF;
+	}
+
+	/**
+	 * Reads the next whitespace separated token on the current line into token
+	 * @return the character that ended the token: a space, '\n' or -1 at the end of the file.
+	 * tokenLength is 0 if the line ended before another token
+	 * @throws IOException
+	 */
+	private int readToken() throws IOException
+	{
+		tokenLength = 0;
+		int c = nextByte();
+		while(c == ' ' || c == '\t' || c == '\r')
+		{
+			c = nextByte();
+		}
+		while(c != ' ' && c != '\t' && c != '\r' && c != '\n' && c != -1)
+		{
+			if(tokenLength == token.length)
+			{
+				token = Arrays.copyOf(token, token.length*2);
+			}
+			token[tokenLength++] = (byte)c;
+			c = nextByte();
+		}
+		if(c == '\t' || c == '\r')
+		{
+			c = ' ';
+		}
+		return c;
+	}
+
+	/**
+	 * Skips to the start of the next line
+	 * @return '\n', or -1 at the end of the file
+	 * @throws IOException
+	 */
+	private int skipLine() throws IOException
+	{
+		int c = nextByte();
+		while(c != '\n' && c != -1)
+		{
+			c = nextByte();
+		}
+		return c;
+	}
+
+	/**
+	 * Parses token as a decimal number, e.g. -3.4101800e-003
+	 * Short mantissas with small exponents are scaled by an exact power of ten,
+	 * which rounds correctly, anything else falls back to Double.parseDouble
+	 * CITATION: How to Read Floating Point Numbers Accurately, Clinger
+	 * @return
+	 * @throws IOException
+	 */
+	private double parseDouble() throws IOException
+	{
+		int i = 0;
+		boolean negative = false;
+		if(token[i] == '-' || token[i] == '+')
+		{
+			negative = token[i] == '-';
+			i++;
+		}
+		long mantissa = 0;
+		int digits = 0;
+		int exponent = 0;
+		boolean anyDigits = false;
+		for(; i < tokenLength && token[i] >= '0' && token[i] <= '9'; i++)
+		{
+			mantissa = mantissa*10 + (token[i] - '0');
+			anyDigits = true;
+			if(mantissa != 0) {digits++;}
+		}
+		if(i < tokenLength && token[i] == '.')
+		{
+			for(i++; i < tokenLength && token[i] >= '0' && token[i] <= '9'; i++)
+			{
+				mantissa = mantissa*10 + (token[i] - '0');
+				exponent--;
+				anyDigits = true;
+				if(mantissa != 0) {digits++;}
+			}
+		}
+		if(anyDigits && i < tokenLength && (token[i] == 'e' || token[i] == 'E'))
+		{
+			i++;
+			boolean negativeExponent = false;
+			if(i < tokenLength && (token[i] == '-' || token[i] == '+'))
+			{
+				negativeExponent = token[i] == '-';
+				i++;
+			}
+			int written = 0;
+			boolean exponentDigits = false;
+			for(; i < tokenLength && token[i] >= '0' && token[i] <= '9'; i++)
+			{
+				written = Math.min(written*10 + (token[i] - '0'), 100000);
+				exponentDigits = true;
+			}
+			if(!exponentDigits)
+			{
+				return slowParseDouble();
+			}
+			exponent += negativeExponent ? -written : written;
+		}
+		if(!anyDigits || i != tokenLength || digits > 15)
+		{
+			return slowParseDouble();
+		}
+		double value;
+		if(mantissa == 0)
+		{
+			value = 0;
+		}
+		else if(exponent >= 0 && exponent < EXACT_POWERS.length)
+		{
+			value = mantissa*EXACT_POWERS[exponent];
+		}
+		else if(exponent < 0 && -exponent < EXACT_POWERS.length)
+		{
+			value = mantissa/EXACT_POWERS[-exponent];
+		}
+		else
+		{
+			return slowParseDouble();
+		}
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Parses token with Double.parseDouble, for the rare numbers parseDouble can't do exactly
+	 * @return
+	 * @throws IOException
+	 */
+	private double slowParseDouble() throws IOException
+	{
+		String number = new String(token, 0, tokenLength, "US-ASCII");
+		try
+		{
+			return Double.parseDouble(number);
+		}
+		catch(NumberFormatException e)
+		{
+			throw new IOException("bad number " + number);
+		}
+	}
+
+	/**
+	 * Parses the vertex index at the start of a face token such as 7, 7/2, 7//3 or -1
+	 * @return the zero based vertex index
+	 * @throws IOException
+	 */
+	private int parseIndex() throws IOException
+	{
+		int i = 0;
+		boolean negative = false;
+		if(token[0] == '-')
+		{
+			negative = true;
+			i++;
+		}
+		long index = 0;
+		int start = i;
+		for(; i < tokenLength && token[i] >= '0' && token[i] <= '9'; i++)
+		{
+			index = Math.min(index*10 + (token[i] - '0'), Integer.MAX_VALUE);
+		}
+		if(i == start || (i < tokenLength && token[i] != '/'))
+		{
+			throw new IOException("bad face index " + new String(token, 0, tokenLength, "US-ASCII"));
+		}
+		//Relative indices count back from the last vertex read
+		long resolved = negative ? vertexCount - index : index - 1;
+		if(index == 0 || resolved < 0 || resolved >= vertexCount)
+		{
+			throw new IOException("face " + (triangleCount+1) + " refers to a missing vertex");
+		}
+		return (int)resolved;
+	}
+
+	/**
+	 * Loads the arrays from a cache file if it was written for the current .obj
+	 * @param cacheFile
+	 * @param objFile
+	 * @return false if the cache is stale or unreadable, and the .obj should be parsed
+	 */
+	private boolean readCache(File cacheFile, File objFile)
+	{
+		try(FileChannel cacheChannel = FileChannel.open(cacheFile.toPath(), StandardOpenOption.READ))
+		{
+			if(cacheChannel.size() < CACHE_HEADER_BYTES)
+			{
+				return false;
+			}
+			MappedByteBuffer header = cacheChannel.map(FileChannel.MapMode.READ_ONLY, 0, CACHE_HEADER_BYTES);
+			if(header.getInt() != CACHE_MAGIC || header.getInt() != CACHE_VERSION
+					|| header.getLong() != objFile.length() || header.getLong() != objFile.lastModified())
+			{
+				return false;
+			}
+			int vertices = header.getInt();
+			int triangles = header.getInt();
+			if(vertices < 0 || triangles < 0 || cacheChannel.size() != cacheSize(vertices, triangles))
+			{
+				return false;
+			}
+			double[] cachedPositions = new double[vertices*3];
+			int[] cachedIndices = new int[triangles*3];
+			long offset = CACHE_HEADER_BYTES;
+			for(int start = 0; start < cachedPositions.length; start += MAP_REGION_BYTES/8)
+			{
+				int count = Math.min(MAP_REGION_BYTES/8, cachedPositions.length - start);
+				cacheChannel.map(FileChannel.MapMode.READ_ONLY, offset, count*8L).asDoubleBuffer().get(cachedPositions, start, count);
+				offset += count*8L;
+			}
+			for(int start = 0; start < cachedIndices.length; start += MAP_REGION_BYTES/4)
+			{
+				int count = Math.min(MAP_REGION_BYTES/4, cachedIndices.length - start);
+				cacheChannel.map(FileChannel.MapMode.READ_ONLY, offset, count*4L).asIntBuffer().get(cachedIndices, start, count);
+				offset += count*4L;
+			}
+			positions = cachedPositions;
+			indices = cachedIndices;
+			vertexCount = vertices;
+			triangleCount = triangles;
+			return true;
+		}
+		catch(IOException | RuntimeException e)
+		{
+			return false;
+		}
+	}
+
+	/**
+	 * Writes the loaded arrays to a cache file, tagged with the .obj's size and time
+	 * @param cacheFile
+	 * @param objFile
+	 * @throws IOException
+	 */
+	private void writeCache(File cacheFile, File objFile) throws IOException
+	{
+		cacheFile.delete();
+		try(FileChannel cacheChannel = FileChannel.open(cacheFile.toPath(), StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE))
+		{
+			ByteBuffer chunk = ByteBuffer.allocate(READ_BUFFER_BYTES);
+			chunk.putInt(CACHE_MAGIC);
+			chunk.putInt(CACHE_VERSION);
+			chunk.putLong(objFile.length());
+			chunk.putLong(objFile.lastModified());
+			chunk.putInt(vertexCount);
+			chunk.putInt(triangleCount);
+			chunk.flip();
+			writeFully(cacheChannel, chunk);
+			for(int start = 0; start < vertexCount*3; start += READ_BUFFER_BYTES/8)
+			{
+				int count = Math.min(READ_BUFFER_BYTES/8, vertexCount*3 - start);
+				chunk.clear();
+				chunk.asDoubleBuffer().put(positions, start, count);
+				chunk.limit(count*8);
+				writeFully(cacheChannel, chunk);
+			}
+			for(int start = 0; start < triangleCount*3; start += READ_BUFFER_BYTES/4)
+			{
+				int count = Math.min(READ_BUFFER_BYTES/4, triangleCount*3 - start);
+				chunk.clear();
+				chunk.asIntBuffer().put(indices, start, count);
+				chunk.limit(count*4);
+				writeFully(cacheChannel, chunk);
+			}
+		}
+	}
+
+	/**
+	 * Writes everything between a buffer's position and limit to a channel
+	 * @param to
+	 * @param buffer
+	 * @throws IOException
+	 */
+	private void writeFully(FileChannel to, ByteBuffer buffer) throws IOException
+	{
+		while(buffer.hasRemaining())
+		{
+			to.write(buffer);
+		}
+	}
+
+	/**
+	 * @param vertices
+	 * @param triangles
+	 * @return the size in bytes of a cache file holding this many vertices and triangles
+	 */
+	private long cacheSize(int vertices, int triangles)
+	{
+		return CACHE_HEADER_BYTES + (long)vertices*3*8 + (long)triangles*3*4;
+	}
+}
@@ -1,12 +1,5 @@
 package geometry;
 
-import java.awt.Color;
-import java.awt.image.BufferedImage;
-import java.io.File;
-import java.util.ArrayList;
-
-import javax.imageio.ImageIO;
-
 import rendering.Ray;
 import rendering.TripletVector;
 
@@ -25,10 +18,16 @@ public class Plane extends GeometricObject
 	TripletVector alternateColor;
 	//Direction of pattern
 	TripletVector patternDirection;
+	//The second direction of the pattern, normal x patternDirection, as is and normalized
+	TripletVector patternCross;
+	TripletVector patternCrossUnit;
 	//Size of pattern
 	double patternSize;
-	//Pattern image
-	private BufferedImage myImage;
+	//How far the plane has moved along patternDirection, patternCross and patternCrossUnit, so its pattern moves with it
+	private double patternOffsetX;
+	private double patternOffsetY;
+	private double patternOffsetYUnit;
+	//Pattern image filename, or "none"
 	private String filename;
 	
 	/**
@@ -54,6 +53,11 @@ public class Plane extends GeometricObject
 		patternDirection = patternD;
 		patternDirection.normalize();
 		patternSize = patternS;
+		filename = "none";
+		
+		patternCross = normal.cross(patternDirection);
+		patternCrossUnit = new TripletVector(patternCross);
+		patternCrossUnit.normalize();
 		
 		minBound = new TripletVector(0, 0, 0);
 		maxBound = new TripletVector(0, 0, 0);
@@ -90,24 +94,11 @@ public class Plane extends GeometricObject
 		patternDirection.normalize();
 		emitter = false;
 		
-		filename = params[11];
-		if(filename.equals("none"))
-		{
-			myImage = null;
-		}
-		//Citation: https://docs.oracle.com/javase/tutorial/2d/images/loadimage.html
-		else
-		{
-			try
-			{
-				myImage = ImageIO.read(new File(filename));
-			}
-			catch(Exception e)
-			{
-				System.out.println("Error! Unable to load image: " + filename + ". Continuing with default");
-				filename = "none";
-			}
-		}
+		filename = loadTexture(params[11]);
+		
+		patternCross = normal.cross(patternDirection);
+		patternCrossUnit = new TripletVector(patternCross);
+		patternCrossUnit.normalize();
 		
 		minBound = new TripletVector(0, 0, 0);
 		maxBound = new TripletVector(0, 0, 0);
@@ -116,14 +107,18 @@ public class Plane extends GeometricObject
 	@Override
 	public TripletVector getColor(TripletVector point)
 	{
-		TripletVector patternDirection2 = normal.cross(patternDirection);
-		double xDistance = patternDirection.dot(point);
-		double yDistance = patternDirection2.dot(point);
-		if(filename.equals("none"))
+		return getColor(point, 0, new TripletVector(0, 0, 0));
+	}
+	
+	@Override
+	public TripletVector getColor(TripletVector point, double footprint, TripletVector dest)
+	{
+		double xDistance = patternDirection.dot(point) - patternOffsetX;
+		double yDistance = patternCross.dot(point) - patternOffsetY;
+		if(texture == null)
 		{
-			patternDirection2.normalize();
-			int xDistanceInt = (int)(patternDirection.dot(point)/patternSize);
-			int yDistanceInt = (int)(patternDirection2.dot(point)/patternSize);
+			int xDistanceInt = (int)(xDistance/patternSize);
+			int yDistanceInt = (int)((patternCrossUnit.dot(point) - patternOffsetYUnit)/patternSize);
 			//CITATION: http://stackoverflow.com/questions/7342237/check-whether-number-is-even-or-odd
 			boolean even = ((xDistanceInt + yDistanceInt) & 1) == 0;
 			if(xDistance*yDistance < 0)
@@ -137,41 +132,43 @@ public class Plane extends GeometricObject
 		{
 			double u = Math.abs((xDistance%patternSize)/patternSize);
 			double v = Math.abs((yDistance%patternSize)/patternSize);
-			double j = (1-u)*(myImage.getHeight()-1);
-		    double i = v*(myImage.getWidth()-1);
-
-			Color pixCol = new Color(myImage.getRGB((int)i, (int)j));
-			
-			return new TripletVector(pixCol.getRed()/255.0, pixCol.getGreen()/255.0, pixCol.getBlue()/255.0);
+			double j = (1-u)*(texture.getHeight()-1);
+		    double i = v*(texture.getWidth()-1);
+		    //The image is repeated once every patternSize along both directions
+			double texelsPerUnit = Math.max(texture.getWidth()-1, texture.getHeight()-1)/patternSize;
+			return texture.lookup(i, j, footprint*texelsPerUnit, dest);
 		}
 	}
 
 	@Override
-	public TripletVector getNormal(TripletVector point)
+	public void translate(TripletVector transition)
 	{
-		return normal;
+		coordinates = coordinates.add(transition);
+		patternOffsetX += patternDirection.dot(transition);
+		patternOffsetY += patternCross.dot(transition);
+		patternOffsetYUnit += patternCrossUnit.dot(transition);
 	}
 
 	@Override
-	public ArrayList<Double> intersect(Ray intersectRay)
+	public TripletVector getNormal(TripletVector point)
 	{
-		ArrayList<Double> result = new ArrayList<Double>();
-		TripletVector dir = intersectRay.getDirection();
-		TripletVector org = intersectRay.getOrigin();
-		if(dir.dot(normal) == 0)
-			return result;
-		double t = (coordinates.sub(org).dot(normal))*(1/dir.dot(normal));
-		if(t >= 0)
-			result.add(t);
-		return result;
+		return normal;
 	}
-	
+
 	@Override
-	public ArrayList<Ray> getSampleRays(TripletVector origin, String sampleType, int sampleSize)
+	public double intersect(Ray intersectRay, double tMin, double tMax)
 	{
-		ArrayList<Ray> sampleRays = new ArrayList<Ray>();
-		
-		return sampleRays;
+		double[] dir = intersectRay.getDirection().getComponents();
+		double[] org = intersectRay.getOrigin().getComponents();
+		double[] norm = normal.getComponents();
+		double[] coords = coordinates.getComponents();
+		double denominator = dir[0]*norm[0] + dir[1]*norm[1] + dir[2]*norm[2];
+		if(denominator == 0)
+			return NO_HIT;
+		double t = ((coords[0]-org[0])*norm[0] + (coords[1]-org[1])*norm[1] + (coords[2]-org[2])*norm[2])*(1/denominator);
+		if(t > tMin && t < tMax)
+			return t;
+		return NO_HIT;
 	}
 
 }
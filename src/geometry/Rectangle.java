@@ -1,11 +1,5 @@
 package geometry;
 
-import java.util.ArrayList;
-import java.awt.image.BufferedImage;
-import java.io.File;
-import javax.imageio.ImageIO;
-import java.awt.Color;
-
 import rendering.Ray;
 import rendering.Sampler;
 import rendering.TripletVector;
@@ -27,8 +21,9 @@ public class Rectangle extends GeometricObject
 	private TripletVector bVector;
 	//The normal vector of the rectangle
 	private TripletVector normal;
-	//An image associated with the rectangle
-	private BufferedImage myImage;
+	//Squared lengths of aVector and bVector, the bounds of a hit projected onto them
+	private double aLengthSquared;
+	private double bLengthSquared;
 	//The filename of the image associated with the rectangle, or "none"
 	private String filename;
 	
@@ -47,7 +42,7 @@ public class Rectangle extends GeometricObject
 		aVector = aVecIn;
 		bVector = bVecIn;
 		defaultColor = col;
-		filename = filen;
+		filename = loadTexture(filen);
 		specular = spec;
 		reflectivity = refl;
 		glossyExponent = gloss;
@@ -55,6 +50,11 @@ public class Rectangle extends GeometricObject
 		refractionIndex = refrctInd;
 		emitter = emit;
 		
+		normal = new TripletVector(aVector.cross(bVector));
+		normal.normalize();
+		aLengthSquared = aVector.getLength()*aVector.getLength();
+		bLengthSquared = bVector.getLength()*bVector.getLength();
+		
 		minBound = bottomLeft;
 		maxBound = bottomLeft.add(aVector).add(bVector);
 	}
@@ -74,24 +74,7 @@ public class Rectangle extends GeometricObject
 		bVector = new TripletVector(Double.parseDouble(bVecStr[0]), Double.parseDouble(bVecStr[1]), Double.parseDouble(bVecStr[2]));
 		String[] colStr = params[3].split(",");
 		defaultColor = new TripletVector(Double.parseDouble(colStr[0])/255.0, Double.parseDouble(colStr[1])/255.0, Double.parseDouble(colStr[2])/255.0);
-		filename = params[4];
-		if(filename.equals("none"))
-		{
-			myImage = null;
-		}
-		//Citation: https://docs.oracle.com/javase/tutorial/2d/images/loadimage.html
-		else
-		{
-			try
-			{
-				myImage = ImageIO.read(new File(filename));
-			}
-			catch(Exception e)
-			{
-				System.out.println("Error! Unable to load image: " + filename + ". Continuing with default");
-				filename = "none";
-			}
-		}
+		filename = loadTexture(params[4]);
 		
 		specular = Double.parseDouble(params[5]);
 		reflectivity = Double.parseDouble(params[6]);
@@ -103,6 +86,8 @@ public class Rectangle extends GeometricObject
 		
 		normal = new TripletVector(aVector.cross(bVector));
 		normal.normalize();
+		aLengthSquared = aVector.getLength()*aVector.getLength();
+		bLengthSquared = bVector.getLength()*bVector.getLength();
 
 		minBound = bottomLeft;
 		maxBound = bottomLeft.add(aVector).add(bVector);
@@ -111,24 +96,57 @@ public class Rectangle extends GeometricObject
 	@Override
 	public TripletVector getColor(TripletVector point)
 	{
-		if(filename.equals("none"))
+		return getColor(point, 0, new TripletVector(0, 0, 0));
+	}
+	
+	@Override
+	public TripletVector getColor(TripletVector point, double footprint, TripletVector dest)
+	{
+		if(texture == null)
 			return defaultColor;
 		else
 		{
 			//Calculate the pixel on the image for the color at this point
-			TripletVector offPoint = new TripletVector(point);
-		    offPoint = offPoint.sub(bottomLeft);
-		    TripletVector proja = aVector.scale((offPoint.dot(aVector))/(aVector.dot(aVector)));
-		    double u = proja.getLength()/(aVector.getLength());
-		    TripletVector projb = (bVector.scale((offPoint.dot(bVector))/(bVector.dot(bVector))));
-		    double v = projb.getLength()/(bVector.getLength());
-		    double j = (1-u)*(myImage.getHeight()-1);
-		    double i = v*(myImage.getWidth()-1);
-
-			Color pixCol = new Color(myImage.getRGB((int)i, (int)j));
-			return new TripletVector(pixCol.getRed()/255.0, pixCol.getGreen()/255.0, pixCol.getBlue()/255.0);
+			double[] pointComponents = point.getComponents();
+			double[] corner = bottomLeft.getComponents();
+			double offx = pointComponents[0] - corner[0];
+			double offy = pointComponents[1] - corner[1];
+			double offz = pointComponents[2] - corner[2];
+			double aLength = aVector.getLength();
+			double bLength = bVector.getLength();
+			double u = projectedLength(aVector, offx, offy, offz)/aLength;
+			double v = projectedLength(bVector, offx, offy, offz)/bLength;
+			double j = (1-u)*(texture.getHeight()-1);
+			double i = v*(texture.getWidth()-1);
+			double texelsPerUnit = Math.max((texture.getWidth()-1)/bLength, (texture.getHeight()-1)/aLength);
+			return texture.lookup(i, j, footprint*texelsPerUnit, dest);
 		}
 	}
+	
+	/**
+	 * @param side aVector or bVector
+	 * @param offx
+	 * @param offy
+	 * @param offz the offset of a point from the bottom left corner
+	 * @return the length of the offset projected onto the side
+	 */
+	private double projectedLength(TripletVector side, double offx, double offy, double offz)
+	{
+		double[] sideComponents = side.getComponents();
+		double scale = (offx*sideComponents[0] + offy*sideComponents[1] + offz*sideComponents[2])/side.dot(side);
+		double px = sideComponents[0]*scale;
+		double py = sideComponents[1]*scale;
+		double pz = sideComponents[2]*scale;
+		return Math.sqrt(px*px + py*py + pz*pz);
+	}
+
+	@Override
+	public void translate(TripletVector transition)
+	{
+		bottomLeft = bottomLeft.add(transition);
+		minBound = bottomLeft;
+		maxBound = bottomLeft.add(aVector).add(bVector);
+	}
 
 	@Override
 	public TripletVector getNormal(TripletVector point)
@@ -137,51 +155,56 @@ public class Rectangle extends GeometricObject
 	}
 
 	@Override
-	public ArrayList<Double> intersect(Ray intersectRay)
+	public double intersect(Ray intersectRay, double tMin, double tMax)
 	{
-		ArrayList<Double> result = new ArrayList<Double>();
-		TripletVector dir = intersectRay.getDirection();
-		TripletVector org = intersectRay.getOrigin();
+		double[] dir = intersectRay.getDirection().getComponents();
+		double[] org = intersectRay.getOrigin().getComponents();
+		double[] norm = normal.getComponents();
+		double[] corner = bottomLeft.getComponents();
 		
-		if(dir.dot(normal) == 0)
-			return result;
+		double denominator = dir[0]*norm[0] + dir[1]*norm[1] + dir[2]*norm[2];
+		if(denominator == 0)
+			return NO_HIT;
 		
-		double t = ((bottomLeft.sub(org)).dot(normal))/(dir.dot(normal));
+		double t = ((corner[0]-org[0])*norm[0] + (corner[1]-org[1])*norm[1] + (corner[2]-org[2])*norm[2])/denominator;
 		
-		if(t < 0)
-			return result;
+		if(t <= tMin || t >= tMax)
+			return NO_HIT;
 		
-		TripletVector point = (org).add(dir.scale(t));
 		//Citation: Ray Tracing from the Ground Up
-		TripletVector d = point.sub(bottomLeft);
+		double dx = org[0] + dir[0]*t - corner[0];
+		double dy = org[1] + dir[1]*t - corner[1];
+		double dz = org[2] + dir[2]*t - corner[2];
 		
-		double ddota = d.dot(aVector);
-		if(ddota < 0.0 || ddota > aVector.getLength()*aVector.getLength())
-			return result;
+		double[] a = aVector.getComponents();
+		double ddota = dx*a[0] + dy*a[1] + dz*a[2];
+		if(ddota < 0.0 || ddota > aLengthSquared)
+			return NO_HIT;
 		
-		double ddotb = d.dot(bVector);
-		if(ddotb < 0.0 || ddotb > bVector.getLength()*bVector.getLength())
-			return result;
+		double[] b = bVector.getComponents();
+		double ddotb = dx*b[0] + dy*b[1] + dz*b[2];
+		if(ddotb < 0.0 || ddotb > bLengthSquared)
+			return NO_HIT;
 		
-		result.add(t);
-		return result;
+		return t;
 	}
 	
 	@Override
-	public ArrayList<Ray> getSampleRays(TripletVector origin, String sampleType, int sampleSize)
+	public int getSamplePoints(String sampleType, int sampleSize, double[] samples, double[] dest)
 	{
-		ArrayList<Ray> sampleRays = new ArrayList<Ray>();
-		ArrayList<double[]> samples = Sampler.getSamples(sampleType, sampleSize);
-		for(double[] sample : samples)
+		int count = Sampler.getSamples(sampleType, sampleSize, samples);
+		double[] corner = bottomLeft.getComponents();
+		double[] a = aVector.getComponents();
+		double[] b = bVector.getComponents();
+		for(int sample = 0; sample < count; sample++)
 		{
-			TripletVector pointOnRect = bottomLeft.add(aVector.scale(sample[0])).add(bVector.scale(sample[1]));
-			TripletVector vecFromObj = pointOnRect.sub(origin);
-			vecFromObj.normalize();
-			TripletVector rayStart = origin.add(vecFromObj.scale(0.01));
-			sampleRays.add(new Ray(rayStart, vecFromObj, -1, -1, 1, 1.0, 0));
+			double u = samples[2*sample];
+			double v = samples[2*sample + 1];
+			dest[sample*3] = corner[0] + a[0]*u + b[0]*v;
+			dest[sample*3 + 1] = corner[1] + a[1]*u + b[1]*v;
+			dest[sample*3 + 2] = corner[2] + a[2]*u + b[2]*v;
 		}
-		samples = null;
-		return sampleRays;
+		return count;
 	}
 
 }
@@ -1,11 +1,6 @@
 package geometry;
 
-import java.util.ArrayList;
 import java.lang.Math;
-import java.awt.image.BufferedImage;
-import java.io.File;
-import javax.imageio.ImageIO;
-import java.awt.Color;
 
 import rendering.TripletVector;
 import rendering.Ray;
@@ -20,8 +15,6 @@ public class Sphere extends GeometricObject
 {
 	private TripletVector center;
 	private double radius;
-	//An image associated with the sphere
-	private BufferedImage myImage;
 	//The filename of the image associated with the rectangle, or "none"
 	private String filename;
 	
@@ -37,7 +30,7 @@ public class Sphere extends GeometricObject
 		center = new TripletVector(position);
 		radius = sphereRadius;
 		defaultColor = new TripletVector(sphereColor);
-		filename = filen;
+		filename = loadTexture(filen);
 		specular = spec;
 		reflectivity = refl;
 		glossyExponent = gloss;
@@ -69,23 +62,7 @@ public class Sphere extends GeometricObject
 		refractionIndex = Double.parseDouble(params[8]);
 		emitter = params[9].equals("True");
 		
-		if(filename.equals("none"))
-		{
-			myImage = null;
-		}
-		//Citation: https://docs.oracle.com/javase/tutorial/2d/images/loadimage.html
-		else
-		{
-			try
-			{
-				myImage = ImageIO.read(new File(filename));
-			}
-			catch(Exception e)
-			{
-				System.out.println("Error! Unable to load image: " + filename + ". Continuing with default");
-				filename = "none";
-			}
-		}
+		filename = loadTexture(filename);
 		
 		minBound = center.sub(radius);
 		maxBound = center.add(radius);
@@ -94,23 +71,38 @@ public class Sphere extends GeometricObject
 	@Override
 	public TripletVector getColor(TripletVector point)
 	{
-		if(filename.equals("none"))
+		return getColor(point, 0, new TripletVector(0, 0, 0));
+	}
+	
+	@Override
+	public TripletVector getColor(TripletVector point, double footprint, TripletVector dest)
+	{
+		if(texture == null)
 		{
 			return defaultColor;
 		}
 		else
 		{
 			//Map to spherical coordinates
-			double[] pointComponents = point.sub(center).getComponents();
-			double theta = Math.atan2(pointComponents[2], pointComponents[0]) + Math.PI;
-			double phi = Math.acos(pointComponents[1]/radius);
-			double j = (1-(theta/(2*Math.PI)))*myImage.getWidth();
-			double i = (phi/(Math.PI))*myImage.getHeight();
-			Color pixCol = new Color(myImage.getRGB((int)j, (int)i));
-			return new TripletVector(pixCol.getRed()/255.0, pixCol.getGreen()/255.0, pixCol.getBlue()/255.0);
+			double[] pointComponents = point.getComponents();
+			double[] centerComponents = center.getComponents();
+			double theta = Math.atan2(pointComponents[2] - centerComponents[2], pointComponents[0] - centerComponents[0]) + Math.PI;
+			double phi = Math.acos((pointComponents[1] - centerComponents[1])/radius);
+			double j = (1-(theta/(2*Math.PI)))*texture.getWidth();
+			double i = (phi/(Math.PI))*texture.getHeight();
+			//The width of the image wraps once around the equator
+			return texture.lookup(j, i, footprint*texture.getWidth()/(2*Math.PI*radius), dest);
 		}
 	}
 
+	@Override
+	public void translate(TripletVector transition)
+	{
+		center = center.add(transition);
+		minBound = minBound.add(transition);
+		maxBound = maxBound.add(transition);
+	}
+
 	@Override
 	public TripletVector getNormal(TripletVector point)
 	{
@@ -120,51 +112,56 @@ public class Sphere extends GeometricObject
 	}
 
 	@Override
-	public ArrayList<Double> intersect(Ray intersectRay)
+	public double intersect(Ray intersectRay, double tMin, double tMax)
 	{
 		//Citation: Equation from https://www.scratchapixel.com/lessons/3d-basic-rendering/minimal-ray-tracer-rendering-simple-shapes/ray-sphere-intersection
-		ArrayList<Double> result = new ArrayList<Double>();
+		double[] rayDir = intersectRay.getDirection().getComponents();
+		double[] rayOrig = intersectRay.getOrigin().getComponents();
+		double[] centerComp = center.getComponents();
 		
-		TripletVector rayDir = intersectRay.getDirection();
-		TripletVector rayOrig = intersectRay.getOrigin();
+		double ocx = rayOrig[0] - centerComp[0];
+		double ocy = rayOrig[1] - centerComp[1];
+		double ocz = rayOrig[2] - centerComp[2];
 		
-		double a = rayDir.dot(rayDir);
-		double b = rayOrig.sub(center).scale(2).dot(rayDir);
-		double c = rayOrig.sub(center).dot(rayOrig.sub(center)) - (radius*radius);
+		double a = rayDir[0]*rayDir[0] + rayDir[1]*rayDir[1] + rayDir[2]*rayDir[2];
+		double b = 2*(ocx*rayDir[0] + ocy*rayDir[1] + ocz*rayDir[2]);
+		double c = ocx*ocx + ocy*ocy + ocz*ocz - (radius*radius);
+		double discriminant = b*b-(4*a*c);
 		
-		if(b*b-(4*a*c) == 0)
+		if(discriminant < 0)
 		{
-			result.add(-b/(2*a));
+			return NO_HIT;
 		}
-		else if(b*b-(4*a*c) > 0)
+		double root = Math.sqrt(discriminant);
+		double tNear = (-b - root)/(2*a);
+		if(tNear > tMin && tNear < tMax)
 		{
-			result.add((-b + Math.pow((b*b-(4*a*c)), 0.5))/(2*a));
-	        result.add((-b - Math.pow((b*b-(4*a*c)), 0.5))/(2*a));
+			return tNear;
 		}
-		
-		return result;
+		double tFar = (-b + root)/(2*a);
+		if(tFar > tMin && tFar < tMax)
+		{
+			return tFar;
+		}
+		return NO_HIT;
 	}
 	
 	@Override
-	public ArrayList<Ray> getSampleRays(TripletVector origin, String sampleType, int sampleSize)
+	public int getSamplePoints(String sampleType, int sampleSize, double[] samples, double[] dest)
 	{
 		//CITATION: http://tutorial.math.lamar.edu/Classes/CalcIII/SphericalCoords.aspx
 		//http://mathworld.wolfram.com/SphericalCoordinates.html
-		ArrayList<Ray> sampleRays = new ArrayList<Ray>();
-		ArrayList<double[]> samples = Sampler.getSamples(sampleType, sampleSize);
-		for(double[] sample : samples)
+		int count = Sampler.getSamples(sampleType, sampleSize, samples);
+		double[] centerComponents = center.getComponents();
+		for(int sample = 0; sample < count; sample++)
 		{
-			double theta = sample[0]*2*Math.PI;
-			double phi = sample[1]*Math.PI;
-			TripletVector pointOnSphere = new TripletVector(radius*Math.sin(phi)*Math.cos(theta), radius*Math.sin(phi)*Math.sin(theta), radius*Math.cos(phi));
-			pointOnSphere = pointOnSphere.add(center);
-			TripletVector vecFromObj = pointOnSphere.sub(origin);
-			vecFromObj.normalize();
-			TripletVector rayStart = origin.add(vecFromObj.scale(0.01));
-			sampleRays.add(new Ray(rayStart, vecFromObj, -1, -1, 1, 1.0, 0));
+			double theta = samples[2*sample]*2*Math.PI;
+			double phi = samples[2*sample + 1]*Math.PI;
+			dest[sample*3] = radius*Math.sin(phi)*Math.cos(theta) + centerComponents[0];
+			dest[sample*3 + 1] = radius*Math.sin(phi)*Math.sin(theta) + centerComponents[1];
+			dest[sample*3 + 2] = radius*Math.cos(phi) + centerComponents[2];
 		}
-		samples = null;
-		return sampleRays;
+		return count;
 	}
 
 }
@@ -0,0 +1,184 @@
+package geometry;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.imageio.ImageIO;
+
+import rendering.TripletVector;
+
+/**
+ * An image decoded once into packed RGB arrays, shared by every object that
+ * uses the same file, with a pyramid of mip levels each half the size of the one before
+ * Lookups read the packed arrays directly, so no Color or TripletVector is made per lookup
+ * @author alexaulabaugh
+ *
+ */
+public final class Texture
+{
+	//Textures already decoded, by filename
+	private static ConcurrentHashMap<String, Texture> cache = new ConcurrentHashMap<String, Texture>();
+	//Turns an 8 bit sRGB channel into linear light, mip levels are averaged in linear light
+	private static final double[] TO_LINEAR = new double[256];
+	static
+	{
+		for(int c = 0; c < 256; c++)
+		{
+			double s = c/255.0;
+			TO_LINEAR[c] = s <= 0.04045 ? s/12.92 : Math.pow((s + 0.055)/1.055, 2.4);
+		}
+	}
+
+	//Texels of each level as 0xRRGGBB, row by row, level 0 is the image itself
+	private int[][] levels;
+	//Width and height of each level
+	private int[] widths;
+	private int[] heights;
+
+	/**
+	 * @param image the decoded image to build the levels from
+	 */
+	private Texture(BufferedImage image)
+	{
+		int width = image.getWidth();
+		int height = image.getHeight();
+		int levelCount = 1;
+		while((width >> (levelCount-1)) > 1 || (height >> (levelCount-1)) > 1)
+		{
+			levelCount++;
+		}
+		levels = new int[levelCount][];
+		widths = new int[levelCount];
+		heights = new int[levelCount];
+		widths[0] = width;
+		heights[0] = height;
+		levels[0] = image.getRGB(0, 0, width, height, null, 0, width);
+		for(int texel = 0; texel < levels[0].length; texel++)
+		{
+			levels[0][texel] &= 0xFFFFFF;
+		}
+		for(int level = 1; level < levelCount; level++)
+		{
+			buildLevel(level);
+		}
+	}
+
+	/**
+	 * Finds the texture for a file, decoding it the first time it is asked for
+	 * Safe to call from any number of threads at once
+	 * @param filename
+	 * @return the texture
+	 * @throws IOException if the file can't be read or isn't an image
+	 */
+	public static Texture load(String filename) throws IOException
+	{
+		Texture texture = cache.get(filename);
+		if(texture != null)
+		{
+			return texture;
+		}
+		//Citation: https://docs.oracle.com/javase/tutorial/2d/images/loadimage.html
+		BufferedImage image = ImageIO.read(new File(filename));
+		if(image == null)
+		{
+			throw new IOException("not a readable image");
+		}
+		texture = new Texture(image);
+		Texture earlier = cache.putIfAbsent(filename, texture);
+		return earlier == null ? texture : earlier;
+	}
+
+	/**
+	 * Drops every decoded texture, so files changed on disk are read again
+	 */
+	public static void clearCache()
+	{
+		cache.clear();
+	}
+
+	/**
+	 * Box filters a level out of the one before it, each texel averaging the 2x2
+	 * texels under it (or 2x1 once one side is down to a single texel)
+	 * @param level the level to build, at least 1
+	 */
+	private void buildLevel(int level)
+	{
+		int[] source = levels[level-1];
+		int sourceWidth = widths[level-1];
+		int sourceHeight = heights[level-1];
+		int width = Math.max(1, sourceWidth/2);
+		int height = Math.max(1, sourceHeight/2);
+		int[] texels = new int[width*height];
+		for(int y = 0; y < height; y++)
+		{
+			int y0 = Math.min(2*y, sourceHeight-1);
+			int y1 = Math.min(2*y+1, sourceHeight-1);
+			for(int x = 0; x < width; x++)
+			{
+				int x0 = Math.min(2*x, sourceWidth-1);
+				int x1 = Math.min(2*x+1, sourceWidth-1);
+				int a = source[y0*sourceWidth + x0];
+				int b = source[y0*sourceWidth + x1];
+				int c = source[y1*sourceWidth + x0];
+				int d = source[y1*sourceWidth + x1];
+				int texel = 0;
+				for(int shift = 16; shift >= 0; shift -= 8)
+				{
+					double linear = (TO_LINEAR[(a >> shift) & 0xFF] + TO_LINEAR[(b >> shift) & 0xFF]
+							+ TO_LINEAR[(c >> shift) & 0xFF] + TO_LINEAR[(d >> shift) & 0xFF])/4;
+					texel |= toSRGB(linear) << shift;
+				}
+				texels[y*width + x] = texel;
+			}
+		}
+		levels[level] = texels;
+		widths[level] = width;
+		heights[level] = height;
+	}
+
+	/**
+	 * @param linear a channel in linear light between 0 and 1
+	 * @return the nearest 8 bit sRGB value
+	 */
+	private static int toSRGB(double linear)
+	{
+		double s = linear <= 0.0031308 ? linear*12.92 : 1.055*Math.pow(linear, 1/2.4) - 0.055;
+		return Math.max(0, Math.min(255, (int)Math.round(s*255)));
+	}
+
+	public int getWidth()
+	{
+		return widths[0];
+	}
+
+	public int getHeight()
+	{
+		return heights[0];
+	}
+
+	/**
+	 * Looks up the texel under a point of the full size image, from the mip level
+	 * whose texels are about as wide as the footprint, so a texture seen from far
+	 * away is averaged rather than aliased
+	 * @param x column on the full size image, truncated like an index
+	 * @param y row on the full size image, truncated like an index
+	 * @param footprint how many full size texels the area being shaded spans, 1 or less for the full size image
+	 * @param dest where the color, 0 to 1 per channel, is written
+	 * @return dest
+	 */
+	public TripletVector lookup(double x, double y, double footprint, TripletVector dest)
+	{
+		int level = 0;
+		//Each level halves the texel count along a side, the finest level at least as coarse as the footprint is used
+		while(level < levels.length-1 && (2 << level) <= footprint)
+		{
+			level++;
+		}
+		int column = Math.max(0, Math.min(widths[level]-1, (int)x >> level));
+		int row = Math.max(0, Math.min(heights[level]-1, (int)y >> level));
+		int texel = levels[level][row*widths[level] + column];
+		return dest.set(((texel >> 16) & 0xFF)/255.0, ((texel >> 8) & 0xFF)/255.0, (texel & 0xFF)/255.0);
+	}
+}
@@ -1,7 +1,5 @@
 package geometry;
 
-import java.util.ArrayList;
-
 import rendering.Ray;
 import rendering.TripletVector;
 
@@ -15,6 +13,10 @@ public class Triangle extends GeometricObject
 {
 	private TripletVector[] vertices;
 	private TripletVector normal;
+	//The first vertex and the two edges leaving it, kept as plain doubles for intersect
+	private double v0x, v0y, v0z;
+	private double e1x, e1y, e1z;
+	private double e2x, e2y, e2z;
 	
 	/**
 	 * The default constructor for a triangle
@@ -40,6 +42,31 @@ public class Triangle extends GeometricObject
 		emitter = false;
 		
 		updateBounds();
+		updateEdges();
+	}
+	
+	/**
+	 * The constructor for one triangle of a TriangleMesh, whose normal
+	 * and color the mesh has already worked out
+	 * @param vert an array of the three endpoints of the triangle
+	 * @param norm the normal of the triangle
+	 * @param col the default color, already scaled to [0, 1]
+	 * @param spec the specular component
+	 */
+	Triangle(TripletVector[] vert, TripletVector norm, TripletVector col, double spec, double refl, double gloss, double refrct, double refrctInd)
+	{
+		vertices = vert;
+		normal = norm;
+		defaultColor = col;
+		specular = spec;
+		reflectivity = refl;
+		glossyExponent = gloss;
+		refractivity = refrct;
+		refractionIndex = refrctInd;
+		emitter = false;
+		
+		updateBounds();
+		updateEdges();
 	}
 	
 	/**
@@ -75,6 +102,7 @@ public class Triangle extends GeometricObject
 		emitter = false;
 		
 		updateBounds();
+		updateEdges();
 	}
 	
 	/**
@@ -114,18 +142,21 @@ public class Triangle extends GeometricObject
 		vertices[1] = vertices[1].scale(scalar);
 		vertices[2] = vertices[2].scale(scalar);
 		updateBounds();
+		updateEdges();
 	}
 	
 	/**
 	 * Translates all vertices
 	 * @param transition
 	 */
+	@Override
 	public void translate(TripletVector transition)
 	{
 		vertices[0] = vertices[0].add(transition);
 		vertices[1] = vertices[1].add(transition);
 		vertices[2] = vertices[2].add(transition);
 		updateBounds();
+		updateEdges();
 	}
 	
 	/**
@@ -144,6 +175,7 @@ public class Triangle extends GeometricObject
 		normal = vertices[1].sub(vertices[0]).cross(vertices[2].sub(vertices[1]));
 		normal.normalize();
 		updateBounds();
+		updateEdges();
 	}
 	
 	/**
@@ -173,68 +205,89 @@ public class Triangle extends GeometricObject
 		normal = vertices[1].sub(vertices[0]).cross(vertices[2].sub(vertices[1]));
 		normal.normalize();
 		updateBounds();
+		updateEdges();
 	}
 	
 	/**
-	 * CITATION: CS410 lecture slides, Ray Tracing from the Ground up
-	 * Computes the signed area for a triangle with the provided three endpoints
-	 * @param vert0
-	 * @param vert1
-	 * @param vert2
-	 * @return signed area of triangle
+	 * Caches the first vertex and the edges from it to the other two,
+	 * must be called whenever the vertices move
 	 */
-	private double computeArea(TripletVector vert0, TripletVector vert1, TripletVector vert2)
+	private void updateEdges()
 	{
-		TripletVector crossp = vert1.sub(vert0).cross(vert2.sub(vert1));
-		double sign = 1;
-		double[] normalComp = normal.getComponents();
-		double[] crosspComp = crossp.getComponents();
-		for(int index = 0; index < 3; index++)
-		{
-			if((normalComp[index] > 0 && crosspComp[index] < 0) || (normalComp[index] < 0 && crosspComp[index] > 0))
-			{
-				sign = -1;
-			}
-		}
-		return crossp.getLength()*0.5*sign;
+		double[] v0 = vertices[0].getComponents();
+		double[] v1 = vertices[1].getComponents();
+		double[] v2 = vertices[2].getComponents();
+		v0x = v0[0];
+		v0y = v0[1];
+		v0z = v0[2];
+		e1x = v1[0] - v0[0];
+		e1y = v1[1] - v0[1];
+		e1z = v1[2] - v0[2];
+		e2x = v2[0] - v0[0];
+		e2y = v2[1] - v0[1];
+		e2z = v2[2] - v0[2];
 	}
 
+	@Override
+	public double intersect(Ray intersectRay, double tMin, double tMax)
+	{
+		return intersectEdges(intersectRay.getOrigin().getComponents(), intersectRay.getDirection().getComponents(),
+				v0x, v0y, v0z, e1x, e1y, e1z, e2x, e2y, e2z, tMin, tMax);
+	}
+	
 	/**
-	 * CITATION: CS410 Slides, Ray Tracing from the Ground Up
+	 * Intersects a ray with a triangle given as its first vertex and the two edges leaving it,
+	 * the one copy of the test used by Triangle, TriangleMesh and the packed arrays of the acceleration structures
+	 * CITATION: Fast, Minimum Storage Ray/Triangle Intersection, Moller & Trumbore
+	 * @param org the ray origin
+	 * @param dir the ray direction
+	 * @param v0x the first vertex
+	 * @param v0y
+	 * @param v0z
+	 * @param e1x the edge from the first vertex to the second
+	 * @param e1y
+	 * @param e1z
+	 * @param e2x the edge from the first vertex to the third
+	 * @param e2y
+	 * @param e2z
+	 * @param tMin intersections at or before this t are ignored
+	 * @param tMax intersections at or beyond this t are ignored
+	 * @return the t of the hit with tMin < t < tMax, or NO_HIT
 	 */
-	@Override
-	public ArrayList<Double> intersect(Ray intersectRay)
+	public static double intersectEdges(double[] org, double[] dir, double v0x, double v0y, double v0z,
+			double e1x, double e1y, double e1z, double e2x, double e2y, double e2z, double tMin, double tMax)
 	{
-		ArrayList<Double> result = new ArrayList<Double>();
-		TripletVector dir = intersectRay.getDirection();
-		TripletVector org = intersectRay.getOrigin();
+		//p = dir x e2
+		double px = dir[1]*e2z - dir[2]*e2y;
+		double py = dir[2]*e2x - dir[0]*e2z;
+		double pz = dir[0]*e2y - dir[1]*e2x;
 		
-		if(dir.dot(normal) == 0)
-			return result;
+		double det = e1x*px + e1y*py + e1z*pz;
+		if(det == 0)
+			return NO_HIT;
+		double invDet = 1.0/det;
 		
-		double t = (vertices[0].sub(org).dot(normal))/(dir.dot(normal));
+		double sx = org[0] - v0x;
+		double sy = org[1] - v0y;
+		double sz = org[2] - v0z;
 		
-		if(t <= 0)
-			return result;
-				
-		TripletVector p = org.add(dir.scale(t));
+		double u = (sx*px + sy*py + sz*pz)*invDet;
+		if(u < 0 || u > 1)
+			return NO_HIT;
 		
-		double a0 = computeArea(vertices[0], vertices[1], p);
-	    double a1 = computeArea(vertices[1], vertices[2], p);
-	    double a2 = computeArea(vertices[2], vertices[0], p);
-	    
-	    double triArea = computeArea(vertices[0], vertices[1], vertices[2]);
-	    
-	    if(a0/triArea > 1 || a0/triArea < 0)
-	        return result;
-	    if(a1/triArea > 1 || a1/triArea < 0)
-	        return result;
-	    if(a2/triArea > 1 || a2/triArea < 0)
-	        return result;
-	    
-		result.add(t);
+		//q = s x e1
+		double qx = sy*e1z - sz*e1y;
+		double qy = sz*e1x - sx*e1z;
+		double qz = sx*e1y - sy*e1x;
 		
-		return result;
+		double v = (dir[0]*qx + dir[1]*qy + dir[2]*qz)*invDet;
+		if(v < 0 || u + v > 1)
+			return NO_HIT;
+		
+		double t = (e2x*qx + e2y*qy + e2z*qz)*invDet;
+		if(t <= 0 || t <= tMin || t >= tMax)
+			return NO_HIT;
+		return t;
 	}
 	
 	@Override
@@ -249,14 +302,6 @@ public class Triangle extends GeometricObject
 		return normal;
 	}
 	
-	@Override
-	public ArrayList<Ray> getSampleRays(TripletVector origin, String sampleType, int sampleSize)
-	{
-		ArrayList<Ray> sampleRays = new ArrayList<Ray>();
-		//Not implemented
-		return sampleRays;
-	}
-	
 	/**
 	 * A useful debugging function
 	 */
@@ -2,25 +2,33 @@ package geometry;
 
 /**
  * A class for reading in and positioning a mesh of triangles from a .obj file.
+ * Vertices are shared between triangles and stored packed in one array,
+ * triangles are three indices into it. Acceleration structures address
+ * triangles by their index instead of as separate objects, and a hit is
+ * shaded as the mesh with the normal of the triangle hit.
  * @author alexaulabaugh
  */
 
-import java.util.ArrayList;
-import java.util.Scanner;
-import java.io.File;
-
+import rendering.Ray;
 import rendering.TripletVector;
 
-public class TriangleMesh
+public class TriangleMesh extends GeometricObject
 {
-	private ArrayList<Triangle> triangles;
+	//xyz of every vertex
+	private double[] positions;
+	private int vertexCount;
+	//Three vertex indices per triangle
+	private int[] indices;
+	private int triangleCount;
+	//xyz of the normal of every triangle, computed whenever the vertices change shape so render threads only read them
+	private double[] normals;
+	
 	private TripletVector center;
-	private TripletVector color;
-	private double specular;
-	private double reflectivity;
-	private double glossyExponent;
-	private double refractivity;
-	private double refractionIndex;
+	//The vertices and normals as they were when an animation first placed the mesh, null until then
+	private double[] restPositions;
+	private double[] restNormals;
+	//The middle of the box around restPositions, which animation rotates the mesh about
+	private double[] pivot;
 	
 	/**
 	 * Initializes all values
@@ -39,18 +47,18 @@ public class TriangleMesh
 	public TriangleMesh(String filename, TripletVector cent, double scalar, TripletVector col, double spec, double refl, double gloss, double refrct, double refrctInd, double[] stretchFactors, double[] rotationFactors)
 	{
 		center = cent;
-		color = col;
+		defaultColor = col.scale(1/255.0);
 		specular = spec;
 		reflectivity = refl;
 		glossyExponent = gloss;
 		refractivity = refrct;
 		refractionIndex = refrctInd;
-		triangles = new ArrayList<Triangle>();
-		readFile(filename);
-		rotate(rotationFactors[0], rotationFactors[1]);
-		stretch(0, stretchFactors[0]);
-		stretch(1, stretchFactors[1]);
-		stretch(2, stretchFactors[2]);
+		readFile(filename, false);
+		rotateVertices(rotationFactors[0], rotationFactors[1]);
+		stretchVertices(0, stretchFactors[0]);
+		stretchVertices(1, stretchFactors[1]);
+		stretchVertices(2, stretchFactors[2]);
+		computeNormals();
 		scale(scalar);
 		translate(center);
 	}
@@ -60,6 +68,16 @@ public class TriangleMesh
 	 * @param paramString
 	 */
 	public TriangleMesh(String paramString)
+	{
+		this(paramString, false);
+	}
+	
+	/**
+	 * Generates the mesh given the params as a one line string
+	 * @param paramString
+	 * @param useCache true to load the mesh from a binary cache file when possible
+	 */
+	public TriangleMesh(String paramString, boolean useCache)
 	{
 		String[] params = paramString.split(" ");
 		String filename = params[0];
@@ -69,134 +87,402 @@ public class TriangleMesh
 		String[] stretchFactors = params[3].split(",");
 		String[] rotateFactors = params[4].split(",");
 		String[] colString = params[5].split(",");
-		color = new TripletVector(Double.parseDouble(colString[0]), Double.parseDouble(colString[1]), Double.parseDouble(colString[2]));
+		defaultColor = new TripletVector(Double.parseDouble(colString[0]), Double.parseDouble(colString[1]), Double.parseDouble(colString[2])).scale(1/255.0);
 		specular = Double.parseDouble(params[6]);
 		reflectivity = Double.parseDouble(params[7]);
 		glossyExponent = Double.parseDouble(params[8]);
 		refractivity = Double.parseDouble(params[9]);
 		refractionIndex = Double.parseDouble(params[10]);
-		triangles = new ArrayList<Triangle>();
-		readFile(filename);
-		rotate(Double.parseDouble(rotateFactors[0]), Double.parseDouble(rotateFactors[1]));
+		readFile(filename, useCache);
+		rotateVertices(Double.parseDouble(rotateFactors[0]), Double.parseDouble(rotateFactors[1]));
 		for(int i = 0; i < 3; i++)
 		{
-			stretch(i, Double.parseDouble(stretchFactors[i]));
+			stretchVertices(i, Double.parseDouble(stretchFactors[i]));
 		}
+		computeNormals();
 		scale(scalar);
 		translate(center);
 	}
 	
 	/**
-	 * Helper function for computing exponents
-	 * @param exp string representation of an exponent
-	 * @return
-	 */
-	private double convertExp(String exp)
-	{
-	    String[] comp = exp.split("e");
-	    double base = Double.parseDouble(comp[0]);
-	    double exponent = Double.parseDouble(comp[1]);
-	    double ten = Math.pow(10.0, exponent);
-	    return base*ten;
-	}
-	
-	/**
-	 * Reads in an obj file and populates the triangles structure with triangles
+	 * Reads in an obj file and populates the vertex and index arrays
 	 * @param filename
+	 * @param useCache true to load from, or save to, a binary cache next to the file
 	 */
-	private void readFile(String filename)
+	private void readFile(String filename, boolean useCache)
 	{
-		ArrayList<TripletVector> points = new ArrayList<TripletVector>();
+		ObjLoader loader = new ObjLoader();
 		try
 		{
-			File sceneFile = new File(filename);
-			Scanner objFileScanner = new Scanner(sceneFile);
-			objFileScanner.nextLine(); //header
-			objFileScanner.nextLine(); //vertex count
-			while(objFileScanner.hasNextLine())
-			{
-				String[] lineTokens = objFileScanner.nextLine().split(" ");
-				if(lineTokens[0].equals("v"))
-				{
-					TripletVector newPoint = new TripletVector(convertExp(lineTokens[1]), convertExp(lineTokens[2]), convertExp(lineTokens[3]));
-					points.add(newPoint);
-				}
-				else if(lineTokens[0].equals("f"))
-				{
-					TripletVector[] vertices = new TripletVector[3];
-					
-					vertices[1] = new TripletVector(points.get(Integer.parseInt(lineTokens[1])-1));
-					vertices[0] = new TripletVector(points.get(Integer.parseInt(lineTokens[2])-1));
-					vertices[2] = new TripletVector(points.get(Integer.parseInt(lineTokens[3])-1));
-					
-					Triangle meshTriangle = new Triangle(vertices, color, specular, reflectivity, glossyExponent, refractivity, refractionIndex);
-					triangles.add(meshTriangle);
-				}
-			}
-			objFileScanner.close();
+			loader.load(filename, useCache);
+			positions = loader.getPositions();
+			indices = loader.getIndices();
+			vertexCount = loader.getVertexCount();
+			triangleCount = loader.getTriangleCount();
 		}
 		catch(Exception e)
 		{
-			System.out.println("Error, could not load object file: " + filename);
+			System.out.println("Error, could not load object file: " + filename + " (" + e.getMessage() + ")");
+			positions = new double[0];
+			indices = new int[0];
+			vertexCount = 0;
+			triangleCount = 0;
+		}
+		normals = new double[triangleCount*3];
+	}
+	
+	/**
+	 * @param vertex
+	 * @return a copy of a vertex as a TripletVector
+	 */
+	private TripletVector getVertex(int vertex)
+	{
+		return new TripletVector(positions[vertex*3], positions[vertex*3 + 1], positions[vertex*3 + 2]);
+	}
+	
+	/**
+	 * Recomputes every triangle normal from the current vertices
+	 */
+	private void computeNormals()
+	{
+		for(int tri = 0; tri < triangleCount; tri++)
+		{
+			TripletVector v0 = getVertex(indices[tri*3]);
+			TripletVector v1 = getVertex(indices[tri*3 + 1]);
+			TripletVector v2 = getVertex(indices[tri*3 + 2]);
+			TripletVector normal = v1.sub(v0).cross(v2.sub(v1));
+			normal.normalize();
+			System.arraycopy(normal.getComponents(), 0, normals, tri*3, 3);
 		}
 	}
 	
 	/**
-	 * Translate every triangle
+	 * Translate every vertex
 	 * @param translation
 	 */
+	@Override
 	public void translate(TripletVector translation)
 	{
-		for(Triangle tri : triangles)
+		restPositions = null;
+		//Like a lone Triangle, moving the mesh keeps the normals it had
+		double[] offset = translation.getComponents();
+		for(int i = 0; i < vertexCount*3; i++)
 		{
-			tri.translate(translation);
+			positions[i] = positions[i] + offset[i%3];
 		}
 	}
 	
 	/**
-	 * Scales every triangle
+	 * Scales every vertex
 	 * @param factor
 	 */
 	public void scale(double factor)
 	{
-		for(Triangle tri : triangles)
+		restPositions = null;
+		//Scaling evenly keeps every triangle facing the same way, so the normals are kept too
+		for(int i = 0; i < vertexCount*3; i++)
 		{
-			tri.scale(factor);
+			positions[i] = positions[i] * factor;
 		}
 	}
 	
 	/**
-	 * Scales every triangle along an axis
+	 * Scales every vertex along an axis
 	 * @param index the axis to scale along
 	 * @param factor the factor to scale by
 	 */
 	public void stretch(int index, double factor)
 	{
-		for(Triangle tri : triangles)
+		restPositions = null;
+		stretchVertices(index, factor);
+		computeNormals();
+	}
+	
+	/**
+	 * Scales every vertex along an axis, leaving the normals to the caller
+	 * @param index the axis to scale along
+	 * @param factor the factor to scale by
+	 */
+	private void stretchVertices(int index, double factor)
+	{
+		for(int vertex = 0; vertex < vertexCount; vertex++)
 		{
-			tri.stretch(index,  factor);
+			positions[vertex*3 + index] = positions[vertex*3 + index]*factor;
 		}
 	}
 	
 	/**
-	 * Rotates every triangle by spherical coordinates theta and pi
+	 * Rotates every vertex about the origin by spherical coordinates theta and phi
+	 * CITATION: referenced from http://www.learningaboutelectronics.com/Articles/Cartesian-rectangular-to-spherical-coordinate-converter-calculator.php
 	 * @param theta [0, 2pi]
 	 * @param phi [0, pi]
 	 */
 	public void rotate(double theta, double phi)
 	{
-		for(Triangle tri : triangles)
+		restPositions = null;
+		rotateVertices(theta, phi);
+		computeNormals();
+	}
+	
+	/**
+	 * Rotates every vertex like rotate, leaving the normals to the caller
+	 * @param theta
+	 * @param phi
+	 */
+	private void rotateVertices(double theta, double phi)
+	{
+		for(int vertex = 0; vertex < vertexCount; vertex++)
+		{
+			double[] comp = getVertex(vertex).getComponents();
+			double radius = getVertex(vertex).getLength();
+			double myTheta = Math.acos(comp[2]/radius);
+			double myPhi = Math.atan(comp[1]/comp[0]);
+			comp[0] = -1*radius*Math.sin(myTheta+theta)*Math.cos(myPhi+phi);
+			comp[1] = -1*radius*Math.sin(myTheta+theta)*Math.sin(myPhi+phi);
+			comp[2] = radius*Math.cos(myTheta+theta);
+			if(myTheta > 0 && myPhi > 0)
+			{
+				comp[0] = comp[0]*-1;
+				comp[1] = comp[1]*-1;
+			}
+			System.arraycopy(comp, 0, positions, vertex*3, 3);
+		}
+	}
+	
+	/**
+	 * Puts the mesh where an animation has it at a frame, worked out from the
+	 * rest pose so placing it over and over doesn't drift
+	 * The rest pose is the mesh as it is on the first call, and is forgotten
+	 * whenever translate, scale, stretch or rotate move the mesh
+	 * @param offset how far to move the mesh from its rest pose
+	 * @param degrees how far to turn the mesh about the x, y and z axes through
+	 * the middle of its rest pose, in that order
+	 */
+	public void setPlacement(TripletVector offset, TripletVector degrees)
+	{
+		if(restPositions == null)
+		{
+			restPositions = positions.clone();
+			restNormals = normals.clone();
+			TripletVector[] bounds = getBounds();
+			pivot = bounds[0].add(bounds[1]).scale(0.5).getComponents();
+		}
+		double[] move = offset.getComponents();
+		double[] angles = degrees.getComponents();
+		if(angles[0] == 0 && angles[1] == 0 && angles[2] == 0)
+		{
+			//Adding the offset straight to the rest pose puts an unmoved mesh back exactly
+			for(int i = 0; i < vertexCount*3; i++)
+			{
+				positions[i] = restPositions[i] + move[i%3];
+			}
+			System.arraycopy(restNormals, 0, normals, 0, triangleCount*3);
+			return;
+		}
+		double[] rotation = rotationMatrix(angles);
+		for(int vertex = 0; vertex < vertexCount; vertex++)
+		{
+			double x = restPositions[vertex*3] - pivot[0];
+			double y = restPositions[vertex*3 + 1] - pivot[1];
+			double z = restPositions[vertex*3 + 2] - pivot[2];
+			for(int axis = 0; axis < 3; axis++)
+			{
+				positions[vertex*3 + axis] = rotation[axis*3]*x + rotation[axis*3 + 1]*y + rotation[axis*3 + 2]*z + pivot[axis] + move[axis];
+			}
+		}
+		//A rotation turns every triangle's normal with it, so the rest normals are turned rather than recomputed
+		for(int tri = 0; tri < triangleCount; tri++)
+		{
+			double x = restNormals[tri*3];
+			double y = restNormals[tri*3 + 1];
+			double z = restNormals[tri*3 + 2];
+			for(int axis = 0; axis < 3; axis++)
+			{
+				normals[tri*3 + axis] = rotation[axis*3]*x + rotation[axis*3 + 1]*y + rotation[axis*3 + 2]*z;
+			}
+		}
+	}
+	
+	/**
+	 * @param degrees turns about the x, y and z axes, applied in that order
+	 * @return the row major 3x3 matrix of the three turns
+	 */
+	private static double[] rotationMatrix(double[] degrees)
+	{
+		double cx = Math.cos(Math.toRadians(degrees[0]));
+		double sx = Math.sin(Math.toRadians(degrees[0]));
+		double cy = Math.cos(Math.toRadians(degrees[1]));
+		double sy = Math.sin(Math.toRadians(degrees[1]));
+		double cz = Math.cos(Math.toRadians(degrees[2]));
+		double sz = Math.sin(Math.toRadians(degrees[2]));
+		//Rz*Ry*Rx
+		return new double[] {
+				cz*cy, cz*sy*sx - sz*cx, cz*sy*cx + sz*sx,
+				sz*cy, sz*sy*sx + cz*cx, sz*sy*cx - cz*sx,
+				-sy, cy*sx, cy*cx};
+	}
+	
+	/**
+	 * @return the number of triangles in the mesh
+	 */
+	public int getTriangleCount()
+	{
+		return triangleCount;
+	}
+	
+	/**
+	 * Writes the bounding box of one triangle
+	 * @param tri index of the triangle
+	 * @param bounds where to write min xyz then max xyz
+	 * @param offset where in bounds to start writing
+	 */
+	public void getTriangleBounds(int tri, double[] bounds, int offset)
+	{
+		for(int axis = 0; axis < 3; axis++)
 		{
-			tri.rotate(theta, phi);
+			double a = positions[indices[tri*3]*3 + axis];
+			double b = positions[indices[tri*3 + 1]*3 + axis];
+			double c = positions[indices[tri*3 + 2]*3 + axis];
+			bounds[offset + axis] = Math.min(a, Math.min(b, c));
+			bounds[offset + 3 + axis] = Math.max(a, Math.max(b, c));
 		}
 	}
 	
 	/**
-	 * Returns all triangles
+	 * Writes the first vertex of one triangle and the two edges leaving it,
+	 * the values intersectTriangle works from
+	 * @param tri index of the triangle
+	 * @param edges where to write the vertex xyz, the first edge xyz, then the second edge xyz
+	 * @param offset where in edges to start writing
+	 */
+	public void getTriangleEdges(int tri, double[] edges, int offset)
+	{
+		int i0 = indices[tri*3]*3;
+		int i1 = indices[tri*3 + 1]*3;
+		int i2 = indices[tri*3 + 2]*3;
+		for(int axis = 0; axis < 3; axis++)
+		{
+			edges[offset + axis] = positions[i0 + axis];
+			edges[offset + 3 + axis] = positions[i1 + axis] - positions[i0 + axis];
+			edges[offset + 6 + axis] = positions[i2 + axis] - positions[i0 + axis];
+		}
+	}
+	
+	/**
+	 * Intersects a ray with one triangle, with the same test as Triangle.intersect
+	 * @param tri index of the triangle
+	 * @param intersectRay
+	 * @param tMin intersections at or before this t are ignored
+	 * @param tMax intersections at or beyond this t are ignored
+	 * @return the t of the hit with tMin < t < tMax, or GeometricObject.NO_HIT
+	 */
+	public double intersectTriangle(int tri, Ray intersectRay, double tMin, double tMax)
+	{
+		int i0 = indices[tri*3]*3;
+		int i1 = indices[tri*3 + 1]*3;
+		int i2 = indices[tri*3 + 2]*3;
+		double v0x = positions[i0];
+		double v0y = positions[i0 + 1];
+		double v0z = positions[i0 + 2];
+		return Triangle.intersectEdges(intersectRay.getOrigin().getComponents(), intersectRay.getDirection().getComponents(), v0x, v0y, v0z,
+				positions[i1] - v0x, positions[i1 + 1] - v0y, positions[i1 + 2] - v0z,
+				positions[i2] - v0x, positions[i2 + 1] - v0y, positions[i2 + 2] - v0z, tMin, tMax);
+	}
+	
+	/**
+	 * Writes the normal of one triangle into an existing vector
+	 * @param tri index of the triangle
+	 * @param dest the vector to overwrite
+	 * @return dest
+	 */
+	public TripletVector getTriangleNormal(int tri, TripletVector dest)
+	{
+		return dest.set(normals[tri*3], normals[tri*3 + 1], normals[tri*3 + 2]);
+	}
+	
+	/**
+	 * Every triangle of a mesh has the mesh's color
+	 * @param point
+	 * @return the color of the mesh
+	 */
+	@Override
+	public TripletVector getColor(TripletVector point)
+	{
+		return defaultColor;
+	}
+	
+	/**
+	 * A mesh's normal depends on which triangle was hit, and finding that from a
+	 * point alone means testing every triangle, so hits must be shaded with
+	 * getTriangleNormal and the triangle the acceleration structure found
+	 * @param point
+	 * @return never
+	 * @throws UnsupportedOperationException always
+	 */
+	@Override
+	public TripletVector getNormal(TripletVector point)
+	{
+		throw new UnsupportedOperationException("A mesh normal needs the triangle hit, see getTriangleNormal");
+	}
+	
+	/**
+	 * Intersects a ray with every triangle of the mesh, acceleration structures
+	 * test the triangles one at a time with intersectTriangle instead
+	 * @param intersectRay
+	 * @param tMin intersections at or before this t are ignored
+	 * @param tMax intersections at or beyond this t are ignored
+	 * @return the t of the nearest hit with tMin < t < tMax, or NO_HIT
+	 */
+	@Override
+	public double intersect(Ray intersectRay, double tMin, double tMax)
+	{
+		double smallestT = NO_HIT;
+		for(int tri = 0; tri < triangleCount; tri++)
+		{
+			double t = intersectTriangle(tri, intersectRay, tMin, Math.min(tMax, smallestT));
+			if(t < smallestT)
+			{
+				smallestT = t;
+			}
+		}
+		return smallestT;
+	}
+	
+	/**
+	 * The box around every vertex of the mesh
 	 * @return
 	 */
-	public ArrayList<Triangle> getTriangles()
+	@Override
+	public TripletVector[] getBounds()
 	{
-		return triangles;
+		double[] min = {Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE};
+		double[] max = {-Double.MAX_VALUE, -Double.MAX_VALUE, -Double.MAX_VALUE};
+		for(int i = 0; i < vertexCount*3; i++)
+		{
+			min[i%3] = Math.min(min[i%3], positions[i]);
+			max[i%3] = Math.max(max[i%3], positions[i]);
+		}
+		minBound = new TripletVector(min);
+		maxBound = new TripletVector(max);
+		return super.getBounds();
+	}
+	
+	/**
+	 * Builds a standalone Triangle for one triangle of the mesh, with the
+	 * mesh's material
+	 * @param tri index of the triangle
+	 * @return
+	 */
+	public Triangle getTriangle(int tri)
+	{
+		TripletVector[] vertices = new TripletVector[3];
+		for(int i = 0; i < 3; i++)
+		{
+			vertices[i] = getVertex(indices[tri*3 + i]);
+		}
+		TripletVector normal = new TripletVector(normals[tri*3], normals[tri*3 + 1], normals[tri*3 + 2]);
+		Triangle triangle = new Triangle(vertices, normal, defaultColor, specular, reflectivity, glossyExponent, refractivity, refractionIndex);
+		triangle.setGlossySamples(glossySamples);
+		return triangle;
 	}
 }
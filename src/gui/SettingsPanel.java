@@ -120,7 +120,7 @@ public class SettingsPanel extends ManualPanel
 		this.add(sceneChoice);
 		
 		//Acceleration Structure
-		String[] structures = {"FreeObjects", "RegularGrid"};
+		String[] structures = {"FreeObjects", "RegularGrid", "BoundingVolumeHierarchy"};
 		addLabel("Acceleration Structure", 20, 300, 140, 20, true, true);
 		
 		structureChoice = new JComboBox<String>(structures);
@@ -208,6 +208,9 @@ public class SettingsPanel extends ManualPanel
 					case "RegularGrid":
 						structureChoice.setSelectedItem(components[0]);
 						break;
+					case "BoundingVolumeHierarchy":
+						structureChoice.setSelectedItem(components[0]);
+						break;
 				}
 				
 			}
@@ -230,6 +233,8 @@ public class SettingsPanel extends ManualPanel
 			case "RegularGrid":
 				//Regular grid constant is fixed at 3 for now
 				return "RegularGrid:3";
+			case "BoundingVolumeHierarchy":
+				return "BoundingVolumeHierarchy";
 			default:
 				return "FreeObjects";
 		}
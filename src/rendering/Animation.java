@@ -0,0 +1,336 @@
+package rendering;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Scanner;
+import java.util.TreeMap;
+
+import geometry.GeometricObject;
+import geometry.TriangleMesh;
+
+/**
+ * The keyframes of an animation, read from an animation file:
+ * Frames:48
+ * OutputFilename:turntable_%03d.png
+ * CameraKey:<frame> <eyepoint x,y,z> <lookat x,y,z>
+ * CameraOrbit:<degrees turned about the up vector through the lookat over all the frames>
+ * ObjectKey:<object> <frame> <offset x,y,z>
+ * MeshKey:<mesh> <frame> <offset x,y,z> <rotation x,y,z>
+ * Objects are numbered from 0 in the order the scene file lists its spheres,
+ * planes, triangles and rectangles, and are moved by their offset from where
+ * the scene file puts them. Meshes are numbered from 0 in the order the scene
+ * file lists them, and are moved by their offset and turned by their rotation,
+ * in degrees about the x, y and z axes through the middle of the mesh. The
+ * rotation can be left out for none. Keys are interpolated linearly and hold
+ * their value before the first key and after the last
+ * @author alexaulabaugh
+ *
+ */
+public class Animation
+{
+	//Number of frames rendered
+	private int frameCount;
+	//Name of each frame's image, with a format specifier for the frame number, or null for the settings file's
+	private String outputFilename;
+	//Camera keyframes by frame, none to keep the camera file's
+	private TreeMap<Integer, TripletVector> eyeKeys;
+	private TreeMap<Integer, TripletVector> lookatKeys;
+	//Degrees the camera turns about its lookat over the whole animation
+	private double orbitDegrees;
+	//Offset keyframes by frame, for each object that moves
+	private TreeMap<Integer, TreeMap<Integer, TripletVector>> objectKeys;
+	//How far each moving object has been moved so far
+	private TreeMap<Integer, TripletVector> appliedOffsets;
+	//Offset and rotation keyframes by frame, for each mesh that moves
+	private TreeMap<Integer, TreeMap<Integer, TripletVector>> meshOffsetKeys;
+	private TreeMap<Integer, TreeMap<Integer, TripletVector>> meshRotationKeys;
+	//Where each moving mesh has been placed so far
+	private TreeMap<Integer, TripletVector> appliedMeshOffsets;
+	private TreeMap<Integer, TripletVector> appliedMeshRotations;
+
+	/**
+	 * Reads an animation file
+	 * @param filename
+	 * @throws FileNotFoundException if the file can't be opened
+	 * @throws IllegalArgumentException if a line can't be understood
+	 */
+	public Animation(String filename) throws FileNotFoundException
+	{
+		//Default values
+		frameCount = 1;
+		outputFilename = null;
+		orbitDegrees = 0;
+		//End default values
+		eyeKeys = new TreeMap<Integer, TripletVector>();
+		lookatKeys = new TreeMap<Integer, TripletVector>();
+		objectKeys = new TreeMap<Integer, TreeMap<Integer, TripletVector>>();
+		appliedOffsets = new TreeMap<Integer, TripletVector>();
+		meshOffsetKeys = new TreeMap<Integer, TreeMap<Integer, TripletVector>>();
+		meshRotationKeys = new TreeMap<Integer, TreeMap<Integer, TripletVector>>();
+		appliedMeshOffsets = new TreeMap<Integer, TripletVector>();
+		appliedMeshRotations = new TreeMap<Integer, TripletVector>();
+		Scanner animationFileScanner = new Scanner(new File(filename));
+		try
+		{
+			while(animationFileScanner.hasNextLine())
+			{
+				String[] line = animationFileScanner.nextLine().split(":");
+				switch(line[0])
+				{
+					case "Frames":
+						frameCount = Integer.parseInt(line[1].trim());
+						if(frameCount < 1)
+						{
+							throw new IllegalArgumentException("Frames must be at least 1");
+						}
+						break;
+					case "OutputFilename":
+						outputFilename = line[1];
+						break;
+					case "CameraKey":
+						String[] cameraParams = line[1].split(" ");
+						int cameraFrame = Integer.parseInt(cameraParams[0]);
+						eyeKeys.put(cameraFrame, parseVector(cameraParams[1]));
+						lookatKeys.put(cameraFrame, parseVector(cameraParams[2]));
+						break;
+					case "CameraOrbit":
+						orbitDegrees = Double.parseDouble(line[1]);
+						break;
+					case "ObjectKey":
+						String[] objectParams = line[1].split(" ");
+						int object = Integer.parseInt(objectParams[0]);
+						if(!objectKeys.containsKey(object))
+						{
+							objectKeys.put(object, new TreeMap<Integer, TripletVector>());
+							appliedOffsets.put(object, new TripletVector(0, 0, 0));
+						}
+						objectKeys.get(object).put(Integer.parseInt(objectParams[1]), parseVector(objectParams[2]));
+						break;
+					case "MeshKey":
+						String[] meshParams = line[1].split(" ");
+						int mesh = Integer.parseInt(meshParams[0]);
+						if(!meshOffsetKeys.containsKey(mesh))
+						{
+							meshOffsetKeys.put(mesh, new TreeMap<Integer, TripletVector>());
+							meshRotationKeys.put(mesh, new TreeMap<Integer, TripletVector>());
+							appliedMeshOffsets.put(mesh, new TripletVector(0, 0, 0));
+							appliedMeshRotations.put(mesh, new TripletVector(0, 0, 0));
+						}
+						int meshFrame = Integer.parseInt(meshParams[1]);
+						meshOffsetKeys.get(mesh).put(meshFrame, parseVector(meshParams[2]));
+						meshRotationKeys.get(mesh).put(meshFrame, meshParams.length > 3 ? parseVector(meshParams[3]) : new TripletVector(0, 0, 0));
+						break;
+				}
+			}
+		}
+		finally
+		{
+			animationFileScanner.close();
+		}
+	}
+
+	/**
+	 * @param components x,y,z
+	 * @return the vector
+	 */
+	private static TripletVector parseVector(String components)
+	{
+		String[] coords = components.split(",");
+		return new TripletVector(Double.parseDouble(coords[0]), Double.parseDouble(coords[1]), Double.parseDouble(coords[2]));
+	}
+
+	/**
+	 * Linearly interpolates between the keys either side of a frame
+	 * @param keys keyframes by frame, at least one
+	 * @param frame
+	 * @return the value at frame
+	 */
+	private static TripletVector interpolate(TreeMap<Integer, TripletVector> keys, int frame)
+	{
+		Map.Entry<Integer, TripletVector> before = keys.floorEntry(frame);
+		Map.Entry<Integer, TripletVector> after = keys.ceilingEntry(frame);
+		if(before == null)
+		{
+			return after.getValue();
+		}
+		if(after == null || after.getKey().equals(before.getKey()))
+		{
+			return before.getValue();
+		}
+		double s = (frame - before.getKey())/(double)(after.getKey() - before.getKey());
+		return before.getValue().scale(1 - s).add(after.getValue().scale(s));
+	}
+
+	public int getFrameCount()
+	{
+		return frameCount;
+	}
+
+	/**
+	 * @return true if any object or mesh moves, so the scene must keep them out of its built structure
+	 */
+	public boolean hasMovingObjects()
+	{
+		return !objectKeys.isEmpty() || !meshOffsetKeys.isEmpty();
+	}
+
+	/**
+	 * Finds the objects the animation moves, skipping numbers the scene has no object for
+	 * @param sceneObjects the scene's objects in scene file order
+	 * @return the objects that move
+	 */
+	public ArrayList<GeometricObject> getMovingObjects(ArrayList<GeometricObject> sceneObjects)
+	{
+		ArrayList<GeometricObject> movingObjects = new ArrayList<GeometricObject>();
+		for(int object : objectKeys.keySet())
+		{
+			if(object < 0 || object >= sceneObjects.size())
+			{
+				System.out.println("Error: Animation moves object " + object + " but the scene has " + sceneObjects.size() + " objects, ignoring it");
+				continue;
+			}
+			movingObjects.add(sceneObjects.get(object));
+		}
+		return movingObjects;
+	}
+
+	/**
+	 * Finds the meshes the animation moves, skipping numbers the scene has no mesh for
+	 * @param meshes the scene's meshes in scene file order
+	 * @return the meshes that move
+	 */
+	public ArrayList<TriangleMesh> getMovingMeshes(ArrayList<TriangleMesh> meshes)
+	{
+		ArrayList<TriangleMesh> movingMeshes = new ArrayList<TriangleMesh>();
+		for(int mesh : meshOffsetKeys.keySet())
+		{
+			if(mesh < 0 || mesh >= meshes.size())
+			{
+				System.out.println("Error: Animation moves mesh " + mesh + " but the scene has " + meshes.size() + " meshes, ignoring it");
+				continue;
+			}
+			movingMeshes.add(meshes.get(mesh));
+		}
+		return movingMeshes;
+	}
+	
+	/**
+	 * Puts every animated mesh where it is at a frame
+	 * @param frame the frame, or -1 to put every mesh back where the scene file has it
+	 * @param meshes the scene's meshes in scene file order
+	 * @return true if any mesh was moved, so whatever was built over the moving meshes must be rebuilt
+	 */
+	public boolean moveMeshes(int frame, ArrayList<TriangleMesh> meshes)
+	{
+		boolean moved = false;
+		for(int mesh : meshOffsetKeys.keySet())
+		{
+			if(mesh < 0 || mesh >= meshes.size())
+			{
+				continue;
+			}
+			TripletVector offset = frame < 0 ? new TripletVector(0, 0, 0) : interpolate(meshOffsetKeys.get(mesh), frame);
+			TripletVector rotation = frame < 0 ? new TripletVector(0, 0, 0) : interpolate(meshRotationKeys.get(mesh), frame);
+			if(sameComponents(offset, appliedMeshOffsets.get(mesh)) && sameComponents(rotation, appliedMeshRotations.get(mesh)))
+			{
+				continue;
+			}
+			meshes.get(mesh).setPlacement(offset, rotation);
+			appliedMeshOffsets.put(mesh, offset);
+			appliedMeshRotations.put(mesh, rotation);
+			moved = true;
+		}
+		return moved;
+	}
+	
+	/**
+	 * @param a
+	 * @param b
+	 * @return true if every component of a equals the same component of b
+	 */
+	private static boolean sameComponents(TripletVector a, TripletVector b)
+	{
+		return Arrays.equals(a.getComponents(), b.getComponents());
+	}
+	
+	/**
+	 * Moves every animated object to where it is at a frame
+	 * @param frame the frame, or -1 to put every object back where the scene file has it
+	 * @param sceneObjects the scene's objects in scene file order
+	 */
+	public void moveObjects(int frame, ArrayList<GeometricObject> sceneObjects)
+	{
+		for(int object : objectKeys.keySet())
+		{
+			if(object < 0 || object >= sceneObjects.size())
+			{
+				continue;
+			}
+			TripletVector offset = frame < 0 ? new TripletVector(0, 0, 0) : interpolate(objectKeys.get(object), frame);
+			TripletVector step = offset.sub(appliedOffsets.get(object));
+			double[] stepComponents = step.getComponents();
+			if(stepComponents[0] != 0 || stepComponents[1] != 0 || stepComponents[2] != 0)
+			{
+				sceneObjects.get(object).translate(step);
+				appliedOffsets.put(object, offset);
+			}
+		}
+	}
+
+	/**
+	 * Makes the camera for a frame, moved from the camera file's camera by the keys and the orbit
+	 * @param frame
+	 * @param baseCamera the camera file's camera
+	 * @return the frame's camera, with a film of its own
+	 */
+	public Camera getCamera(int frame, Camera baseCamera)
+	{
+		TripletVector eyePoint = eyeKeys.isEmpty() ? baseCamera.getEyePoint() : interpolate(eyeKeys, frame);
+		TripletVector lookat = lookatKeys.isEmpty() ? baseCamera.getLookat() : interpolate(lookatKeys, frame);
+		if(orbitDegrees != 0)
+		{
+			//Rodrigues' rotation of the eyepoint about the up vector through the lookat
+			//The last frame stops one step short of the full orbit so a 360 degree turntable loops
+			double theta = Math.toRadians(orbitDegrees*frame/frameCount);
+			TripletVector axis = baseCamera.getUp();
+			TripletVector arm = eyePoint.sub(lookat);
+			TripletVector rotated = arm.scale(Math.cos(theta)).add(axis.cross(arm).scale(Math.sin(theta))).add(axis.scale(axis.dot(arm)*(1 - Math.cos(theta))));
+			eyePoint = lookat.add(rotated);
+		}
+		return baseCamera.moveTo(eyePoint, lookat);
+	}
+
+	/**
+	 * @param defaultFilename the settings file's output filename, used if the animation names none
+	 * @param frame
+	 * @return the filename of a frame's image, the frame number put in with String.format,
+	 * or before the extension if the name has no format specifier
+	 */
+	public String getFrameFilename(String defaultFilename, int frame)
+	{
+		String filename = outputFilename == null ? defaultFilename : outputFilename;
+		if(filename.contains("%"))
+		{
+			return String.format(Locale.ROOT, filename, frame);
+		}
+		int extension = filename.lastIndexOf('.');
+		if(extension < 0 || extension < filename.lastIndexOf(File.separatorChar))
+		{
+			extension = filename.length();
+		}
+		return filename.substring(0, extension) + String.format(Locale.ROOT, "_%04d", frame) + filename.substring(extension);
+	}
+
+	/**
+	 * Sets the filename every frame's image is named from, overriding the animation file's
+	 * @param filename see getFrameFilename
+	 */
+	public void setOutputFilename(String filename)
+	{
+		outputFilename = filename;
+	}
+}
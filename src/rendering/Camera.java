@@ -26,10 +26,18 @@ public class Camera
 	private TripletVector u;
 	//The remaining cameraspace dimension
 	private TripletVector v;
+	//The point faced, the up vector and the field of view as given, for moved copies of the camera
+	private TripletVector lookatPoint;
+	private TripletVector upVector;
+	private double fovDegrees;
 	
 	//Anti-Aliasing controls
 	private String sampleType;
 	private int sampleSize;
+	//Adaptive Anti-Aliasing: samples every pixel gets first, 0 if off
+	private int adaptiveSamples;
+	//Pixels whose first samples' luminance has a standard error above this get more samples
+	private double adaptiveThreshold;
 	
 	//The number of pixels on the view plane
 	private int filmWidth;
@@ -40,7 +48,8 @@ public class Camera
 	private double fov;
 	private String renderMode;
 	//The colors on the view plane, film is an analogy
-	private TripletVector[][] film;
+	//rgb of each pixel, the pixel (i, j) starts at (i*filmHeight + j)*3
+	private double[] film;
 	
 	/**
 	 * The constructor for a camera
@@ -57,6 +66,9 @@ public class Camera
 	{
 		up.normalize();
 		eyePoint = eyePt;
+		lookatPoint = lookat;
+		upVector = up;
+		fovDegrees = fovDeg;
 		w = lookat.sub(eyePt);
 		u = up.cross(w);
 		v = u.cross(w);
@@ -72,79 +84,241 @@ public class Camera
 		
 		renderMode = mode;
 		
-		film = new TripletVector[filmWidth][filmHeight];
-		for(int i = 0; i < filmWidth; i++)
-		{
-			for(int j = 0; j < filmHeight; j++)
-			{
-				film[i][j] = new TripletVector(0, 0, 0);
-			}
-		}
+		film = new double[filmWidth*filmHeight*3];
 		
 		sampleType = smplType;
 		sampleSize = smplSize;
 	}
 	
 	/**
-	 * Assuming one ray is shot from the center of each pixel, generates an arrayList of rays for the
-	 * camera configuration
+	 * Generates every ray for the whole film at once
+	 * Rendering generates rays a pixel at a time with getPixelRays instead,
+	 * this is only for tools that want the full list
 	 * @return
 	 */
 	public ArrayList<Ray>getRays()
 	{
 		ArrayList<Ray> cameraRays = new ArrayList<Ray>();
-				
-		double aspectRatio = filmWidth / filmHeight;
-		
 		for(int pixelx = 0; pixelx < filmWidth; pixelx++)
 		{
 			for(int pixely = 0; pixely < filmHeight; pixely++)
 			{
-				ArrayList<double[]> samples = Sampler.getSamples(sampleType, sampleSize);
-				for(double[] sample : samples)
-				{
-					double pixelNDCx = (pixelx+0.5+(sample[0]-0.5))/filmWidth;
-					double pixelNDCy = (pixely+0.5+(sample[1]-0.5))/filmHeight;
-				
-					double pixelScreenX = 2*pixelNDCx - 1;
-					double pixelScreenY = 1 - 2*pixelNDCy;
-															
-					//Rays are shot from the eyepoint
-					if(renderMode.equals("perspective"))
-					{
-						double pixelCameraX = pixelScreenX*aspectRatio*Math.tan(fov/2.0)*pixelWidth;
-						double pixelCameraY = pixelScreenY*Math.tan(fov/2.0)*pixelWidth;
-					
-						TripletVector rayDirection = new TripletVector(u.scale(pixelCameraX).add(v.scale(pixelCameraY).add(w.scale(1))));
-						rayDirection.normalize();
-						cameraRays.add(new Ray(eyePoint, rayDirection, pixelx, pixely, 1.0, 1.0, 0));
-					}
-					//Rays are shot perpendicular to the view plane
-					else if(renderMode.equals("orthographic"))
-					{
-						double pixelCameraX = pixelScreenX*aspectRatio*pixelWidth;
-						double pixelCameraY = pixelScreenY*pixelWidth;
-						TripletVector rayDirection = new TripletVector(w);
-						rayDirection.normalize();
-						cameraRays.add(new Ray(new TripletVector(pixelCameraX, pixelCameraY, 0).add(w.scale(1)), rayDirection, pixelx, pixely, 1.0, 1.0, 0));
-					}
-				}
-				
+				getPixelRays(pixelx, pixely, cameraRays);
 			}
 		}
 		return cameraRays;
 	}
+	
+	/**
+	 * Generates the rays for one pixel, one per anti-aliasing sample
+	 * @param pixelx the pixel column
+	 * @param pixely the pixel row
+	 * @param cameraRays the list the rays are added to
+	 */
+	public void getPixelRays(int pixelx, int pixely, ArrayList<Ray> cameraRays)
+	{
+		getPixelRays(pixelx, pixely, sampleSize, cameraRays);
+	}
+	
+	/**
+	 * Generates the rays for one pixel with a given number of samples
+	 * @param pixelx the pixel column
+	 * @param pixely the pixel row
+	 * @param numSamples the number of samples, a perfect square unless sampling randomly
+	 * @param cameraRays the list the rays are added to
+	 */
+	public void getPixelRays(int pixelx, int pixely, int numSamples, ArrayList<Ray> cameraRays)
+	{
+		Ray[] rays = new Ray[Math.max(1, numSamples)];
+		for(int i = 0; i < rays.length; i++)
+		{
+			rays[i] = new Ray();
+		}
+		int count = getPixelRays(pixelx, pixely, numSamples, new double[rays.length*2], rays);
+		for(int i = 0; i < count; i++)
+		{
+			cameraRays.add(rays[i]);
+		}
+	}
+	
+	/**
+	 * Generates the rays for one pixel into existing rays, so a thread can
+	 * reuse the same rays for every pixel it renders
+	 * @param pixelx the pixel column
+	 * @param pixely the pixel row
+	 * @param numSamples the number of samples, a perfect square unless sampling randomly
+	 * @param samples room for 2*numSamples values, at least 2, overwritten with the samples used
+	 * @param cameraRays at least numSamples rays, at least 1, the first ones are overwritten
+	 * @return the number of rays written
+	 */
+	public int getPixelRays(int pixelx, int pixely, int numSamples, double[] samples, Ray[] cameraRays)
+	{
+		double aspectRatio = filmWidth / filmHeight;
+		double[] eye = eyePoint.getComponents();
+		double[] uc = u.getComponents();
+		double[] vc = v.getComponents();
+		double[] wc = w.getComponents();
+		
+		int sampleCount = Sampler.getSamples(sampleType, numSamples, samples);
+		int rayCount = 0;
+		for(int sample = 0; sample < sampleCount; sample++)
+		{
+			double pixelNDCx = (pixelx+0.5+(samples[2*sample]-0.5))/filmWidth;
+			double pixelNDCy = (pixely+0.5+(samples[2*sample + 1]-0.5))/filmHeight;
+		
+			double pixelScreenX = 2*pixelNDCx - 1;
+			double pixelScreenY = 1 - 2*pixelNDCy;
+													
+			//Rays are shot from the eyepoint
+			if(renderMode.equals("perspective"))
+			{
+				double pixelCameraX = pixelScreenX*aspectRatio*Math.tan(fov/2.0)*pixelWidth;
+				double pixelCameraY = pixelScreenY*Math.tan(fov/2.0)*pixelWidth;
+			
+				double dx = uc[0]*pixelCameraX + (vc[0]*pixelCameraY + wc[0]);
+				double dy = uc[1]*pixelCameraX + (vc[1]*pixelCameraY + wc[1]);
+				double dz = uc[2]*pixelCameraX + (vc[2]*pixelCameraY + wc[2]);
+				double length = Math.sqrt(dx*dx + dy*dy + dz*dz);
+				cameraRays[rayCount].set(eye[0], eye[1], eye[2], dx/length, dy/length, dz/length);
+				cameraRays[rayCount++].setAttributes(pixelx, pixely, 1.0, 1.0, 0);
+			}
+			//Rays are shot perpendicular to the view plane
+			else if(renderMode.equals("orthographic"))
+			{
+				double pixelCameraX = pixelScreenX*aspectRatio*pixelWidth;
+				double pixelCameraY = pixelScreenY*pixelWidth;
+				double length = w.getLength();
+				cameraRays[rayCount].set(pixelCameraX + wc[0], pixelCameraY + wc[1], wc[2], wc[0]/length, wc[1]/length, wc[2]/length);
+				cameraRays[rayCount++].setAttributes(pixelx, pixely, 1.0, 1.0, 0);
+			}
+		}
+		return rayCount;
+	}
+
+	/**
+	 * Makes a camera with the same settings and film size looking from somewhere else,
+	 * with a film of its own, e.g. for the next frame of an animation
+	 * @param eyePt the new eyepoint
+	 * @param lookat the new point the camera faces
+	 * @return the moved camera
+	 */
+	public Camera moveTo(TripletVector eyePt, TripletVector lookat)
+	{
+		Camera moved = new Camera(new TripletVector(eyePt), new TripletVector(lookat), new TripletVector(upVector), filmWidth, filmHeight, pixelWidth, fovDegrees, renderMode, sampleType, sampleSize);
+		moved.setAdaptiveSampling(adaptiveSamples, adaptiveThreshold);
+		return moved;
+	}
+	
+	public TripletVector getEyePoint()
+	{
+		return eyePoint;
+	}
+	
+	public TripletVector getLookat()
+	{
+		return lookatPoint;
+	}
+	
+	public TripletVector getUp()
+	{
+		return upVector;
+	}
+	
+	/**
+	 * Changes the number of pixels on the film, clearing it
+	 * @param wres width in pixels
+	 * @param hres height in pixels
+	 */
+	public void setFilmSize(int wres, int hres)
+	{
+		filmWidth = wres;
+		filmHeight = hres;
+		film = new double[filmWidth*filmHeight*3];
+	}
 
+	public int getFilmWidth()
+	{
+		return filmWidth;
+	}
+	
+	public int getFilmHeight()
+	{
+		return filmHeight;
+	}
+	
+	/**
+	 * Turns on adaptive anti-aliasing: each pixel gets initialSamples first and only
+	 * pixels whose samples disagree go on to use the rest of the sample size
+	 * @param initialSamples 0 to turn adaptive sampling off
+	 * @param threshold the standard error of luminance above which a pixel gets more samples
+	 */
+	public void setAdaptiveSampling(int initialSamples, double threshold)
+	{
+		adaptiveSamples = initialSamples;
+		adaptiveThreshold = threshold;
+	}
+	
+	public int getSampleSize()
+	{
+		return sampleSize;
+	}
+	
+	public String getSampleType()
+	{
+		return sampleType;
+	}
+	
+	/**
+	 * @return samples each pixel gets first under adaptive anti-aliasing, 0 if it is off
+	 */
+	public int getAdaptiveSamples()
+	{
+		return adaptiveSamples;
+	}
+	
+	public double getAdaptiveThreshold()
+	{
+		return adaptiveThreshold;
+	}
+	
+	/**
+	 * How wide the part of the scene one camera sample stands for is, the pixel's
+	 * width at that distance shared out between the pixel's samples
+	 * @param distance how far from the camera the sample's ray has travelled
+	 * @return the width in scene units
+	 */
+	public double getSampleFootprint(double distance)
+	{
+		double pixelSpan = 2*pixelWidth/filmHeight;
+		if(renderMode.equals("perspective"))
+		{
+			pixelSpan *= Math.tan(fov/2.0)*distance;
+		}
+		return pixelSpan/Math.sqrt(sampleSize);
+	}
+	
+	/**
+	 * @return the weight of one sample's color in its pixel
+	 */
+	public double getSampleWeight()
+	{
+		return 1.0/(double)sampleSize;
+	}
+	
 	/**
-	 * Add a color to a pixel on the film, weighting it appropriately
-	 * @param newColor the color to be added
-	 * @param coords the location of the pixel
+	 * Add a color to a pixel on the film
+	 * Pixels are accumulated by their RayShooter and added once finished,
+	 * no two threads add to the same pixel so no locking is needed
+	 * @param i pixel column
+	 * @param j pixel row
+	 * @param rgb the color to be added, already weighted by getSampleWeight
 	 */
-	public void updatePixel(TripletVector newColor, int[] coords)
+	public void addToPixel(int i, int j, double[] rgb)
 	{
-		int i = coords[0];
-		int j = coords[1];
-		film[i][j] = film[i][j].add(newColor.scale(1.0/(double)sampleSize));
+		int index = (i*filmHeight + j)*3;
+		film[index] += rgb[0];
+		film[index + 1] += rgb[1];
+		film[index + 2] += rgb[2];
 	}
 	
 	/**
@@ -161,7 +335,8 @@ public class Camera
 			{
 				int iAdjusted = (int)((i/(float)outputDim[0])*filmWidth);
 				int jAdjusted = (int)((j/(float)outputDim[1])*filmHeight);
-				double[] filmRGB = film[iAdjusted][jAdjusted].getComponents();
+				int index = (iAdjusted*filmHeight + jAdjusted)*3;
+				double[] filmRGB = {film[index], film[index + 1], film[index + 2]};
 				for(int rgbIndex = 0; rgbIndex < 3; rgbIndex+=1)
 				{
 					if(filmRGB[rgbIndex] > 1)
@@ -1,6 +1,7 @@
 package rendering;
 
 import geometry.GeometricObject;
+import geometry.TriangleMesh;
 
 /**
  * Represents the location a ray intersected an object
@@ -11,10 +12,15 @@ public class HitPoint
 {
 	//The object intersected
 	private GeometricObject hitObject;
+	//When a mesh is intersected, the mesh and the index of the triangle hit, otherwise null and -1
+	private TriangleMesh hitMesh;
+	private int hitTriangle = -1;
 	//The location of the intersection
 	private TripletVector hitPoint;
 	//The in vector
 	private Ray inRay;
+	//How far along inRay the hit is, GeometricObject.NO_HIT if unknown
+	private double hitT = GeometricObject.NO_HIT;
 	
 	/**
 	 * Generic constructor
@@ -29,9 +35,70 @@ public class HitPoint
 		inRay = in;
 	}
 	
+	/**
+	 * Constructor for a hitpoint that is reused ray after ray, it owns
+	 * its point so setHit can overwrite it instead of making a new one
+	 */
+	public HitPoint()
+	{
+		hitObject = null;
+		hitPoint = new TripletVector(0, 0, 0);
+		inRay = null;
+	}
+	
+	/**
+	 * Records a hit, writing the point into this hitpoint's own vector
+	 * @param obj the GeometricObject hit
+	 * @param in the ray that made the hit
+	 * @param t how far along the ray the hit is
+	 */
+	public void setHit(GeometricObject obj, Ray in, double t)
+	{
+		hitObject = obj;
+		hitMesh = null;
+		hitTriangle = -1;
+		inRay = in;
+		hitT = t;
+		if(hitPoint == null)
+		{
+			hitPoint = new TripletVector(0, 0, 0);
+		}
+		in.getPoint(t, hitPoint);
+	}
+	
+	/**
+	 * Records a hit on one triangle of a mesh, the mesh is the object
+	 * shaded and the triangle only supplies the normal
+	 * @param mesh the mesh hit
+	 * @param tri index of the triangle hit
+	 * @param in the ray that made the hit
+	 * @param t how far along the ray the hit is
+	 */
+	public void setMeshHit(TriangleMesh mesh, int tri, Ray in, double t)
+	{
+		setHit(mesh, in, t);
+		hitMesh = mesh;
+		hitTriangle = tri;
+	}
+	
+	/**
+	 * Records that a ray hit nothing
+	 * @param in the ray that missed
+	 */
+	public void setMiss(Ray in)
+	{
+		hitObject = null;
+		hitMesh = null;
+		hitTriangle = -1;
+		inRay = in;
+		hitT = GeometricObject.NO_HIT;
+	}
+	
 	public void setObject(GeometricObject obj)
 	{
 		hitObject = obj;
+		hitMesh = null;
+		hitTriangle = -1;
 	}
 	
 	public void setHitPoint(TripletVector pt)
@@ -49,8 +116,39 @@ public class HitPoint
 		return hitPoint;
 	}
 	
+	/**
+	 * @return the index of the mesh triangle hit, or -1 if the object hit is not a mesh
+	 */
+	public int getTriangle()
+	{
+		return hitTriangle;
+	}
+	
+	/**
+	 * Finds the normal of the object at the hit, for a mesh the normal of the triangle hit
+	 * @param dest may be overwritten with the normal and returned
+	 * @return the normal, which must not be modified
+	 * @throws UnsupportedOperationException if a mesh was hit without its triangle, see setMeshHit
+	 */
+	public TripletVector getNormal(TripletVector dest)
+	{
+		if(hitMesh != null)
+		{
+			return hitMesh.getTriangleNormal(hitTriangle, dest);
+		}
+		return hitObject.getNormal(hitPoint);
+	}
+	
 	public Ray getInRay()
 	{
 		return inRay;
 	}
+	
+	/**
+	 * @return how far along the in ray the hit is, as given to setHit, or GeometricObject.NO_HIT
+	 */
+	public double getT()
+	{
+		return hitT;
+	}
 }
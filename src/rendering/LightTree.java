@@ -0,0 +1,358 @@
+package rendering;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * A bounding volume hierarchy over the point lights of a scene. A shading point
+ * walks it to find only the lights in front of its surface, skipping whole
+ * clusters of lights behind it, or picks a few lights at random with
+ * probability in proportion to how much light each can give
+ * CITATION: Importance Sampling of Many Lights with Adaptive Tree Splitting, Estevez & Kulla
+ * @author alexaulabaugh
+ *
+ */
+public class LightTree
+{
+	//Most lights kept in one leaf
+	private static final int LEAF_LIGHTS = 4;
+
+	//Index into the scene's light list of each light, in tree order
+	private int[] lightIndices;
+	//Location of each light in tree order, three components per light
+	private double[] locations;
+	//Mean of the three color channels of each light in tree order
+	private double[] intensities;
+	//Bounds of each node: min xyz, max xyz
+	private double[] nodeBounds;
+	//Interior nodes: the right child, the left is the next node. Leaves: the first light
+	private int[] nodeOffsets;
+	//Lights held by each leaf, 0 for interior nodes
+	private int[] nodeCounts;
+	//Lights under each node, and the sum of their intensities
+	private int[] nodeLights;
+	private double[] nodeIntensities;
+	//Nodes in the tree, and the most levels from root to leaf
+	private int nodeTotal;
+	private int treeDepth;
+
+	/**
+	 * @param pointLights the scene's lights
+	 */
+	public LightTree(ArrayList<PointLight> pointLights)
+	{
+		final int count = pointLights.size();
+		final double[] sceneLocations = new double[count*3];
+		Integer[] order = new Integer[count];
+		for(int light = 0; light < count; light++)
+		{
+			double[] location = pointLights.get(light).getLocation().getComponents();
+			sceneLocations[light*3] = location[0];
+			sceneLocations[light*3 + 1] = location[1];
+			sceneLocations[light*3 + 2] = location[2];
+			order[light] = light;
+		}
+		int maxNodes = Math.max(1, 2*count);
+		nodeBounds = new double[maxNodes*6];
+		nodeOffsets = new int[maxNodes];
+		nodeCounts = new int[maxNodes];
+		nodeLights = new int[maxNodes];
+		nodeIntensities = new double[maxNodes];
+		nodeTotal = 0;
+		treeDepth = 0;
+		if(count > 0)
+		{
+			split(order, 0, count, sceneLocations, 1);
+		}
+		lightIndices = new int[count];
+		locations = new double[count*3];
+		intensities = new double[count];
+		for(int slot = 0; slot < count; slot++)
+		{
+			int light = order[slot];
+			double[] color = pointLights.get(light).getColor().getComponents();
+			lightIndices[slot] = light;
+			System.arraycopy(sceneLocations, light*3, locations, slot*3, 3);
+			intensities[slot] = (color[0] + color[1] + color[2])/3;
+		}
+		sumIntensities(0);
+	}
+
+	/**
+	 * Builds the subtree over a range of lights, splitting at the median along the widest axis
+	 * @param order scene indices of the lights, reordered in place
+	 * @param start first light of the range
+	 * @param end one past the last light of the range
+	 * @param sceneLocations location of every light by scene index
+	 * @param depth the level of the node being built, 1 for the root
+	 * @return the index of the subtree's root
+	 */
+	private int split(Integer[] order, int start, int end, final double[] sceneLocations, int depth)
+	{
+		int node = nodeTotal++;
+		treeDepth = Math.max(treeDepth, depth);
+		int offset = node*6;
+		for(int axis = 0; axis < 3; axis++)
+		{
+			nodeBounds[offset + axis] = Double.MAX_VALUE;
+			nodeBounds[offset + 3 + axis] = -Double.MAX_VALUE;
+		}
+		for(int i = start; i < end; i++)
+		{
+			for(int axis = 0; axis < 3; axis++)
+			{
+				double coordinate = sceneLocations[order[i]*3 + axis];
+				nodeBounds[offset + axis] = Math.min(nodeBounds[offset + axis], coordinate);
+				nodeBounds[offset + 3 + axis] = Math.max(nodeBounds[offset + 3 + axis], coordinate);
+			}
+		}
+		nodeLights[node] = end - start;
+		if(end - start <= LEAF_LIGHTS)
+		{
+			nodeOffsets[node] = start;
+			nodeCounts[node] = end - start;
+			return node;
+		}
+		int widest = 0;
+		for(int axis = 1; axis < 3; axis++)
+		{
+			if(nodeBounds[offset + 3 + axis] - nodeBounds[offset + axis] > nodeBounds[offset + 3 + widest] - nodeBounds[offset + widest])
+			{
+				widest = axis;
+			}
+		}
+		final int splitAxis = widest;
+		Arrays.sort(order, start, end, new Comparator<Integer>()
+		{
+			@Override
+			public int compare(Integer a, Integer b)
+			{
+				return Double.compare(sceneLocations[a*3 + splitAxis], sceneLocations[b*3 + splitAxis]);
+			}
+		});
+		int mid = (start + end)/2;
+		split(order, start, mid, sceneLocations, depth+1);
+		nodeOffsets[node] = split(order, mid, end, sceneLocations, depth+1);
+		nodeCounts[node] = 0;
+		return node;
+	}
+
+	/**
+	 * Adds up the intensities of the lights under a node and all nodes below it
+	 * @param node
+	 * @return the sum at node
+	 */
+	private double sumIntensities(int node)
+	{
+		if(nodeTotal == 0)
+		{
+			return 0;
+		}
+		double sum = 0;
+		if(nodeCounts[node] > 0)
+		{
+			for(int slot = nodeOffsets[node]; slot < nodeOffsets[node] + nodeCounts[node]; slot++)
+			{
+				sum += intensities[slot];
+			}
+		}
+		else
+		{
+			sum = sumIntensities(node+1) + sumIntensities(nodeOffsets[node]);
+		}
+		nodeIntensities[node] = sum;
+		return sum;
+	}
+
+	/**
+	 * @return the most nodes a walk of the tree keeps waiting at once
+	 */
+	public int getStackSize()
+	{
+		return treeDepth + 1;
+	}
+
+	/**
+	 * @return the number of lights in the tree
+	 */
+	public int getLightCount()
+	{
+		return lightIndices.length;
+	}
+
+	/**
+	 * Whether a box of lights lies wholly behind a surface. Shading only uses lights
+	 * where normal . (light - point) is below 0, the normal pointing into the surface,
+	 * so a box is behind once the corner lowest along the normal is above 0
+	 * A small margin keeps a light the shading test would take from ever being dropped to rounding
+	 * @param offset where the box starts in nodeBounds
+	 * @param point
+	 * @param normal
+	 * @return true if no light in the box can light the point
+	 */
+	private boolean behind(int offset, double[] point, double[] normal)
+	{
+		double lowest = 0;
+		double scale = 0;
+		for(int axis = 0; axis < 3; axis++)
+		{
+			double corner = normal[axis] > 0 ? nodeBounds[offset + axis] : nodeBounds[offset + 3 + axis];
+			double term = normal[axis]*(corner - point[axis]);
+			lowest += term;
+			scale += Math.abs(term);
+		}
+		return lowest > scale*1e-9;
+	}
+
+	/**
+	 * Finds the lights that may be in front of a surface, skipping clusters that are behind it
+	 * @param point the point being shaded
+	 * @param normal the surface normal at point, as GeometricObject.getNormal gives it
+	 * @param stack room for getStackSize nodes
+	 * @param dest room for getLightCount lights, filled with scene indices in increasing order
+	 * @return the number of lights written to dest
+	 */
+	public int gatherFacing(double[] point, double[] normal, int[] stack, int[] dest)
+	{
+		if(nodeTotal == 0)
+		{
+			return 0;
+		}
+		int found = 0;
+		int stackSize = 0;
+		stack[stackSize++] = 0;
+		while(stackSize > 0)
+		{
+			int node = stack[--stackSize];
+			if(behind(node*6, point, normal))
+			{
+				continue;
+			}
+			if(nodeCounts[node] > 0)
+			{
+				for(int slot = nodeOffsets[node]; slot < nodeOffsets[node] + nodeCounts[node]; slot++)
+				{
+					dest[found++] = lightIndices[slot];
+				}
+				continue;
+			}
+			stack[stackSize++] = nodeOffsets[node];
+			stack[stackSize++] = node+1;
+		}
+		//Lights are handed back in scene order so they are summed in the same order as without the tree
+		Arrays.sort(dest, 0, found);
+		return found;
+	}
+
+	/**
+	 * How much light a node's lights can give a point: with no falloff a light
+	 * adds in proportion to the mean of its color and the surface color, and
+	 * lights behind the surface add nothing
+	 * @param node
+	 * @param point
+	 * @param normal
+	 * @param colorMean mean of the surface color's channels
+	 * @return the node's importance
+	 */
+	private double importance(int node, double[] point, double[] normal, double colorMean)
+	{
+		if(behind(node*6, point, normal))
+		{
+			return 0;
+		}
+		return nodeIntensities[node] + nodeLights[node]*colorMean;
+	}
+
+	/**
+	 * Picks one light by walking down the tree, taking each child with probability
+	 * in proportion to its importance
+	 * @param point the point being shaded
+	 * @param normal the surface normal at point, as GeometricObject.getNormal gives it
+	 * @param colorMean mean of the surface color's channels
+	 * @param u a random number in [0, 1)
+	 * @param pdf set to the probability the light returned was picked with
+	 * @return the scene index of the light, or -1 if no light is in front of the surface
+	 */
+	public int sampleLight(double[] point, double[] normal, double colorMean, double u, double[] pdf)
+	{
+		if(nodeTotal == 0 || importance(0, point, normal, colorMean) <= 0)
+		{
+			return -1;
+		}
+		double probability = 1;
+		int node = 0;
+		while(nodeCounts[node] == 0)
+		{
+			double left = importance(node+1, point, normal, colorMean);
+			double right = importance(nodeOffsets[node], point, normal, colorMean);
+			if(left + right <= 0)
+			{
+				return -1;
+			}
+			double leftChance = left/(left + right);
+			//u is stretched back over [0, 1) so it can choose again further down
+			if(u < leftChance)
+			{
+				u = u/leftChance;
+				probability *= leftChance;
+				node = node+1;
+			}
+			else
+			{
+				u = (u - leftChance)/(1 - leftChance);
+				probability *= 1 - leftChance;
+				node = nodeOffsets[node];
+			}
+			u = Math.min(u, Math.nextDown(1.0));
+		}
+		double total = 0;
+		int first = nodeOffsets[node];
+		int end = first + nodeCounts[node];
+		for(int slot = first; slot < end; slot++)
+		{
+			total += lightImportance(slot, point, normal, colorMean);
+		}
+		if(total <= 0)
+		{
+			return -1;
+		}
+		double target = u*total;
+		int chosen = -1;
+		double chosenImportance = 0;
+		for(int slot = first; slot < end; slot++)
+		{
+			double slotImportance = lightImportance(slot, point, normal, colorMean);
+			if(slotImportance > 0)
+			{
+				chosen = slot;
+				chosenImportance = slotImportance;
+				if(target < slotImportance)
+				{
+					break;
+				}
+				target -= slotImportance;
+			}
+		}
+		pdf[0] = probability*chosenImportance/total;
+		return lightIndices[chosen];
+	}
+
+	/**
+	 * The importance of a single light, see importance
+	 * @param slot the light's place in tree order
+	 * @param point
+	 * @param normal
+	 * @param colorMean
+	 * @return the light's importance
+	 */
+	private double lightImportance(int slot, double[] point, double[] normal, double colorMean)
+	{
+		double facing = normal[0]*(locations[slot*3] - point[0]) + normal[1]*(locations[slot*3 + 1] - point[1]) + normal[2]*(locations[slot*3 + 2] - point[2]);
+		if(facing >= 0)
+		{
+			return 0;
+		}
+		return intensities[slot] + colorMean;
+	}
+}
@@ -14,7 +14,8 @@ public class Ray
 	private double drawWeight;
 	private double refractionIndex;
 	//Only rays shot directly from the camera have an associated pixel, others have [-1,-1]
-	private int[] pixel;
+	private int pixelX;
+	private int pixelY;
 	
 	/**
 	 * Generic constructor of a ray
@@ -31,9 +32,8 @@ public class Ray
 		origin = o;
 		direction = d;
 		direction.normalize();
-		pixel = new int[2];
-		pixel[0] = i;
-		pixel[1] = j;
+		pixelX = i;
+		pixelY = j;
 		drawWeight = weight;
 		refractionIndex = refract;
 		recurDepth = depth;
@@ -50,6 +50,60 @@ public class Ray
 		direction.normalize();
 	}
 	
+	/**
+	 * Constructor for a ray that is only ever filled in with set,
+	 * such as a thread's reusable shadow ray
+	 */
+	public Ray()
+	{
+		origin = new TripletVector(0, 0, 0);
+		direction = new TripletVector(0, 0, 1);
+		pixelX = -1;
+		pixelY = -1;
+		drawWeight = 1.0;
+		refractionIndex = 1.0;
+		recurDepth = 0;
+	}
+	
+	/**
+	 * Points this ray somewhere new without making any vectors, the
+	 * pixel, weight, refraction index and depth are left as they are
+	 * @param ox
+	 * @param oy
+	 * @param oz
+	 * @param dx
+	 * @param dy
+	 * @param dz
+	 * @return this ray
+	 */
+	public Ray set(double ox, double oy, double oz, double dx, double dy, double dz)
+	{
+		origin.set(ox, oy, oz);
+		direction.set(dx, dy, dz);
+		direction.normalize();
+		return this;
+	}
+	
+	/**
+	 * Sets everything about this ray but where it points, so a reused ray
+	 * can stand in for a newly made one
+	 * @param i first index of the pixel, or -1 if none
+	 * @param j second index of the pixel, or -1 if none
+	 * @param weight the weighting given to this ray, dependent on mirror depth
+	 * @param refract the refraction index of the medium the ray is going through
+	 * @param depth the recursion depth of this ray
+	 * @return this ray
+	 */
+	public Ray setAttributes(int i, int j, double weight, double refract, int depth)
+	{
+		pixelX = i;
+		pixelY = j;
+		drawWeight = weight;
+		refractionIndex = refract;
+		recurDepth = depth;
+		return this;
+	}
+	
 	/**
 	 * point = o+td
 	 * @param t how far down the direction the point is from the origin
@@ -65,6 +119,19 @@ public class Ray
 		return new TripletVector(x, y, z);
 	}
 	
+	/**
+	 * point = o+td, written into an existing vector
+	 * @param t how far down the direction the point is from the origin
+	 * @param dest the vector to overwrite with the point
+	 * @return dest
+	 */
+	public TripletVector getPoint(double t, TripletVector dest)
+	{
+		double[] origin_components = origin.getComponents();
+		double[] direction_components = direction.getComponents();
+		return dest.set(origin_components[0] + t*direction_components[0], origin_components[1] + t*direction_components[1], origin_components[2] + t*direction_components[2]);
+	}
+	
 	public TripletVector getOrigin()
 	{
 		return origin;
@@ -77,7 +144,17 @@ public class Ray
 	
 	public int[] getPixel()
 	{
-		return pixel;
+		return new int[] {pixelX, pixelY};
+	}
+	
+	public int getPixelX()
+	{
+		return pixelX;
+	}
+	
+	public int getPixelY()
+	{
+		return pixelY;
 	}
 	
 	public double getWeight()
@@ -1,41 +1,295 @@
 package rendering;
 
-import java.util.ArrayList;
 import java.util.concurrent.Callable;
 
 /**
- * RayShooter handles tracing a portion of the total initial rays
+ * RayShooter takes tiles of the film from a shared TileScheduler and traces
+ * each pixel's rays, along with the reflected and refracted rays they spawn
  * @author alexaulabaugh
  *
  */
 public class RayShooter implements Callable<Double>
 {
-	private ArrayList<Ray> myQueue;
+	//Primary rays of the pixel being traced, reused pixel after pixel, and the samples they were made from
+	private Ray[] pixelRays;
+	private double[] pixelSamples;
 	private int ID;
 	private double iterations;
+	//Secondary rays skipped for contributing too little
+	private long culledRays;
 	private TracingCoordinator coordinator;
+	private Camera camera;
+	private TileScheduler scheduler;
+	//Color gathered so far for the pixel being traced
+	private double[] pixelColor;
+	private double sampleWeight;
+	//Running mean and sum of squared differences of the pixel's sample luminances
+	private double luminanceMean;
+	private double luminanceSquaredDiffs;
+	//Primary rays traced across every pixel
+	private long samplesTraced;
+	//Vectors, rays and hitpoints this thread shades with
+	private ShadingScratch scratch;
+	//Width and height of the blocks of pixels traced as packets, 1 if they aren't
+	private int packetSize;
+	//Every ray of each pixel of the block being traced as packets, how many each pixel has,
+	//the colors gathered for them, and one sample's rays across the block
+	private Ray[][] blockRays;
+	private int[] blockRayCounts;
+	private double[] blockColors;
+	private Ray[] packetRays;
 	
-	public RayShooter(int id, TracingCoordinator cord)
+	/**
+	 * @param id the thread number passed back to the coordinator with each ray
+	 * @param cord
+	 * @param cam
+	 * @param tiles where tiles of the film are taken from
+	 * @param maxDepth the deepest a ray can recurse
+	 */
+	public RayShooter(int id, TracingCoordinator cord, Camera cam, TileScheduler tiles, int maxDepth)
 	{
-		myQueue = new ArrayList<Ray>();
+		pixelRays = new Ray[0];
+		pixelSamples = new double[0];
 		ID = id;
 		coordinator = cord;
+		camera = cam;
+		scheduler = tiles;
+		pixelColor = new double[3];
+		sampleWeight = cam.getSampleWeight();
+		scratch = new ShadingScratch(maxDepth);
+		packetSize = cord.getPacketSize();
+		blockRays = new Ray[0][0];
+		blockRayCounts = new int[0];
+		blockColors = new double[0];
+		packetRays = new Ray[0];
 	}
 	
-	public void addRay(Ray r)
+	/**
+	 * @return the scratch space the coordinator shades this thread's rays with
+	 */
+	ShadingScratch getScratch()
 	{
-		myQueue.add(r);
+		return scratch;
+	}
+	
+	/**
+	 * Counts one more ray traced by this shooter
+	 */
+	public void countRay()
+	{
+		iterations++;
+	}
+	
+	/**
+	 * Counts secondary rays skipped by this shooter
+	 * @param rays
+	 */
+	public void countCulledRays(int rays)
+	{
+		culledRays += rays;
+	}
+	
+	/**
+	 * @return the number of primary rays traced, valid once call has returned
+	 */
+	public long getSamplesTraced()
+	{
+		return samplesTraced;
+	}
+	
+	/**
+	 * @return the number of secondary rays skipped, valid once call has returned
+	 */
+	public long getCulledRays()
+	{
+		return culledRays;
 	}
 	
 	@Override
 	public Double call() throws Exception
 	{
-		for(int i = 0; i < myQueue.size(); i++)
+		int[] tile = scheduler.nextTile();
+		//Adaptive sampling decides a pixel's samples from the ones before, so it traces a pixel at a time
+		int initialSamples = camera.getAdaptiveSamples();
+		boolean packets = packetSize > 1 && !(initialSamples > 0 && initialSamples < camera.getSampleSize());
+		while(tile != null)
 		{
-			coordinator.shootRay(myQueue.get(i), ID);
-			iterations++;
+			if(packets)
+			{
+				tracePackets(tile);
+				tile = scheduler.nextTile();
+				continue;
+			}
+			for(int pixelx = tile[0]; pixelx < tile[2]; pixelx++)
+			{
+				for(int pixely = tile[1]; pixely < tile[3]; pixely++)
+				{
+					pixelColor[0] = 0;
+					pixelColor[1] = 0;
+					pixelColor[2] = 0;
+					if(initialSamples > 0 && initialSamples < camera.getSampleSize())
+					{
+						traceSamples(pixelx, pixely, 0, initialSamples, 1.0);
+						int samples = initialSamples;
+						double standardError = Math.sqrt(luminanceSquaredDiffs/(initialSamples-1)/initialSamples);
+						if(initialSamples == 1 || standardError > camera.getAdaptiveThreshold())
+						{
+							int extraSamples = camera.getSampleSize() - initialSamples;
+							if(!camera.getSampleType().equals("Random"))
+							{
+								//jittered and uniform sampling need a square number of samples
+								extraSamples = (int)Math.sqrt(extraSamples)*(int)Math.sqrt(extraSamples);
+							}
+							traceSamples(pixelx, pixely, initialSamples, extraSamples, 1.0);
+							samples += extraSamples;
+						}
+						for(int i = 0; i < 3; i++)
+						{
+							pixelColor[i] *= 1.0/samples;
+						}
+					}
+					else
+					{
+						traceSamples(pixelx, pixely, 0, camera.getSampleSize(), sampleWeight);
+					}
+					camera.addToPixel(pixelx, pixely, pixelColor);
+				}
+			}
+			tile = scheduler.nextTile();
 		}
 		return iterations;
 	}
-
+	
+	/**
+	 * Traces samples of one pixel into pixelColor
+	 * Rays are made a pixel at a time, so only one pixel's rays exist per thread
+	 * @param pixelx
+	 * @param pixely
+	 * @param firstSample index of the first of these samples within the pixel
+	 * @param numSamples
+	 * @param weight what each sample's color is scaled by before it is added
+	 */
+	private void traceSamples(int pixelx, int pixely, int firstSample, int numSamples, double weight)
+	{
+		luminanceMean = 0;
+		luminanceSquaredDiffs = 0;
+		//The camera's jitter gets its own stream, below every sample index
+		Sampler.startSample(pixelx, pixely, -1 - firstSample);
+		if(pixelRays.length < Math.max(1, numSamples))
+		{
+			pixelRays = new Ray[Math.max(1, numSamples)];
+			pixelSamples = new double[pixelRays.length*2];
+			for(int i = 0; i < pixelRays.length; i++)
+			{
+				pixelRays[i] = new Ray();
+			}
+		}
+		int rayCount = camera.getPixelRays(pixelx, pixely, numSamples, pixelSamples, pixelRays);
+		int traced = 0;
+		for(int ray = 0; ray < rayCount; ray++)
+		{
+			Ray sampleRay = pixelRays[ray];
+			Sampler.startSample(pixelx, pixely, firstSample + traced);
+			//Each sample's whole ray tree is traced before the next sample starts
+			double[] components = coordinator.shootRay(sampleRay, ID).getComponents();
+			pixelColor[0] += components[0]*weight;
+			pixelColor[1] += components[1]*weight;
+			pixelColor[2] += components[2]*weight;
+			
+			traced++;
+			double luminance = 0.2126*components[0] + 0.7152*components[1] + 0.0722*components[2];
+			double delta = luminance - luminanceMean;
+			luminanceMean += delta/traced;
+			luminanceSquaredDiffs += delta*(luminance - luminanceMean);
+		}
+		samplesTraced += traced;
+	}
+	
+	/**
+	 * Traces every sample of a tile's pixels a block of pixels at a time, the
+	 * camera rays of one sample across a block going through the coordinator
+	 * as one packet. Each pixel's samples are added up in the same order as
+	 * traceSamples adds them, so the film comes out the same
+	 * @param tile the tile's first column and row, then one past its last
+	 */
+	private void tracePackets(int[] tile)
+	{
+		int sampleSize = camera.getSampleSize();
+		int blockPixels = packetSize*packetSize;
+		if(blockRays.length < blockPixels || blockRays[0].length < Math.max(1, sampleSize))
+		{
+			blockRays = new Ray[blockPixels][Math.max(1, sampleSize)];
+			for(Ray[] pixel : blockRays)
+			{
+				for(int i = 0; i < pixel.length; i++)
+				{
+					pixel[i] = new Ray();
+				}
+			}
+			blockRayCounts = new int[blockPixels];
+			blockColors = new double[blockPixels*3];
+			packetRays = new Ray[blockPixels];
+			pixelSamples = new double[Math.max(1, sampleSize)*2];
+		}
+		for(int blockx = tile[0]; blockx < tile[2]; blockx += packetSize)
+		{
+			for(int blocky = tile[1]; blocky < tile[3]; blocky += packetSize)
+			{
+				int endx = Math.min(blockx + packetSize, tile[2]);
+				int endy = Math.min(blocky + packetSize, tile[3]);
+				int pixels = 0;
+				int mostRays = 0;
+				for(int pixelx = blockx; pixelx < endx; pixelx++)
+				{
+					for(int pixely = blocky; pixely < endy; pixely++)
+					{
+						//The camera's jitter gets its own stream, as in traceSamples
+						Sampler.startSample(pixelx, pixely, -1);
+						blockRayCounts[pixels] = camera.getPixelRays(pixelx, pixely, sampleSize, pixelSamples, blockRays[pixels]);
+						mostRays = Math.max(mostRays, blockRayCounts[pixels]);
+						blockColors[pixels*3] = 0;
+						blockColors[pixels*3 + 1] = 0;
+						blockColors[pixels*3 + 2] = 0;
+						pixels++;
+					}
+				}
+				for(int sample = 0; sample < mostRays; sample++)
+				{
+					int count = 0;
+					for(int pixel = 0; pixel < pixels; pixel++)
+					{
+						if(sample < blockRayCounts[pixel])
+						{
+							packetRays[count++] = blockRays[pixel][sample];
+						}
+					}
+					double[] colors = coordinator.tracePacket(packetRays, count, sample, ID);
+					int ray = 0;
+					for(int pixel = 0; pixel < pixels; pixel++)
+					{
+						if(sample < blockRayCounts[pixel])
+						{
+							blockColors[pixel*3] += colors[ray*3]*sampleWeight;
+							blockColors[pixel*3 + 1] += colors[ray*3 + 1]*sampleWeight;
+							blockColors[pixel*3 + 2] += colors[ray*3 + 2]*sampleWeight;
+							ray++;
+						}
+					}
+					samplesTraced += count;
+				}
+				int pixel = 0;
+				for(int pixelx = blockx; pixelx < endx; pixelx++)
+				{
+					for(int pixely = blocky; pixely < endy; pixely++)
+					{
+						pixelColor[0] = blockColors[pixel*3];
+						pixelColor[1] = blockColors[pixel*3 + 1];
+						pixelColor[2] = blockColors[pixel*3 + 2];
+						camera.addToPixel(pixelx, pixely, pixelColor);
+						pixel++;
+					}
+				}
+			}
+		}
+	}
 }
@@ -5,12 +5,129 @@ import java.lang.Math;
 
 /**
  * A class to handle all kinds of sampling performed
+ * Jittered patterns are built once per size and reused, each call picks one of
+ * the precomputed sets and shifts it with the calling thread's random stream.
+ * The stream is seeded from the pixel and sample being traced, so the same
+ * scene always renders the same picture no matter how tiles land on threads
  * @author alexaulabaugh
  *
  */
 
 public class Sampler
 {
+	//How many different jittered patterns are kept for each sample count
+	private static final int PATTERN_SETS = 64;
+	//Precomputed patterns, indexed by sample count, null until a count is first asked for
+	//Both tables are copied when a count is added, so readers never lock
+	private static volatile double[][][][] multiJitterPatterns = new double[0][][][];
+	private static volatile double[][][] uniformPatterns = new double[0][][];
+	//Each thread's random stream, reseeded for every sample it traces
+	private static final ThreadLocal<SampleRandom> threadRandom = new ThreadLocal<SampleRandom>()
+	{
+		@Override
+		protected SampleRandom initialValue()
+		{
+			return new SampleRandom(0);
+		}
+	};
+	
+	/**
+	 * A SplitMix64 generator, small enough to reseed for every sample
+	 * CITATION: http://xoshiro.di.unimi.it/splitmix64.c
+	 */
+	private static class SampleRandom
+	{
+		private long state;
+		
+		public SampleRandom(long seed)
+		{
+			state = seed;
+		}
+		
+		public void setSeed(long seed)
+		{
+			state = seed;
+		}
+		
+		public long nextLong()
+		{
+			state += 0x9E3779B97F4A7C15L;
+			return mix(state);
+		}
+		
+		/**
+		 * @return a double in [0, 1)
+		 */
+		public double nextDouble()
+		{
+			return (nextLong() >>> 11)*0x1.0p-53;
+		}
+		
+		/**
+		 * @param bound
+		 * @return an int in [0, bound)
+		 */
+		public int nextInt(int bound)
+		{
+			return (int)(((nextLong() >>> 33)*bound) >>> 31);
+		}
+	}
+	
+	/**
+	 * The SplitMix64 finalizer, spreads the bits of z over the whole word
+	 * @param z
+	 * @return
+	 */
+	private static long mix(long z)
+	{
+		z = (z ^ (z >>> 30))*0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27))*0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+	
+	/**
+	 * Reseeds the calling thread's random stream for one sample of a pixel.
+	 * Everything drawn until the next call (camera jitter, glossy and emitter
+	 * samples, russian roulette) comes from this stream, in the order the
+	 * sample's ray tree is traced, so each bounce gets its own numbers
+	 * @param pixelx
+	 * @param pixely
+	 * @param sample index of the sample within the pixel
+	 */
+	public static void startSample(int pixelx, int pixely, int sample)
+	{
+		long seed = mix(pixelx + 0x9E3779B97F4A7C15L);
+		seed = mix(seed ^ pixely);
+		seed = mix(seed ^ sample);
+		threadRandom.get().setSeed(seed);
+	}
+	
+	/**
+	 * @return where the calling thread's random stream is, so a sample put aside
+	 * part way through can pick it up again with setState
+	 */
+	static long getState()
+	{
+		return threadRandom.get().state;
+	}
+	
+	/**
+	 * Puts the calling thread's random stream back where getState found it
+	 * @param state
+	 */
+	static void setState(long state)
+	{
+		threadRandom.get().setSeed(state);
+	}
+	
+	/**
+	 * @return the next double in [0, 1) from the calling thread's random stream
+	 */
+	public static double nextDouble()
+	{
+		return threadRandom.get().nextDouble();
+	}
+	
 	/**
 	 * CITATION: https://graphics.pixar.com/library/MultiJitteredSampling/paper.pdf
 	 * Multi-Jittered sampling is pseudo-random and guarantees better coverage than simple random.
@@ -18,7 +135,7 @@ public class Sampler
 	 * @param rng random number generator
 	 * @return a list of 2D double arrays, with each double in the array ranging [0,1)
 	 */
-	private static ArrayList<double[]> multiJitterSamples(int numSamples, Random rng)
+	private static ArrayList<double[]> multiJitterSamples(int numSamples, SampleRandom rng)
 	{
 		ArrayList<double[]> samples = new ArrayList<double[]>();
 		int courseGridDims = (int)Math.sqrt(numSamples);
@@ -87,27 +204,6 @@ public class Sampler
 		return samples;
 	}
 	
-	/**
-	 * A simple random sample
-	 * @param numSamples
-	 * @param rng
-	 * @return a list of 2D double arrays, with each double in the array ranging [0,1)
-	 */
-	private static ArrayList<double[]> randomSamples(int numSamples, Random rng)
-	{
-		ArrayList<double[]> samples = new ArrayList<double[]>();
-		
-		for(int i = 0; i < numSamples; i++)
-		{
-			double[] sample = new double[2];
-			sample[0] = rng.nextDouble();
-			sample[1] = rng.nextDouble();
-			samples.add(sample);
-		}
-		
-		return samples;
-	}
-	
 	/**
 	 * Simple uniform sampling
 	 * @param numSamples
@@ -134,34 +230,155 @@ public class Sampler
 		return samples;
 	}
 	
+	/**
+	 * Builds PATTERN_SETS jittered patterns of one size from a fixed seed
+	 * @param numSamples
+	 * @return
+	 */
+	private static double[][][] buildMultiJitterSets(int numSamples)
+	{
+		double[][][] sets = new double[PATTERN_SETS][][];
+		SampleRandom rng = new SampleRandom(numSamples);
+		for(int set = 0; set < PATTERN_SETS; set++)
+		{
+			sets[set] = multiJitterSamples(numSamples, rng).toArray(new double[0][]);
+		}
+		return sets;
+	}
+	
+	/**
+	 * @param numSamples
+	 * @return the precomputed jittered patterns of one size, built the first time they are asked for
+	 */
+	private static double[][][] multiJitterSets(int numSamples)
+	{
+		double[][][][] table = multiJitterPatterns;
+		if(numSamples < table.length && table[numSamples] != null)
+		{
+			return table[numSamples];
+		}
+		return addMultiJitterSets(numSamples);
+	}
+	
+	/**
+	 * Builds the jittered patterns of one size into a copy of the table, unless another thread already has
+	 * @param numSamples
+	 * @return the patterns
+	 */
+	private static synchronized double[][][] addMultiJitterSets(int numSamples)
+	{
+		double[][][][] table = multiJitterPatterns;
+		if(numSamples < table.length && table[numSamples] != null)
+		{
+			return table[numSamples];
+		}
+		table = Arrays.copyOf(table, Math.max(table.length, numSamples + 1));
+		table[numSamples] = buildMultiJitterSets(numSamples);
+		multiJitterPatterns = table;
+		return table[numSamples];
+	}
+	
+	/**
+	 * Uniform patterns never change, so each size is built once and shared
+	 * @param numSamples
+	 * @return the shared uniform pattern of one size, built the first time it is asked for
+	 */
+	private static double[][] uniformPattern(int numSamples)
+	{
+		double[][][] table = uniformPatterns;
+		if(numSamples < table.length && table[numSamples] != null)
+		{
+			return table[numSamples];
+		}
+		return addUniformPattern(numSamples);
+	}
+	
+	/**
+	 * Builds the uniform pattern of one size into a copy of the table, unless another thread already has
+	 * @param numSamples
+	 * @return the pattern
+	 */
+	private static synchronized double[][] addUniformPattern(int numSamples)
+	{
+		double[][][] table = uniformPatterns;
+		if(numSamples < table.length && table[numSamples] != null)
+		{
+			return table[numSamples];
+		}
+		table = Arrays.copyOf(table, Math.max(table.length, numSamples + 1));
+		table[numSamples] = uniformSamples(numSamples).toArray(new double[0][]);
+		uniformPatterns = table;
+		return table[numSamples];
+	}
+	
 	/**
 	 * Performs the type of sampling requested
+	 * Random numbers come from the calling thread's stream, see startSample
 	 * @param sampleType string describing method
 	 * @param numSamples
 	 * @return a list of 2D double arrays, with each double in the array ranging [0,1)
 	 */
 	public static ArrayList<double[]> getSamples(String sampleType, int numSamples)
 	{
-		Random rng = new Random(System.currentTimeMillis());
-		ArrayList<double[]> samples = new ArrayList<double[]>();
+		double[] flat = new double[2*Math.max(1, numSamples)];
+		int count = getSamples(sampleType, numSamples, flat);
+		ArrayList<double[]> samples = new ArrayList<double[]>(count);
+		for(int i = 0; i < count; i++)
+		{
+			samples.add(new double[] {flat[2*i], flat[2*i + 1]});
+		}
+		return samples;
+	}
+	
+	/**
+	 * Performs the type of sampling requested into an existing array without making any new arrays
+	 * Jittered sampling picks one precomputed pattern and shifts every sample by the
+	 * same random offset, wrapping around the unit square. The shift keeps the pattern
+	 * evenly spread, but a sample can wrap into a neighbouring row or column, so the
+	 * shifted pattern is no longer strictly one sample per row and column
+	 * @param sampleType string describing method
+	 * @param numSamples
+	 * @param dest room for 2*numSamples values, overwritten with the x then y of each sample, each ranging [0,1)
+	 * @return the number of samples written, fewer than numSamples for uniform sampling of a non square count
+	 */
+	public static int getSamples(String sampleType, int numSamples, double[] dest)
+	{
+		SampleRandom rng = threadRandom.get();
 		switch(sampleType)
 		{
 			case "Uniform":
-				samples = uniformSamples(numSamples);
-				break;
+				double[][] uniform = uniformPattern(numSamples);
+				for(int i = 0; i < uniform.length; i++)
+				{
+					dest[2*i] = uniform[i][0];
+					dest[2*i + 1] = uniform[i][1];
+				}
+				return uniform.length;
 			case "Random":
-				samples = randomSamples(numSamples, rng);
-				break;
+				for(int i = 0; i < numSamples; i++)
+				{
+					dest[2*i] = rng.nextDouble();
+					dest[2*i + 1] = rng.nextDouble();
+				}
+				return numSamples;
 			case "MultiJitter":
-				samples = multiJitterSamples(numSamples, rng);
-				break;
+				double[][] pattern = multiJitterSets(numSamples)[rng.nextInt(PATTERN_SETS)];
+				double shiftX = rng.nextDouble();
+				double shiftY = rng.nextDouble();
+				for(int i = 0; i < pattern.length; i++)
+				{
+					dest[2*i] = pattern[i][0] + shiftX;
+					dest[2*i + 1] = pattern[i][1] + shiftY;
+					if(dest[2*i] >= 1)
+						dest[2*i] -= 1;
+					if(dest[2*i + 1] >= 1)
+						dest[2*i + 1] -= 1;
+				}
+				return pattern.length;
 			default:
-				double[] defaultSample = new double[2];
-				defaultSample[0] = 0.5;
-				defaultSample[1] = 0.5;
-				samples.add(defaultSample);
-				break;
+				dest[0] = 0.5;
+				dest[1] = 0.5;
+				return 1;
 		}
-		return samples;
 	}
 }
@@ -0,0 +1,305 @@
+package rendering;
+
+import acceleration.RayPacket;
+import acceleration.TraversalScratch;
+
+/**
+ * The vectors, rays and hitpoints one RayShooter's thread shades with,
+ * made once and overwritten for every ray so tracing a ray makes next to no garbage
+ * Anything that has to survive a recursive shootRay is kept once per ray depth
+ * @author alexaulabaugh
+ *
+ */
+class ShadingScratch
+{
+	//The hit of the ray being shaded at each depth
+	private HitPoint[] depthHits;
+	//The color of the ray being shaded at each depth
+	private TripletVector[] depthColors;
+	//Glossy rays gathered so far at each depth
+	private TripletVector[] glossyColors;
+	//Texture color of the object hit at each depth
+	private TripletVector[] textureColors;
+	//Normal of the object hit at each depth
+	private TripletVector[] normals;
+	//The reflected or refracted ray spawned at each depth, and the glossy rays
+	private Ray[] secondaryRays;
+	private Ray[][] glossyRays;
+	//Unit square samples the glossy rays of one hit are made from
+	private double[] glossySamples;
+	//Arrays for walking the acceleration structure
+	private TraversalScratch traversal;
+	//Reused for every shadow ray toward a point light
+	private Ray shadowRay;
+	//Reused for every ray toward an emitter, which never recurses, and the emitter's color where it lands
+	private Ray emitterRay;
+	private HitPoint emitterHit;
+	private TripletVector emitterColor;
+	//Unit square samples and the points on an emitter they map to, see GeometricObject.getSamplePoints
+	private double[] emitterSamples;
+	private double[] emitterPoints;
+	//Point lights found in front of the hit being shaded, the nodes of the light tree
+	//still to visit, and the chance the light last sampled was picked with
+	private int[] lightList;
+	private int[] lightStack;
+	private double[] lightPdf;
+	//Light gathered from point lights and from emitters at the hit being shaded
+	private TripletVector pointLight;
+	private TripletVector emitterLight;
+	//The camera ray packet being traced, the hit of each of its rays, the shadow rays
+	//they queue, each ray's random stream put aside between queueing and shading, and their colors
+	private RayPacket packet;
+	private HitPoint[] packetHits;
+	private ShadowQueue shadowQueue;
+	private long[] samplerStates;
+	private double[] packetColors;
+
+	/**
+	 * @param maxDepth the deepest a ray can recurse
+	 */
+	public ShadingScratch(int maxDepth)
+	{
+		depthHits = new HitPoint[maxDepth+1];
+		depthColors = new TripletVector[maxDepth+1];
+		glossyColors = new TripletVector[maxDepth+1];
+		textureColors = new TripletVector[maxDepth+1];
+		normals = new TripletVector[maxDepth+1];
+		secondaryRays = new Ray[maxDepth+1];
+		glossyRays = new Ray[maxDepth+1][0];
+		for(int depth = 0; depth <= maxDepth; depth++)
+		{
+			depthHits[depth] = new HitPoint();
+			depthColors[depth] = new TripletVector(0, 0, 0);
+			glossyColors[depth] = new TripletVector(0, 0, 0);
+			textureColors[depth] = new TripletVector(0, 0, 0);
+			normals[depth] = new TripletVector(0, 0, 0);
+			secondaryRays[depth] = new Ray();
+		}
+		glossySamples = new double[0];
+		traversal = new TraversalScratch();
+		shadowRay = new Ray();
+		emitterRay = new Ray();
+		emitterHit = new HitPoint();
+		emitterSamples = new double[0];
+		emitterPoints = new double[0];
+		emitterColor = new TripletVector(0, 0, 0);
+		lightList = new int[0];
+		lightStack = new int[0];
+		lightPdf = new double[1];
+		pointLight = new TripletVector(0, 0, 0);
+		emitterLight = new TripletVector(0, 0, 0);
+		packet = new RayPacket();
+		packetHits = new HitPoint[0];
+		shadowQueue = new ShadowQueue();
+		samplerStates = new long[0];
+		packetColors = new double[0];
+	}
+	
+	public HitPoint getHit(int depth)
+	{
+		return depthHits[depth];
+	}
+
+	public TripletVector getColor(int depth)
+	{
+		return depthColors[depth];
+	}
+
+	public TripletVector getGlossyColor(int depth)
+	{
+		return glossyColors[depth];
+	}
+
+	public TripletVector getTextureColor(int depth)
+	{
+		return textureColors[depth];
+	}
+
+	public TripletVector getNormal(int depth)
+	{
+		return normals[depth];
+	}
+
+	public Ray getSecondaryRay(int depth)
+	{
+		return secondaryRays[depth];
+	}
+
+	/**
+	 * @param depth the depth of the ray whose hit spawns the glossy rays
+	 * @param count the number of glossy rays
+	 * @return at least count rays, grown if needed
+	 */
+	public Ray[] getGlossyRays(int depth, int count)
+	{
+		if(glossyRays[depth].length < count)
+		{
+			Ray[] grown = new Ray[count];
+			for(int i = 0; i < count; i++)
+			{
+				grown[i] = i < glossyRays[depth].length ? glossyRays[depth][i] : new Ray();
+			}
+			glossyRays[depth] = grown;
+		}
+		return glossyRays[depth];
+	}
+
+	/**
+	 * @param count the number of glossy rays
+	 * @return room for their unit square samples, grown if needed
+	 */
+	public double[] getGlossySamples(int count)
+	{
+		if(glossySamples.length < count*2)
+		{
+			glossySamples = new double[count*2];
+		}
+		return glossySamples;
+	}
+
+	public TraversalScratch getTraversal()
+	{
+		return traversal;
+	}
+
+	public Ray getShadowRay()
+	{
+		return shadowRay;
+	}
+
+	public Ray getEmitterRay()
+	{
+		return emitterRay;
+	}
+
+	/**
+	 * @param sampleSize samples taken of each emitter
+	 * @return room for the unit square samples, grown if needed
+	 */
+	public double[] getEmitterSamples(int sampleSize)
+	{
+		if(emitterSamples.length < sampleSize*2)
+		{
+			emitterSamples = new double[sampleSize*2];
+		}
+		return emitterSamples;
+	}
+
+	/**
+	 * @param sampleSize samples taken of each emitter
+	 * @return room for the sampled points, grown if needed
+	 */
+	public double[] getEmitterPoints(int sampleSize)
+	{
+		if(emitterPoints.length < sampleSize*3)
+		{
+			emitterPoints = new double[sampleSize*3];
+		}
+		return emitterPoints;
+	}
+
+	public HitPoint getEmitterHit()
+	{
+		return emitterHit;
+	}
+
+	public TripletVector getEmitterColor()
+	{
+		return emitterColor;
+	}
+
+	/**
+	 * @param lights the number of point lights in the scene
+	 * @return room for every light, grown if needed
+	 */
+	public int[] getLightList(int lights)
+	{
+		if(lightList.length < lights)
+		{
+			lightList = new int[lights];
+		}
+		return lightList;
+	}
+
+	/**
+	 * @param size the most nodes a light tree walk keeps waiting, see LightTree.getStackSize
+	 * @return room for the walk, grown if needed
+	 */
+	public int[] getLightStack(int size)
+	{
+		if(lightStack.length < size)
+		{
+			lightStack = new int[size];
+		}
+		return lightStack;
+	}
+
+	public double[] getLightPdf()
+	{
+		return lightPdf;
+	}
+
+	public TripletVector getPointLight()
+	{
+		return pointLight;
+	}
+
+	public TripletVector getEmitterLight()
+	{
+		return emitterLight;
+	}
+
+	public RayPacket getPacket()
+	{
+		return packet;
+	}
+
+	/**
+	 * @param count the number of rays in the packet
+	 * @return at least count hitpoints, grown if needed
+	 */
+	public HitPoint[] getPacketHits(int count)
+	{
+		if(packetHits.length < count)
+		{
+			HitPoint[] grown = new HitPoint[count];
+			for(int i = 0; i < count; i++)
+			{
+				grown[i] = i < packetHits.length ? packetHits[i] : new HitPoint();
+			}
+			packetHits = grown;
+		}
+		return packetHits;
+	}
+
+	public ShadowQueue getShadowQueue()
+	{
+		return shadowQueue;
+	}
+
+	/**
+	 * @param count the number of rays in the packet
+	 * @return room for each ray's random stream, grown if needed
+	 */
+	public long[] getSamplerStates(int count)
+	{
+		if(samplerStates.length < count)
+		{
+			samplerStates = new long[count];
+		}
+		return samplerStates;
+	}
+
+	/**
+	 * @param count the number of rays in the packet
+	 * @return room for each ray's color, grown if needed
+	 */
+	public double[] getPacketColors(int count)
+	{
+		if(packetColors.length < count*3)
+		{
+			packetColors = new double[count*3];
+		}
+		return packetColors;
+	}
+}
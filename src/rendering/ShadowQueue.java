@@ -0,0 +1,236 @@
+package rendering;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import acceleration.AccelerationStructure;
+import acceleration.RayPacket;
+import acceleration.TraversalScratch;
+
+/**
+ * The shadow rays a packet of camera rays needs toward point lights, put aside
+ * while the packet is shaded so the rays toward each light can be tested
+ * together as one RayPacket, and the light each one adds if it isn't blocked
+ * Entries are kept in the order they were queued, so each camera ray's light
+ * adds up in the same order as when its shadow rays are tested one at a time
+ * @author alexaulabaugh
+ *
+ */
+class ShadowQueue
+{
+	//Fewest shadow rays toward one light worth testing as a packet
+	private static final int MIN_PACKET = 4;
+
+	private int count;
+	//Each entry's shadow ray, the light it's aimed at and how far away the light is
+	private Ray[] rays;
+	private int[] lights;
+	private double[] maxT;
+	//The diffuse and specular terms, what the light's share is scaled by, and its mixed color per channel
+	private double[] diffuse;
+	private double[] specular;
+	private double[] scales;
+	private double[] mixed;
+	private boolean[] blocked;
+	//Where each camera ray's entries start, they run up to where the next ray's start
+	private int[] rayStarts;
+	private int rayCount;
+	//Entries sorted by light, and where each light's entries start among them
+	private int[] byLight;
+	private int[] lightStarts;
+	//The packet one light's shadow rays are tested in, and the rays and distances it is made from
+	private RayPacket packet;
+	private Ray[] packetRays;
+	private double[] packetMaxT;
+
+	public ShadowQueue()
+	{
+		rays = new Ray[0];
+		lights = new int[0];
+		maxT = new double[0];
+		diffuse = new double[0];
+		specular = new double[0];
+		scales = new double[0];
+		mixed = new double[0];
+		blocked = new boolean[0];
+		byLight = new int[0];
+		packetRays = new Ray[0];
+		packetMaxT = new double[0];
+		rayStarts = new int[1];
+		lightStarts = new int[1];
+		packet = new RayPacket();
+	}
+
+	/**
+	 * Makes room for another entry, keeping those already queued
+	 * @param size the most entries the queue must hold
+	 */
+	private void grow(int size)
+	{
+		if(rays.length >= size)
+		{
+			return;
+		}
+		int length = Math.max(size, rays.length*2);
+		Ray[] grown = Arrays.copyOf(rays, length);
+		for(int i = rays.length; i < length; i++)
+		{
+			grown[i] = new Ray();
+		}
+		rays = grown;
+		lights = Arrays.copyOf(lights, length);
+		maxT = Arrays.copyOf(maxT, length);
+		diffuse = Arrays.copyOf(diffuse, length);
+		specular = Arrays.copyOf(specular, length);
+		scales = Arrays.copyOf(scales, length);
+		mixed = Arrays.copyOf(mixed, length*3);
+		blocked = new boolean[length];
+		byLight = new int[length];
+		packetRays = new Ray[length];
+		packetMaxT = new double[length];
+	}
+
+	/**
+	 * Empties the queue for the next packet of camera rays
+	 */
+	public void clear()
+	{
+		count = 0;
+		rayCount = 0;
+	}
+
+	/**
+	 * Starts the entries of the next camera ray, every camera ray of the packet
+	 * is started in order even if it queues nothing
+	 */
+	public void startRay()
+	{
+		if(rayStarts.length < rayCount + 2)
+		{
+			int[] grown = new int[(rayCount + 2)*2];
+			System.arraycopy(rayStarts, 0, grown, 0, rayCount);
+			rayStarts = grown;
+		}
+		rayStarts[rayCount++] = count;
+	}
+
+	/**
+	 * @return the ray the next entry's shadow ray is aimed into, only kept if add is called after
+	 */
+	public Ray nextRay()
+	{
+		grow(count + 1);
+		return rays[count];
+	}
+
+	/**
+	 * Queues the shadow ray last aimed into nextRay
+	 * @param lightIndex the light's index in the scene's point lights
+	 * @param distanceToLight how far the shadow ray goes before it reaches the light
+	 * @param diffuseTerm
+	 * @param specularTerm
+	 * @param scale what the light's share is scaled by
+	 * @param lightColor the light's color
+	 * @param color the color of the object hit
+	 */
+	public void add(int lightIndex, double distanceToLight, double diffuseTerm, double specularTerm, double scale, double[] lightColor, double[] color)
+	{
+		lights[count] = lightIndex;
+		maxT[count] = distanceToLight;
+		diffuse[count] = diffuseTerm;
+		specular[count] = specularTerm;
+		scales[count] = scale;
+		for(int c = 0; c < 3; c++)
+		{
+			mixed[count*3 + c] = (lightColor[c] + color[c])*0.5;
+		}
+		count++;
+	}
+
+	/**
+	 * Finds which queued shadow rays are blocked. The rays toward each light
+	 * are tested as one packet, lights with only a few rays one ray at a time
+	 * @param structure the scene's acceleration structure
+	 * @param pointLights the scene's point lights
+	 * @param traversal the calling thread's traversal arrays
+	 */
+	public void traceShadows(AccelerationStructure structure, ArrayList<PointLight> pointLights, TraversalScratch traversal)
+	{
+		int lightCount = pointLights.size();
+		if(lightStarts.length < lightCount + 1)
+		{
+			lightStarts = new int[lightCount + 1];
+		}
+		//A counting sort by light, which keeps each light's entries in the order they were queued
+		for(int light = 0; light <= lightCount; light++)
+		{
+			lightStarts[light] = 0;
+		}
+		for(int i = 0; i < count; i++)
+		{
+			lightStarts[lights[i] + 1]++;
+		}
+		for(int light = 0; light < lightCount; light++)
+		{
+			lightStarts[light + 1] += lightStarts[light];
+		}
+		for(int i = 0; i < count; i++)
+		{
+			byLight[lightStarts[lights[i]]++] = i;
+		}
+		//Each start was moved up to the next light's, so the runs are walked from the end of the last
+		int start = 0;
+		for(int light = 0; light < lightCount; light++)
+		{
+			int end = lightStarts[light];
+			if(end - start < MIN_PACKET)
+			{
+				for(int i = start; i < end; i++)
+				{
+					int entry = byLight[i];
+					blocked[entry] = structure.occluded(rays[entry], maxT[entry], traversal);
+				}
+			}
+			else
+			{
+				for(int i = start; i < end; i++)
+				{
+					packetRays[i - start] = rays[byLight[i]];
+					packetMaxT[i - start] = maxT[byLight[i]];
+				}
+				packet.setShadowRays(packetRays, packetMaxT, end - start, pointLights.get(light).getLocation().getComponents());
+				structure.occludedPacket(packet, traversal);
+				for(int i = start; i < end; i++)
+				{
+					blocked[byLight[i]] = packet.isBlocked(i - start);
+				}
+			}
+			start = end;
+		}
+	}
+
+	/**
+	 * Adds up the light one camera ray's unblocked shadow rays let through,
+	 * valid once traceShadows has been called
+	 * @param ray the camera ray's index in the packet
+	 * @param additionalLight added to in place
+	 * @return additionalLight
+	 */
+	public TripletVector addUnblocked(int ray, TripletVector additionalLight)
+	{
+		double[] light = additionalLight.getComponents();
+		int end = ray + 1 < rayCount ? rayStarts[ray + 1] : count;
+		for(int i = rayStarts[ray]; i < end; i++)
+		{
+			if(blocked[i])
+			{
+				continue;
+			}
+			for(int c = 0; c < 3; c++)
+			{
+				light[c] = light[c] + diffuse[i]*mixed[i*3 + c]*scales[i] + specular[i]*mixed[i*3 + c]*scales[i];
+			}
+		}
+		return additionalLight;
+	}
+}
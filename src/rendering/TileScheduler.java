@@ -0,0 +1,209 @@
+package rendering;
+
+import java.util.ArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Splits the film into square tiles and hands them out one at a time to
+ * whichever RayShooter asks next, so threads that finish cheap tiles
+ * simply take more of them
+ * Tiles are handed out in Hilbert, spiral or scanline order, the first two keep
+ * consecutive tiles next to each other on screen (and in the scene)
+ * @author alexaulabaugh
+ *
+ */
+public class TileScheduler
+{
+	//The orders tiles can be handed out in
+	public static final int ORDER_HILBERT = 0;
+	public static final int ORDER_SCANLINE = 1;
+	public static final int ORDER_SPIRAL = 2;
+	//Pixel bounds of each tile in hand-out order: x0, y0, x1, y1 (exclusive)
+	private int[][] tiles;
+	//Index of the next tile to hand out
+	private AtomicInteger nextTile;
+
+	/**
+	 * @param filmWidth width of the film in pixels
+	 * @param filmHeight height of the film in pixels
+	 * @param tileSize width and height of a tile in pixels
+	 * @param order ORDER_HILBERT, ORDER_SPIRAL or ORDER_SCANLINE
+	 */
+	public TileScheduler(int filmWidth, int filmHeight, int tileSize, int order)
+	{
+		tileSize = Math.max(1, tileSize);
+		int tilesX = (filmWidth + tileSize - 1)/tileSize;
+		int tilesY = (filmHeight + tileSize - 1)/tileSize;
+		ArrayList<int[]> tileCoords;
+		switch(order)
+		{
+			case ORDER_SPIRAL:
+				tileCoords = spiralOrder(tilesX, tilesY);
+				break;
+			case ORDER_SCANLINE:
+				tileCoords = scanlineOrder(tilesX, tilesY);
+				break;
+			default:
+				tileCoords = hilbertOrder(tilesX, tilesY);
+				break;
+		}
+		tiles = new int[tileCoords.size()][];
+		for(int i = 0; i < tiles.length; i++)
+		{
+			int tx = tileCoords.get(i)[0];
+			int ty = tileCoords.get(i)[1];
+			tiles[i] = new int[] {tx*tileSize, ty*tileSize, Math.min(filmWidth, (tx+1)*tileSize), Math.min(filmHeight, (ty+1)*tileSize)};
+		}
+		nextTile = new AtomicInteger(0);
+	}
+
+	/**
+	 * @param order "Hilbert", "Spiral" or "Scanline"
+	 * @return the matching ORDER_ constant, ORDER_HILBERT if the order is unknown
+	 */
+	public static int parseOrder(String order)
+	{
+		switch(order)
+		{
+			case "Hilbert":
+				return ORDER_HILBERT;
+			case "Scanline":
+				return ORDER_SCANLINE;
+			case "Spiral":
+				return ORDER_SPIRAL;
+			default:
+				System.out.println("Error: Unknown TileOrder " + order + "! Defaulting to Hilbert");
+				return ORDER_HILBERT;
+		}
+	}
+
+	/**
+	 * Safe to call from any number of threads at once
+	 * @return the pixel bounds x0, y0, x1, y1 of the next tile, or null once every tile is handed out
+	 */
+	public int[] nextTile()
+	{
+		int tile = nextTile.getAndIncrement();
+		if(tile >= tiles.length)
+		{
+			return null;
+		}
+		return tiles[tile];
+	}
+
+	/**
+	 * @return the number of tiles the film was split into
+	 */
+	public int getTileCount()
+	{
+		return tiles.length;
+	}
+
+	/**
+	 * Row by row, left to right
+	 * @param tilesX
+	 * @param tilesY
+	 * @return
+	 */
+	private ArrayList<int[]> scanlineOrder(int tilesX, int tilesY)
+	{
+		ArrayList<int[]> order = new ArrayList<int[]>();
+		for(int ty = 0; ty < tilesY; ty++)
+		{
+			for(int tx = 0; tx < tilesX; tx++)
+			{
+				order.add(new int[] {tx, ty});
+			}
+		}
+		return order;
+	}
+
+	/**
+	 * Walks a Hilbert curve over the smallest power of two square holding the
+	 * tile grid, keeping the tiles that are on the film
+	 * CITATION: https://en.wikipedia.org/wiki/Hilbert_curve (d2xy)
+	 * @param tilesX
+	 * @param tilesY
+	 * @return
+	 */
+	private ArrayList<int[]> hilbertOrder(int tilesX, int tilesY)
+	{
+		ArrayList<int[]> order = new ArrayList<int[]>();
+		int side = 1;
+		while(side < tilesX || side < tilesY)
+		{
+			side *= 2;
+		}
+		for(long d = 0; d < (long)side*side; d++)
+		{
+			int x = 0;
+			int y = 0;
+			long t = d;
+			for(int s = 1; s < side; s *= 2)
+			{
+				int rx = (int)(1 & (t/2));
+				int ry = (int)(1 & (t ^ rx));
+				if(ry == 0)
+				{
+					if(rx == 1)
+					{
+						x = s-1 - x;
+						y = s-1 - y;
+					}
+					int swap = x;
+					x = y;
+					y = swap;
+				}
+				x += s*rx;
+				y += s*ry;
+				t /= 4;
+			}
+			if(x < tilesX && y < tilesY)
+			{
+				order.add(new int[] {x, y});
+			}
+		}
+		return order;
+	}
+
+	/**
+	 * Spirals outward from the center tile, so the middle of the
+	 * picture, usually the busiest part, is started first
+	 * @param tilesX
+	 * @param tilesY
+	 * @return
+	 */
+	private ArrayList<int[]> spiralOrder(int tilesX, int tilesY)
+	{
+		ArrayList<int[]> order = new ArrayList<int[]>();
+		int total = tilesX*tilesY;
+		int x = (tilesX-1)/2;
+		int y = (tilesY-1)/2;
+		int[][] steps = {{1, 0}, {0, 1}, {-1, 0}, {0, -1}};
+		int direction = 0;
+		int legLength = 1;
+		if(total > 0)
+		{
+			order.add(new int[] {x, y});
+		}
+		while(order.size() < total)
+		{
+			//Each leg length is walked twice before growing
+			for(int leg = 0; leg < 2; leg++)
+			{
+				for(int i = 0; i < legLength; i++)
+				{
+					x += steps[direction][0];
+					y += steps[direction][1];
+					if(x >= 0 && y >= 0 && x < tilesX && y < tilesY)
+					{
+						order.add(new int[] {x, y});
+					}
+				}
+				direction = (direction+1)%4;
+			}
+			legLength++;
+		}
+		return order;
+	}
+}
@@ -6,6 +6,7 @@ import java.util.*;
 
 import geometry.*;
 import acceleration.*;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
@@ -21,10 +22,24 @@ import java.util.concurrent.Future;
 
 public class TracingCoordinator
 {
+	//The GlossySampling modes
+	private static final int GLOSSY_FIXED = 0;
+	private static final int GLOSSY_DEPTH = 1;
+	private static final int GLOSSY_ADAPTIVE = 2;
+	//Most shadow rays one packet of camera rays queues, past this they take more memory than testing them together saves
+	private static final int SHADOW_QUEUE_SIZE = 1024;
 	//All GeometricObjedts in the scene
 	private ArrayList<GeometricObject> sceneObjects;
+	//All TriangleMeshes in the scene, kept whole rather than split into Triangles
+	private ArrayList<TriangleMesh> meshes;
 	//All PointLights in the scene
 	private ArrayList<PointLight> pointLights;
+	//Tree over pointLights, finding the lights in front of a hit or sampling among them
+	private LightTree lightTree;
+	//Point lights sampled per hit from the light tree, 0 to use every light in front of the hit
+	private int lightSamples;
+	//Point lights that can add less than this to a hit are skipped without a shadow ray
+	private double lightCutoff;
 	//All AreaLights in the scene
 	private ArrayList<GeometricObject> emitters;
 	private Camera camera;
@@ -40,27 +55,62 @@ public class TracingCoordinator
 	private String cameraFilename;
 	//The maximum recursion depth of reflection/refraction
 	private int maxRecur;
+	//Reflected/refracted rays weighted below this are not traced
+	private double minContribution;
+	//Reflected/refracted rays weighted below this are traced with probability weight/rouletteWeight
+	//and their color scaled up to match, 0 to turn russian roulette off
+	private double rouletteWeight;
 	//The style of sampling from area emitters
 	private String emitterSampleType;
 	private int emitterSampleSize;
+	//Glossy reflection rays shot per hit, unless the object sets its own
+	private int glossySamples;
+	//GLOSSY_FIXED, GLOSSY_DEPTH to cut the glossy rays at each bounce, or GLOSSY_ADAPTIVE to stop once they agree
+	private int glossySampling;
+	//Adaptive glossy sampling stops once the standard error of the glossy rays falls below this
+	private double glossyTolerance;
 	//Makes complex geometry run faster
 	private AccelerationStructure accelerationStructure;
+	//The structure keeping what the animation moves apart from the rest, null if nothing moves
+	private MovingObjects movingObjects;
+	//Whether meshes are loaded from, and saved to, binary cache files
+	private boolean meshCache;
+	//Number of threads tracing rays
+	private int renderThreads;
+	//Width and height in pixels of the tiles the film is split into, and the order they are traced in
+	private int tileSize;
+	private int tileOrder;
+	//Width and height in pixels of the blocks whose camera rays are traced together as a packet, 1 for one ray at a time
+	private int packetSize;
 	//Thread list
 	private ArrayList<RayShooter> processingThreads;
+	//The animation renderAnimation plays, null for still images
+	private Animation animation;
+	//How long the last load spent reading files and building the acceleration structure,
+	//and the last render spent tracing and writing the image, in milliseconds
+	private long parseMillis;
+	private long buildMillis;
+	private long traceMillis;
+	private long writeMillis;
 
 	/**
 	 * Reads in and parses GeometricObjects and PointLights from a scene file
 	 * @param filename the scene file
+	 * @return false if the scene file couldn't be read
 	 */
-	private void buildScene(String filename)
+	private boolean buildScene(String filename)
 	{
 		//default values
 		backgroundColor = new TripletVector(0, 0, 0);
 		sceneObjects = new ArrayList<GeometricObject>();
+		meshes = new ArrayList<TriangleMesh>();
 		pointLights = new ArrayList<PointLight>();
 		emitters = new ArrayList<GeometricObject>();
 		emitterSampleType = "None";
 		emitterSampleSize = 1;
+		glossySamples = 16;
+		glossySampling = GLOSSY_FIXED;
+		glossyTolerance = 0.02;
 		//end default
 		try
 		{
@@ -86,20 +136,33 @@ public class TracingCoordinator
 							emitterSampleSize = 1;
 						}
 						break;
+					case "GlossySamples":
+						glossySamples = perfectSquare(Integer.parseInt(line[1]), "Glossy Sample Size");
+						break;
+					case "GlossySampling":
+						glossySampling = parseGlossySampling(line[1]);
+						break;
+					case "GlossyTolerance":
+						glossyTolerance = Double.parseDouble(line[1]);
+						break;
 					case "Sphere":
 						Sphere sphereObj = new Sphere(line[1]);
+						sphereObj.setGlossySamples(parseGlossySamples(line));
 						sceneObjects.add(sphereObj);
 						break;
 					case "Plane":
 						Plane planeObj = new Plane(line[1]);
+						planeObj.setGlossySamples(parseGlossySamples(line));
 						sceneObjects.add(planeObj);
 						break;
 					case "Triangle":
 						Triangle triangleObj = new Triangle(line[1]);
+						triangleObj.setGlossySamples(parseGlossySamples(line));
 						sceneObjects.add(triangleObj);
 						break;
 					case "Rectangle":
 						Rectangle rectangleObj = new Rectangle(line[1]);
+						rectangleObj.setGlossySamples(parseGlossySamples(line));
 						sceneObjects.add(rectangleObj);
 						break;
 					case "PointLight":
@@ -111,11 +174,9 @@ public class TracingCoordinator
 						pointLights.add(new PointLight(lightLoc, lightCol));
 						break;
 					case "Mesh":
-						TriangleMesh mesh = new TriangleMesh(line[1]);
-						for(Triangle t : mesh.getTriangles())
-						{
-							sceneObjects.add(t);
-						}
+						TriangleMesh mesh = new TriangleMesh(line[1], meshCache);
+						mesh.setGlossySamples(parseGlossySamples(line));
+						meshes.add(mesh);
 						break;
 				}
 			}
@@ -131,20 +192,31 @@ public class TracingCoordinator
 					emitters.add(object);
 				}
 			}
-			accelerationStructure.addGeometricObjectList(sceneObjects);
+			if(animation != null && animation.hasMovingObjects())
+			{
+				movingObjects = new MovingObjects(accelerationStructure, animation.getMovingObjects(sceneObjects), animation.getMovingMeshes(meshes));
+				accelerationStructure = movingObjects;
+			}
+			long buildStart = System.currentTimeMillis();
+			accelerationStructure.addGeometricObjectList(sceneObjects, meshes);
+			lightTree = new LightTree(pointLights);
+			buildMillis = System.currentTimeMillis() - buildStart;
+			System.out.println("Build Time: " + formatSeconds(buildMillis) + " Seconds");
+			return true;
 		}
 		catch(Exception e)
 		{
 			System.out.println("Error: Cannot load scene file: " + filename);
-			return;
+			return false;
 		}
 	}
 	
 	/**
 	 * Reads in and parses a camera specification, then creates a camera
 	 * @param filename the camera file
+	 * @return false if the camera file couldn't be read
 	 */
-	private void buildCamera(String filename)
+	private boolean buildCamera(String filename)
 	{
 		try
 		{
@@ -161,6 +233,8 @@ public class TracingCoordinator
 			String mode = "perspective";
 			String sampleType = "None";
 			int sampleSize = 1;
+			int adaptiveSamples = 0;
+			double adaptiveThreshold = 0.01;
 			//End default values
 			while(cameraFileScanner.hasNextLine())
 			{
@@ -196,7 +270,7 @@ public class TracingCoordinator
 						if(!mode.equals("perspective") && !mode.equals("orthographic"))
 						{
 							System.out.println("Error: Render Mode: '" + mode + "' Not recognized");
-							return;
+							return false;
 						}
 						break;
 					case "SampleType":
@@ -210,6 +284,17 @@ public class TracingCoordinator
 							sampleSize = 1;
 						}
 						break;
+					case "AdaptiveSamples":
+						adaptiveSamples = Integer.parseInt(line[1]);
+						if(Math.pow((int)Math.sqrt(adaptiveSamples), 2) != adaptiveSamples)
+						{
+							System.out.println("Error: Adaptive Sample Size is not perfect square! Defaulting to no adaptive sampling");
+							adaptiveSamples = 0;
+						}
+						break;
+					case "AdaptiveThreshold":
+						adaptiveThreshold = Double.parseDouble(line[1]);
+						break;
 				}
 			}
 			if(sampleSize == 1)
@@ -217,12 +302,70 @@ public class TracingCoordinator
 				sampleType = "None";
 			}
 			camera = new Camera(eyePt, lookat, up, wres, hres, pwidth, fovDeg, mode, sampleType, sampleSize);
+			camera.setAdaptiveSampling(adaptiveSamples, adaptiveThreshold);
 			cameraFileScanner.close();
+			return true;
 		}
 		catch(Exception e)
 		{
 			System.out.println("Error: Cannot load camera file: " + filename);
-			return;
+			return false;
+		}
+	}
+	
+	/**
+	 * Objects in a scene file can end with extra options after another colon,
+	 * e.g. Sphere:...:GlossySamples=4
+	 * @param line a scene file line split on colons
+	 * @return the object's glossy sample count, or 0 to use the scene's
+	 */
+	private int parseGlossySamples(String[] line)
+	{
+		int samples = 0;
+		for(int i = 2; i < line.length; i++)
+		{
+			String[] option = line[i].split("=");
+			if(option.length == 2 && option[0].trim().equals("GlossySamples"))
+			{
+				samples = perfectSquare(Integer.parseInt(option[1].trim()), "Glossy Sample Size");
+			}
+		}
+		return samples;
+	}
+	
+	/**
+	 * Multi-jittered sampling needs a square number of samples
+	 * @param samples the requested number of samples
+	 * @param name what the samples are for, for the error message
+	 * @return samples rounded down to a perfect square, at least 1
+	 */
+	private int perfectSquare(int samples, String name)
+	{
+		int side = Math.max(1, (int)Math.sqrt(samples));
+		if(side*side != samples)
+		{
+			System.out.println("Error: " + name + " is not perfect square! Rounding down to " + side*side);
+		}
+		return side*side;
+	}
+	
+	/**
+	 * @param mode "Fixed", "Depth" or "Adaptive"
+	 * @return the matching GLOSSY_ constant, GLOSSY_FIXED if the mode is unknown
+	 */
+	private static int parseGlossySampling(String mode)
+	{
+		switch(mode)
+		{
+			case "Fixed":
+				return GLOSSY_FIXED;
+			case "Depth":
+				return GLOSSY_DEPTH;
+			case "Adaptive":
+				return GLOSSY_ADAPTIVE;
+			default:
+				System.out.println("Error: Unknown GlossySampling " + mode + "! Defaulting to Fixed");
+				return GLOSSY_FIXED;
 		}
 	}
 	
@@ -230,8 +373,9 @@ public class TracingCoordinator
 	 * Reads in and parses settings for the tracing
 	 * Including ambient & specular weightings, and the output file dimensions and filename
 	 * @param filename
+	 * @return false if the settings file couldn't be read
 	 */
-	private void buildSettings(String filename)
+	private boolean buildSettings(String filename)
 	{
 		try
 		{
@@ -245,7 +389,17 @@ public class TracingCoordinator
 			cameraFilename = "camera1.txt";
 			sceneFilename = "scene1T.txt";
 			maxRecur = 2;
+			minContribution = 0;
+			rouletteWeight = 0;
 			accelerationStructure = new FreeObjects();
+			movingObjects = null;
+			meshCache = false;
+			renderThreads = Runtime.getRuntime().availableProcessors();
+			tileSize = 16;
+			tileOrder = TileScheduler.ORDER_HILBERT;
+			packetSize = 8;
+			lightSamples = 0;
+			lightCutoff = 0;
 			//End default values
 			File settingsFile = new File(filename);
 			Scanner settingsFileScanner = new Scanner(settingsFile);
@@ -277,176 +431,575 @@ public class TracingCoordinator
 					case "MaxRecur":
 						maxRecur = Integer.parseInt(line[1]);
 						break;
+					case "MinContribution":
+						minContribution = Double.parseDouble(line[1]);
+						break;
+					case "RussianRoulette":
+						rouletteWeight = Double.parseDouble(line[1]);
+						break;
 					case "FreeObjects":
 						accelerationStructure = new FreeObjects();
 						break;
 					case "RegularGrid":
-						accelerationStructure = new RegularGrid(Integer.parseInt(line[1]));
+						accelerationStructure = new RegularGrid(Integer.parseInt(line[1]), line.length > 2 && line[2].equals("Sparse"));
+						break;
+					case "BoundingVolumeHierarchy":
+						if(line.length > 1)
+							accelerationStructure = new BoundingVolumeHierarchy(Integer.parseInt(line[1]));
+						else
+							accelerationStructure = new BoundingVolumeHierarchy();
+						break;
+					case "Threads":
+						renderThreads = Math.max(1, Integer.parseInt(line[1]));
+						break;
+					case "TileSize":
+						tileSize = Math.max(1, Integer.parseInt(line[1]));
+						break;
+					case "TileOrder":
+						tileOrder = TileScheduler.parseOrder(line[1]);
+						break;
+					case "PacketSize":
+						packetSize = Math.max(1, Integer.parseInt(line[1]));
+						break;
+					case "LightSamples":
+						lightSamples = Math.max(0, Integer.parseInt(line[1]));
+						break;
+					case "LightCutoff":
+						lightCutoff = Math.max(0, Double.parseDouble(line[1]));
+						break;
+					case "MeshCache":
+						meshCache = line.length < 2 || Boolean.parseBoolean(line[1]);
+						break;
 				}
 			}
 			settingsFileScanner.close();
+			return true;
 		}
 		catch(Exception e)
 		{
 			System.out.println("Error: Cannot load settings file: " + filename);
-			return;
+			return false;
 		}
 	}
 	
 	/**
-	 * Intersects a ray with all GeometricObjects in the scene, then returns the nearest hitpoint
-	 * @param cameraRay the ray to intersect
-	 * @return the nearest hitpoint
+	 * Intersects a ray with all GeometricObjects in the scene, then fills in the nearest hitpoint
+	 * @param sceneRay the ray to intersect
+	 * @param hit the hitpoint to overwrite
+	 * @param scratch the thread's scratch space
+	 * @return hit
 	 */
-	private HitPoint intersectObjects(Ray sceneRay)
+	private HitPoint intersectObjects(Ray sceneRay, HitPoint hit, ShadingScratch scratch)
 	{
-		return accelerationStructure.intersectRay(sceneRay);
+		accelerationStructure.intersectRay(sceneRay, hit, scratch.getTraversal());
+		return hit;
 	}
 	
 	/**
 	 * Calculates the specular reflection component on an object at one point
 	 * @param objSpec the specular exponent for the object
 	 * @param norm the normal at the intersection point
-	 * @param lightVec the vector to the light source
-	 * @param viewVec the vector to where the ray originated from the camera
+	 * @param lx the vector to the light source
+	 * @param ly
+	 * @param lz
+	 * @param vx the vector to where the ray originated from the camera
+	 * @param vy
+	 * @param vz
 	 * @return the specular component at this point on an object
 	 */
-	private double calculateSpecular(double objSpec, TripletVector norm, TripletVector lightVec, TripletVector viewVec)
+	private double calculateSpecular(double objSpec, double[] norm, double lx, double ly, double lz, double vx, double vy, double vz)
 	{
 		if(objSpec < 0)
 			return 0;
 		//Citation: https://www.scratchapixel.com/lessons/3d-basic-rendering/phong-shader-BRDF
-		TripletVector r = lightVec.sub(norm.scale(norm.dot(lightVec)*2));
-		r.scale(-1);
-		return Math.max(Math.pow(viewVec.dot(r)*specularWeight, objSpec), 0);
+		double twiceDot = (norm[0]*lx + norm[1]*ly + norm[2]*lz)*2;
+		double rx = lx - norm[0]*twiceDot;
+		double ry = ly - norm[1]*twiceDot;
+		double rz = lz - norm[2]*twiceDot;
+		return Math.max(Math.pow((vx*rx + vy*ry + vz*rz)*specularWeight, objSpec), 0);
+	}
+	
+	/**
+	 * Points a shadow ray from a hit toward a point light
+	 * @param lightRay the ray to aim
+	 * @param point the hit
+	 * @param location where the light is
+	 * @return the distance from the shadow ray's origin to the light
+	 */
+	private double aimShadowRay(Ray lightRay, double[] point, double[] location)
+	{
+		double tx = location[0] - point[0];
+		double ty = location[1] - point[1];
+		double tz = location[2] - point[2];
+		double length = Math.sqrt(tx*tx + ty*ty + tz*tz);
+		tx = tx/length;
+		ty = ty/length;
+		tz = tz/length;
+		lightRay.set(point[0] + tx*0.001, point[1] + ty*0.001, point[2] + tz*0.001, tx, ty, tz);
+		double[] origin = lightRay.getOrigin().getComponents();
+		double dx = location[0] - origin[0];
+		double dy = location[1] - origin[1];
+		double dz = location[2] - origin[2];
+		return Math.sqrt(dx*dx + dy*dy + dz*dz);
+	}
+	
+	/**
+	 * @param normal
+	 * @param toLight
+	 * @return the diffuse term for light arriving along toLight
+	 */
+	private double diffuseTerm(double[] normal, double[] toLight)
+	{
+		return Math.max(normal[0]*-toLight[0] + normal[1]*-toLight[1] + normal[2]*-toLight[2], 0.0);
 	}
 	
 	/**
 	 * Calculates the light incurred from point sources according to phong shading
+	 * Only lights the light tree finds in front of the surface are looked at, or
+	 * with LightSamples set, that many lights picked at random from the tree
 	 * @param intersection the intersection point
-	 * @param cameraRay the ray shot from the camera to the intersection point
+	 * @param normal the normal at the intersection point
+	 * @param viewRay the ray shot from the camera to the intersection point
 	 * @param obj the object intersected with the camera ray
-	 * @return diffuse and specular light from point sources according to phong shading
-	 */
-	private TripletVector getLightFromPointSources(TripletVector intersection, Ray viewRay, GeometricObject obj)
-	{
-		TripletVector additionalLight = new TripletVector(0, 0, 0);
-		TripletVector objectColor = obj.getColor(intersection);
-		TripletVector normal = obj.getNormal(intersection);
-		for(PointLight light : pointLights)
-		{
-			TripletVector vecToLight = light.getLocation().sub(intersection);
-			vecToLight.normalize();
-			TripletVector lightRayOrigin = intersection.add(vecToLight.scale(0.001));
-			Ray lightRay = new Ray(lightRayOrigin, vecToLight, -1, -1, 1.0, 1.0, 0);
-			double specular = calculateSpecular(obj.getSpecular(), normal, vecToLight.scale(-1), viewRay.getDirection().scale(-1));
-			double diffuse = Math.max(normal.dot(vecToLight.scale(-1.0)), 0.0);
-			if(diffuse > 0)
+	 * @param objectColor the color of obj at the intersection
+	 * @param scratch the thread's scratch space
+	 * @param queue where to put the shadow rays aside to be tested later, null to test them now
+	 * @return diffuse and specular light from point sources according to phong shading, in the scratch space,
+	 * none if the shadow rays were queued
+	 */
+	private TripletVector getLightFromPointSources(TripletVector intersection, double[] normal, Ray viewRay, GeometricObject obj, TripletVector objectColor, ShadingScratch scratch, ShadowQueue queue)
+	{
+		TripletVector additionalLight = scratch.getPointLight().set(0, 0, 0);
+		double[] point = intersection.getComponents();
+		double[] color = objectColor.getComponents();
+		if(lightSamples > 0 && lightSamples < lightTree.getLightCount())
+		{
+			double colorMean = (color[0] + color[1] + color[2])/3;
+			double[] pdf = scratch.getLightPdf();
+			for(int sample = 0; sample < lightSamples; sample++)
 			{
-				HitPoint blocking = intersectObjects(lightRay);
-				if(blocking.getObject() == null)
+				int lightIndex = lightTree.sampleLight(point, normal, colorMean, Sampler.nextDouble(), pdf);
+				if(lightIndex < 0)
 				{
-					TripletVector lightColor = light.getColor();
-					double[] colorComponents = lightColor.add(objectColor).scale(0.5).getComponents();
-					additionalLight = additionalLight.add(new TripletVector(diffuse*colorComponents[0], diffuse*colorComponents[1], diffuse*colorComponents[2]));
-					additionalLight = additionalLight.add(new TripletVector(specular*colorComponents[0], specular*colorComponents[1], specular*colorComponents[2]));
-					colorComponents = null;
+					//The walk ended among lights that can't reach the point, this sample adds nothing
+					continue;
 				}
+				addPointLight(additionalLight, lightIndex, 1.0/(lightSamples*pdf[0]), point, normal, viewRay, obj, color, scratch, queue);
 			}
+			return additionalLight;
+		}
+		int[] lights = scratch.getLightList(lightTree.getLightCount());
+		int facing = lightTree.gatherFacing(point, normal, scratch.getLightStack(lightTree.getStackSize()), lights);
+		for(int i = 0; i < facing; i++)
+		{
+			addPointLight(additionalLight, lights[i], 1.0, point, normal, viewRay, obj, color, scratch, queue);
 		}
 		return additionalLight;
 	}
 	
+	/**
+	 * Adds the phong shading from one point light, unless the light is behind the
+	 * surface, can't add more than lightCutoff or is blocked
+	 * @param additionalLight the light gathered so far
+	 * @param lightIndex the light's index in pointLights
+	 * @param scale what the light's share is scaled by, 1 unless the light was sampled
+	 * @param point the intersection point
+	 * @param normal the normal at point
+	 * @param viewRay the ray shot from the camera to the intersection point
+	 * @param obj the object intersected
+	 * @param color the color of obj at point
+	 * @param scratch the thread's scratch space
+	 * @param queue where to put the shadow ray aside to be tested later, null to test it now
+	 */
+	private void addPointLight(TripletVector additionalLight, int lightIndex, double scale, double[] point, double[] normal, Ray viewRay, GeometricObject obj, double[] color, ShadingScratch scratch, ShadowQueue queue)
+	{
+		PointLight pointLight = pointLights.get(lightIndex);
+		Ray lightRay = queue == null ? scratch.getShadowRay() : queue.nextRay();
+		double distanceToLight = aimShadowRay(lightRay, point, pointLight.getLocation().getComponents());
+		double[] toLight = lightRay.getDirection().getComponents();
+		double diffuse = diffuseTerm(normal, toLight);
+		if(diffuse <= 0)
+		{
+			return;
+		}
+		double[] view = viewRay.getDirection().getComponents();
+		double specular = calculateSpecular(obj.getSpecular(), normal, -toLight[0], -toLight[1], -toLight[2], -view[0], -view[1], -view[2]);
+		double[] lightColor = pointLight.getColor().getComponents();
+		//The most the light could add to any channel, checked before paying for a shadow ray
+		double brightest = Math.max(lightColor[0] + color[0], Math.max(lightColor[1] + color[1], lightColor[2] + color[2]))*0.5;
+		if((diffuse + specular)*brightest*scale < lightCutoff)
+		{
+			return;
+		}
+		if(queue != null)
+		{
+			queue.add(lightIndex, distanceToLight, diffuse, specular, scale, lightColor, color);
+			return;
+		}
+		if(!accelerationStructure.occluded(lightRay, distanceToLight, scratch.getTraversal()))
+		{
+			double[] light = additionalLight.getComponents();
+			for(int c = 0; c < 3; c++)
+			{
+				double mixed = (lightColor[c] + color[c])*0.5;
+				light[c] = light[c] + diffuse*mixed*scale + specular*mixed*scale;
+			}
+		}
+	}
+	
 	/**
 	 * Samples light from all area emitters in the scene
 	 * @param intersection The point we want to sample from
+	 * @param normal the normal at the intersection point
 	 * @param viewRay the ray back to the eyepoint
 	 * @param obj the object that's been intersected
-	 * @return
+	 * @param objectColor the color of obj at the intersection
+	 * @param scratch the thread's scratch space
+	 * @return the light gathered, in the scratch space
 	 */
-	private TripletVector getLightFromEmitters(TripletVector intersection, Ray viewRay, GeometricObject obj)
+	private TripletVector getLightFromEmitters(TripletVector intersection, double[] normal, Ray viewRay, GeometricObject obj, TripletVector objectColor, ShadingScratch scratch)
 	{
-		TripletVector additionalLight = new TripletVector(0, 0, 0);
-		
-		TripletVector objectColor = obj.getColor(intersection);
-		TripletVector normal = obj.getNormal(intersection);
+		TripletVector additionalLight = scratch.getEmitterLight().set(0, 0, 0);
+		if(emitters.isEmpty())
+		{
+			return additionalLight;
+		}
+		double[] light = additionalLight.getComponents();
+		double[] color = objectColor.getComponents();
+		double[] view = viewRay.getDirection().getComponents();
+		double[] point = intersection.getComponents();
+		Ray emitterRay = scratch.getEmitterRay();
+		HitPoint emitterHit = scratch.getEmitterHit();
+		double[] samples = scratch.getEmitterSamples(emitterSampleSize);
+		double[] points = scratch.getEmitterPoints(emitterSampleSize);
 		
 		for(GeometricObject emitter : emitters)
 		{
-			ArrayList<Ray> sampleRays = emitter.getSampleRays(intersection, emitterSampleType, emitterSampleSize);
-			for(Ray emitterRay : sampleRays)
+			int sampleCount = emitter.getSamplePoints(emitterSampleType, emitterSampleSize, samples, points);
+			for(int sample = 0; sample < sampleCount; sample++)
 			{
-				HitPoint blocking = intersectObjects(emitterRay);
-				if(blocking.getObject() == emitter)
+				GeometricObject.aimSampleRay(emitterRay, point, points, sample);
+				//The emitter is seen if nothing else is hit before the ray reaches it
+				double emitterT = emitter.intersect(emitterRay, 0, GeometricObject.NO_HIT);
+				if(emitterT < GeometricObject.NO_HIT && !accelerationStructure.occluded(emitterRay, emitterT, scratch.getTraversal()))
 				{
-					TripletVector lightColor = emitter.getColor(blocking.getPoint());
-					double specular = calculateSpecular(obj.getSpecular(), normal, emitterRay.getDirection().scale(-1), viewRay.getDirection().scale(-1));
-					double diffuse = Math.max(normal.dot(emitterRay.getDirection().scale(-1)), 0.0);
-					double[] colorComponents = lightColor.add(objectColor).scale(0.5).getComponents();
-					additionalLight = additionalLight.add(new TripletVector(diffuse*colorComponents[0], diffuse*colorComponents[1], diffuse*colorComponents[2]));
-					additionalLight = additionalLight.add(new TripletVector(specular*colorComponents[0], specular*colorComponents[1], specular*colorComponents[2]));
-					colorComponents = null;
+					emitterHit.setHit(emitter, emitterRay, emitterT);
+					double[] lightColor = emitter.getColor(emitterHit.getPoint(), 0, scratch.getEmitterColor()).getComponents();
+					double[] toEmitter = emitterRay.getDirection().getComponents();
+					double specular = calculateSpecular(obj.getSpecular(), normal, -toEmitter[0], -toEmitter[1], -toEmitter[2], -view[0], -view[1], -view[2]);
+					double diffuse = Math.max(normal[0]*-toEmitter[0] + normal[1]*-toEmitter[1] + normal[2]*-toEmitter[2], 0.0);
+					for(int c = 0; c < 3; c++)
+					{
+						double mixed = (lightColor[c] + color[c])*0.5;
+						light[c] = light[c] + diffuse*mixed + specular*mixed;
+					}
 				}
 			}
-			sampleRays = null;
 		}
 		
-		return additionalLight.scale(1.0/(double)emitterSampleSize);
+		return additionalLight.scaleInPlace(1.0/(double)emitterSampleSize);
 	}
 	
 	/**
-	 * Shoots an individual ray from the specified threadNum
+	 * Traces an individual ray from the specified threadNum, along with every
+	 * reflected and refracted ray it spawns, depth first
 	 * @param viewRay
 	 * @param threadNum
+	 * @return the color the ray and its spawned rays add to their pixel, already weighted by the ray weight.
+	 * The vector belongs to the thread's scratch space and is overwritten by its next ray of the same depth
 	 */
-	public void shootRay(Ray viewRay, int threadNum)
+	public TripletVector shootRay(Ray viewRay, int threadNum)
 	{
-		HitPoint hitp = intersectObjects(viewRay);
-		int[] pixelCoords = viewRay.getPixel();
-		if(hitp.getObject() != null)
+		RayShooter shooter = processingThreads.get(threadNum);
+		shooter.countRay();
+		HitPoint hitp = intersectObjects(viewRay, shooter.getScratch().getHit(viewRay.getDepth()), shooter.getScratch());
+		return shadeHit(viewRay, hitp, -1, threadNum);
+	}
+	
+	/**
+	 * Traces the camera rays of one sample of a block of pixels together
+	 * The rays are intersected as a RayPacket, then the shadow rays their hits
+	 * need are queued and tested as a packet per point light, before each ray
+	 * is shaded and its reflected and refracted rays are traced one at a time
+	 * Each ray's random stream is put aside between queueing and shading, so
+	 * every ray gets exactly the color shootRay would give it
+	 * Shadow rays are traced as they're made instead when the structure traces
+	 * packets a ray at a time, or there would be too many to queue
+	 * @param rays camera rays, each from a different pixel
+	 * @param count how many of rays to trace
+	 * @param sample the index of the rays' sample within their pixels
+	 * @param threadNum
+	 * @return the color each ray adds to its pixel, three values per ray, in the thread's scratch space
+	 */
+	public double[] tracePacket(Ray[] rays, int count, int sample, int threadNum)
+	{
+		RayShooter shooter = processingThreads.get(threadNum);
+		ShadingScratch scratch = shooter.getScratch();
+		RayPacket packet = scratch.getPacket();
+		HitPoint[] hits = scratch.getPacketHits(count);
+		packet.setRays(rays, count);
+		accelerationStructure.intersectPacket(packet, hits, scratch.getTraversal());
+		
+		int shadowRaysPerHit = lightSamples > 0 ? Math.min(lightSamples, pointLights.size()) : pointLights.size();
+		ShadowQueue queue = null;
+		long[] samplerStates = scratch.getSamplerStates(count);
+		if(accelerationStructure.walksPackets() && count*shadowRaysPerHit <= SHADOW_QUEUE_SIZE)
+		{
+			//Queue every hit's shadow rays, drawing the same random numbers shadeHit would
+			queue = scratch.getShadowQueue();
+			queue.clear();
+			for(int r = 0; r < count; r++)
+			{
+				Sampler.startSample(rays[r].getPixelX(), rays[r].getPixelY(), sample);
+				queue.startRay();
+				GeometricObject obj = hits[r].getObject();
+				if(obj != null && !obj.isEmitter())
+				{
+					TripletVector intersection = hits[r].getPoint();
+					TripletVector objectColor = obj.getColor(intersection, cameraFootprint(rays[r], intersection), scratch.getTextureColor(0));
+					TripletVector normal = hits[r].getNormal(scratch.getNormal(0));
+					getLightFromPointSources(intersection, normal.getComponents(), rays[r], obj, objectColor, scratch, queue);
+				}
+				samplerStates[r] = Sampler.getState();
+			}
+			queue.traceShadows(accelerationStructure, pointLights, scratch.getTraversal());
+		}
+		
+		double[] colors = scratch.getPacketColors(count);
+		for(int r = 0; r < count; r++)
 		{
-			GeometricObject obj = hitp.getObject();
-			TripletVector intersection = hitp.getPoint();
-			TripletVector objectColor = obj.getColor(intersection);
-			if(!obj.isEmitter())
+			shooter.countRay();
+			if(queue != null)
 			{
-				TripletVector sceneLight = getLightFromPointSources(intersection, viewRay, obj).add(getLightFromEmitters(intersection, viewRay, obj));
-				camera.updatePixel(objectColor.scale(ambient).add(sceneLight).scale(viewRay.getWeight()*(1-obj.getReflectivity()-obj.getRefractivity())), pixelCoords);
+				Sampler.setState(samplerStates[r]);
+			}
+			else
+			{
+				Sampler.startSample(rays[r].getPixelX(), rays[r].getPixelY(), sample);
+			}
+			double[] components = shadeHit(rays[r], hits[r], queue != null ? r : -1, threadNum).getComponents();
+			colors[r*3] = components[0];
+			colors[r*3 + 1] = components[1];
+			colors[r*3 + 2] = components[2];
+		}
+		return colors;
+	}
+	
+	/**
+	 * @param viewRay a camera ray
+	 * @param intersection where it hit
+	 * @return the footprint of the ray's sample at the hit, see Camera.getSampleFootprint
+	 */
+	private double cameraFootprint(Ray viewRay, TripletVector intersection)
+	{
+		double[] origin = viewRay.getOrigin().getComponents();
+		double[] point = intersection.getComponents();
+		double dx = point[0] - origin[0];
+		double dy = point[1] - origin[1];
+		double dz = point[2] - origin[2];
+		return camera.getSampleFootprint(Math.sqrt(dx*dx + dy*dy + dz*dz));
+	}
+	
+	/**
+	 * Shades a ray's hit, then traces the reflected and refracted rays it spawns
+	 * @param viewRay
+	 * @param hitp where viewRay hit
+	 * @param packetRay the ray's index in the packet tracePacket queued its shadow rays for, or -1 to trace them now
+	 * @param threadNum
+	 * @return as shootRay
+	 */
+	private TripletVector shadeHit(Ray viewRay, HitPoint hitp, int packetRay, int threadNum)
+	{
+		ShadingScratch scratch = processingThreads.get(threadNum).getScratch();
+		int depth = viewRay.getDepth();
+		TripletVector rayColor = scratch.getColor(depth);
+		if(hitp.getObject() == null)
+		{
+			return rayColor.set(backgroundColor).scaleInPlace(viewRay.getWeight());
+		}
+		GeometricObject obj = hitp.getObject();
+		TripletVector intersection = hitp.getPoint();
+		//Camera rays read textures at the mip level of the area their sample covers, other rays at full size
+		double footprint = depth == 0 ? cameraFootprint(viewRay, intersection) : 0;
+		TripletVector objectColor = obj.getColor(intersection, footprint, scratch.getTextureColor(depth));
+		TripletVector normal = hitp.getNormal(scratch.getNormal(depth));
+		if(!obj.isEmitter())
+		{
+			TripletVector pointSourceLight;
+			if(packetRay >= 0)
+			{
+				pointSourceLight = scratch.getShadowQueue().addUnblocked(packetRay, scratch.getPointLight().set(0, 0, 0));
 			}
 			else
-				camera.updatePixel(objectColor, pixelCoords);
-			
-			//reflection
-			if(obj.getReflectivity() > 0 && viewRay.getDepth() < maxRecur)
 			{
-				if(obj.getGlossyExponent() > 0)
+				pointSourceLight = getLightFromPointSources(intersection, normal.getComponents(), viewRay, obj, objectColor, scratch, null);
+			}
+			double[] pointLight = pointSourceLight.getComponents();
+			double[] emitterLight = getLightFromEmitters(intersection, normal.getComponents(), viewRay, obj, objectColor, scratch).getComponents();
+			double[] color = objectColor.getComponents();
+			double weight = viewRay.getWeight()*(1-obj.getReflectivity()-obj.getRefractivity());
+			rayColor.set((color[0]*ambient + (pointLight[0] + emitterLight[0]))*weight,
+					(color[1]*ambient + (pointLight[1] + emitterLight[1]))*weight,
+					(color[2]*ambient + (pointLight[2] + emitterLight[2]))*weight);
+		}
+		else
+			rayColor.set(objectColor);
+		
+		//reflection
+		if(obj.getReflectivity() > 0 && depth < maxRecur)
+		{
+			if(obj.getGlossyExponent() > 0)
+			{
+				int glossyCount = glossySampleCount(obj, depth);
+				Ray[] reflectedRays = scratch.getGlossyRays(depth, glossyCount);
+				glossyCount = obj.getReflectionRaysGlossy(viewRay, intersection, normal, glossyCount, scratch.getGlossySamples(glossyCount), reflectedRays);
+				if(glossySampling == GLOSSY_ADAPTIVE)
 				{
-					//Glossy reflection shoots 16 vectors
-					ArrayList<Ray> reflectedRays = obj.getReflectionRaysGlossy(viewRay, intersection, 16);
-					for(Ray refR : reflectedRays)
-					{
-						processingThreads.get(threadNum).addRay(refR);
-					}
+					rayColor.addInPlace(addGlossyRaysAdaptive(reflectedRays, glossyCount, depth, threadNum));
 				}
 				else
 				{
-					Ray reflectedRay = obj.getReflectionRay(viewRay, intersection);
-					processingThreads.get(threadNum).addRay(reflectedRay);
+					for(int i = 0; i < glossyCount; i++)
+					{
+						addSecondaryRay(rayColor, reflectedRays[i], threadNum);
+					}
 				}
 			}
-			//refraction
-			if(obj.getRefractivity() > 0 && viewRay.getDepth() < maxRecur)
+			else
 			{
-				Ray refractedray = obj.getRefractionray(viewRay, intersection);
-				processingThreads.get(threadNum).addRay(refractedray);
+				Ray reflectedRay = obj.getReflectionRay(viewRay, intersection, normal, scratch.getSecondaryRay(depth));
+				addSecondaryRay(rayColor, reflectedRay, threadNum);
 			}
 		}
-		else
+		//refraction
+		if(obj.getRefractivity() > 0 && depth < maxRecur)
 		{
-			camera.updatePixel(backgroundColor.scale(viewRay.getWeight()), pixelCoords);
+			//The reflected ray is done with by now, so the refracted ray can reuse it
+			Ray refractedray = obj.getRefractionray(viewRay, intersection, normal, scratch.getSecondaryRay(depth));
+			addSecondaryRay(rayColor, refractedray, threadNum);
 		}
+		return rayColor;
 	}
 			
+	/**
+	 * How many glossy rays to shoot from a hit
+	 * @param obj the object hit
+	 * @param depth the recursion depth of the ray that hit it
+	 * @return the object's count, or the scene's, quartered for every bounce in "Depth" mode
+	 */
+	private int glossySampleCount(GeometricObject obj, int depth)
+	{
+		int samples = obj.getGlossySamples() > 0 ? obj.getGlossySamples() : glossySamples;
+		if(glossySampling == GLOSSY_DEPTH)
+		{
+			//Halving the side of the sample grid keeps it square
+			int side = Math.max(1, (int)Math.sqrt(samples) >> Math.min(depth, 30));
+			samples = side*side;
+		}
+		return samples;
+	}
+	
+	/**
+	 * Traces glossy rays until the colors they return agree, then scales up
+	 * what was traced to stand in for the whole set
+	 * Rays are taken with a stride through the multi-jittered grid so any
+	 * prefix of them is still spread across the lobe
+	 * @param glossyRays glossy rays from one hit
+	 * @param count how many of glossyRays to use, a square number
+	 * @param depth the depth of the ray that hit
+	 * @param threadNum
+	 * @return the color the glossy rays add, in the thread's scratch space
+	 */
+	private TripletVector addGlossyRaysAdaptive(Ray[] glossyRays, int count, int depth, int threadNum)
+	{
+		int side = (int)Math.round(Math.sqrt(count));
+		int minSamples = Math.max(4, side);
+		TripletVector glossyColor = processingThreads.get(threadNum).getScratch().getGlossyColor(depth).set(0, 0, 0);
+		double[] glossy = glossyColor.getComponents();
+		//Running mean and sum of squared differences of each ray's luminance per unit weight
+		double mean = 0;
+		double squaredDiffs = 0;
+		int traced = 0;
+		while(traced < count)
+		{
+			Ray glossyRay = glossyRays[(int)((long)traced*(side+1) % count)];
+			double r = 0;
+			double g = 0;
+			double b = 0;
+			double scale = traceSecondaryRay(glossyRay, threadNum);
+			if(scale > 0)
+			{
+				double[] rgb = processingThreads.get(threadNum).getScratch().getColor(depth+1).getComponents();
+				r = rgb[0]*scale;
+				g = rgb[1]*scale;
+				b = rgb[2]*scale;
+			}
+			glossy[0] += r;
+			glossy[1] += g;
+			glossy[2] += b;
+			traced++;
+			
+			double luminance = (0.2126*r + 0.7152*g + 0.0722*b)/glossyRay.getWeight();
+			double delta = luminance - mean;
+			mean += delta/traced;
+			squaredDiffs += delta*(luminance - mean);
+			if(traced >= minSamples && Math.sqrt(squaredDiffs/(traced-1)/traced) < glossyTolerance)
+			{
+				break;
+			}
+		}
+		processingThreads.get(threadNum).countCulledRays(count - traced);
+		return glossyColor.scaleInPlace(count/(double)traced);
+	}
+	
+	/**
+	 * Adds what a reflected or refracted ray sees to the color of the ray that spawned it
+	 * @param rayColor the color of the ray that spawned it so far, added to in place
+	 * @param secondaryRay
+	 * @param threadNum
+	 */
+	private void addSecondaryRay(TripletVector rayColor, Ray secondaryRay, int threadNum)
+	{
+		double scale = traceSecondaryRay(secondaryRay, threadNum);
+		if(scale > 0)
+		{
+			rayColor.addScaledInPlace(processingThreads.get(threadNum).getScratch().getColor(secondaryRay.getDepth()), scale);
+		}
+	}
+	
+	/**
+	 * Traces a reflected or refracted ray unless its weight is too small to matter
+	 * Rays under minContribution are dropped. Rays under rouletteWeight survive with a
+	 * probability proportional to their weight, and survivors are scaled up by the
+	 * inverse, so on average the picture is unchanged
+	 * CITATION: Physically Based Rendering, Pharr, Jakob & Humphreys, 13.7
+	 * @param secondaryRay
+	 * @param threadNum
+	 * @return what the ray's color, left in the scratch color for its depth, must be scaled by, or 0 if it was not traced
+	 */
+	private double traceSecondaryRay(Ray secondaryRay, int threadNum)
+	{
+		double weight = secondaryRay.getWeight();
+		if(weight < minContribution)
+		{
+			processingThreads.get(threadNum).countCulledRays(1);
+			return 0;
+		}
+		if(weight < rouletteWeight)
+		{
+			double survival = weight/rouletteWeight;
+			if(Sampler.nextDouble() >= survival)
+			{
+				processingThreads.get(threadNum).countCulledRays(1);
+				return 0;
+			}
+			shootRay(secondaryRay, threadNum);
+			return 1.0/survival;
+		}
+		shootRay(secondaryRay, threadNum);
+		return 1.0;
+	}
+	
 	/**
 	 * Shoots all rays from the camera, retrieves the colors from the intersected objects
 	 * and the point source light, then updates the camera's film
@@ -454,45 +1007,32 @@ public class TracingCoordinator
 	private void takePicture()
 	{
 		processingThreads = new ArrayList<RayShooter>();
-		ArrayList<Ray> queuedRays = camera.getRays();
 		long startTime = System.currentTimeMillis();
 		
-		int queueSize = queuedRays.size();
-		int numThreads = 4;
-		int chunkSize = Math.floorDiv(queueSize, numThreads);
-		int queueIndex = 0;
+		int numThreads = renderThreads;
+		TileScheduler scheduler = new TileScheduler(camera.getFilmWidth(), camera.getFilmHeight(), tileSize, tileOrder);
 		for(int i = 0; i < numThreads; i++)
 		{
-			RayShooter process = new RayShooter(i, this);
-			int[] lastPixel = null;
-			for(int j = 0; j < chunkSize; j++)
-			{
-				if(queueIndex >= queueSize)
-					break;
-				Ray rayToAdd = queuedRays.get(queueIndex);
-				lastPixel = rayToAdd.getPixel();
-				process.addRay(rayToAdd);
-				queueIndex++;
-			}
-			while(queueIndex < queueSize && queuedRays.get(queueIndex).getPixel() == lastPixel)
-			{
-				process.addRay(queuedRays.get(queueIndex));
-				queueIndex++;
-			}
-			processingThreads.add(process);
-		}
-		for(; queueIndex < queueSize; queueIndex++)
-		{
-			processingThreads.get(numThreads-1).addRay(queuedRays.get(queueIndex));
+			processingThreads.add(new RayShooter(i, this, camera, scheduler, maxRecur));
 		}
 		ExecutorService exec = Executors.newFixedThreadPool(numThreads);
 		try
 		{
 			List<Future<Double>> threadOut = exec.invokeAll(processingThreads);
-			for(Future<Double> f : threadOut)
+			double raysTraced = 0;
+			long raysCulled = 0;
+			long samplesTraced = 0;
+			for(int i = 0; i < threadOut.size(); i++)
 			{
-				System.out.println("THREAD FINISHED IN " + f.get() + " ITERATIONS");
+				double iterations = threadOut.get(i).get();
+				System.out.println("THREAD FINISHED IN " + iterations + " ITERATIONS");
+				raysTraced += iterations;
+				raysCulled += processingThreads.get(i).getCulledRays();
+				samplesTraced += processingThreads.get(i).getSamplesTraced();
 			}
+			DecimalFormat df = new DecimalFormat("###.##");
+			System.out.println("Average Samples Per Pixel: " + df.format(samplesTraced/(double)(camera.getFilmWidth()*camera.getFilmHeight())));
+			System.out.println("Rays Traced: " + (long)raysTraced + ", Rays Culled: " + raysCulled);
 		}
 		catch(InterruptedException | ExecutionException e)
 		{
@@ -501,9 +1041,20 @@ public class TracingCoordinator
 		exec.shutdown();
 		
 		long endTime = System.currentTimeMillis();
+		traceMillis = endTime - startTime;
+		System.out.println("Render Time: " + formatSeconds(traceMillis) + " Seconds");
+	}
+	
+	/**
+	 * Formats a duration for the timing output
+	 * @param millis the duration in milliseconds
+	 * @return the duration in seconds to three decimal places
+	 */
+	private String formatSeconds(long millis)
+	{
 		DecimalFormat df = new DecimalFormat("###.###");
 		df.setRoundingMode(RoundingMode.HALF_DOWN);
-		System.out.println(df.format((endTime - startTime)*0.001) + " Seconds");
+		return df.format(millis*0.001);
 	}
 	
 	/**
@@ -511,18 +1062,67 @@ public class TracingCoordinator
 	 * @param filename name of the settings file
 	 */
 	public void loadFromFile(String filename)
+	{
+		load("src/config/settings/" + filename, "src/config/scene/", "src/config/camera/", null, null);
+	}
+	
+	/**
+	 * Builds tracer from files anywhere on disk. A scene or camera file left out is the
+	 * one the settings file names, found in the scene or camera folder beside the
+	 * settings file's folder, as in src/config
+	 * @param settingsPath path to the settings file
+	 * @param scenePath path to the scene file, or null
+	 * @param cameraPath path to the camera file, or null
+	 * @return false if any of the files couldn't be read
+	 */
+	public boolean loadFromPaths(String settingsPath, String scenePath, String cameraPath)
+	{
+		String configFolder = new File(settingsPath).getAbsoluteFile().getParentFile().getParent() + File.separator;
+		return load(settingsPath, configFolder + "scene" + File.separator, configFolder + "camera" + File.separator, scenePath, cameraPath);
+	}
+	
+	/**
+	 * Reads the settings, scene and camera files, timing the parsing and the build
+	 * @param settingsPath path to the settings file
+	 * @param sceneFolder prefix for the scene file the settings name, used if scenePath is null
+	 * @param cameraFolder prefix for the camera file the settings name, used if cameraPath is null
+	 * @param scenePath path to the scene file, or null
+	 * @param cameraPath path to the camera file, or null
+	 * @return false if any of the files couldn't be read
+	 */
+	private boolean load(String settingsPath, String sceneFolder, String cameraFolder, String scenePath, String cameraPath)
 	{
 		System.out.println("Loading Files");
-		buildSettings("src/config/settings/" + filename);
-		buildScene("src/config/scene/" + sceneFilename);
-		buildCamera("src/config/camera/" + cameraFilename);
+		long loadStart = System.currentTimeMillis();
+		buildMillis = 0;
+		if(!buildSettings(settingsPath))
+		{
+			return false;
+		}
+		if(scenePath == null)
+		{
+			scenePath = sceneFolder + sceneFilename;
+		}
+		if(cameraPath == null)
+		{
+			cameraPath = cameraFolder + cameraFilename;
+		}
+		boolean loaded = buildScene(scenePath) && buildCamera(cameraPath);
+		parseMillis = System.currentTimeMillis() - loadStart - buildMillis;
+		return loaded;
 	}
 	
 	public void renderToFile(String optionalFilename)
 	{
-		System.out.println("Rendering Scene: " + sceneObjects.size() + " Objects");
+		int objectCount = sceneObjects.size();
+		for(TriangleMesh mesh : meshes)
+		{
+			objectCount += mesh.getTriangleCount();
+		}
+		System.out.println("Rendering Scene: " + objectCount + " Objects");
 		takePicture();
 		
+		long writeStart = System.currentTimeMillis();
 		if(optionalFilename == null)
 		{
 			System.out.println("Writing to File: " + outputFilename);
@@ -533,9 +1133,211 @@ public class TracingCoordinator
 			System.out.println("Writing to File: " + optionalFilename);
 			camera.writeImage(optionalFilename, outputDim);
 		}
+		writeMillis = System.currentTimeMillis() - writeStart;
+		System.out.println("Done");
+	}
+	
+	/**
+	 * Reads an animation file for renderAnimation, must come before loading so the
+	 * objects it moves are kept out of the structure built for the rest of the scene
+	 * @param filename path to the animation file
+	 * @return false if the animation file couldn't be read
+	 */
+	public boolean loadAnimation(String filename)
+	{
+		try
+		{
+			animation = new Animation(filename);
+			return true;
+		}
+		catch(Exception e)
+		{
+			System.out.println("Error: Cannot load animation file: " + filename);
+			animation = null;
+			return false;
+		}
+	}
+	
+	/**
+	 * Renders every frame of the loaded animation, reusing the parsed scene, its
+	 * textures and its acceleration structure for every frame: only the camera
+	 * and the moving objects and meshes change between frames, and only the
+	 * structure over the moving meshes is rebuilt when they move
+	 * Each frame's image is written on a thread of its own while the next frame is traced
+	 * @param optionalFilename the filename the frames are named from, see Animation.getFrameFilename, or null
+	 */
+	public void renderAnimation(String optionalFilename)
+	{
+		if(animation == null)
+		{
+			System.out.println("Error: No animation loaded");
+			return;
+		}
+		if(optionalFilename != null)
+		{
+			animation.setOutputFilename(optionalFilename);
+		}
+		int objectCount = sceneObjects.size();
+		for(TriangleMesh mesh : meshes)
+		{
+			objectCount += mesh.getTriangleCount();
+		}
+		System.out.println("Rendering Animation: " + animation.getFrameCount() + " Frames, " + objectCount + " Objects");
+		Camera baseCamera = camera;
+		ExecutorService writer = Executors.newSingleThreadExecutor();
+		Future<Long> previousWrite = null;
+		long animationTrace = 0;
+		long animationWrite = 0;
+		try
+		{
+			for(int frame = 0; frame < animation.getFrameCount(); frame++)
+			{
+				animation.moveObjects(frame, sceneObjects);
+				if(animation.moveMeshes(frame, meshes) && movingObjects != null)
+				{
+					movingObjects.meshesMoved();
+				}
+				camera = animation.getCamera(frame, baseCamera);
+				System.out.println("Frame " + frame);
+				takePicture();
+				animationTrace += traceMillis;
+				//At most one finished film waits to be written while the next is traced
+				if(previousWrite != null)
+				{
+					animationWrite += previousWrite.get();
+				}
+				final Camera frameCamera = camera;
+				final String frameFilename = animation.getFrameFilename(outputFilename, frame);
+				final int[] frameDim = outputDim.clone();
+				previousWrite = writer.submit(new Callable<Long>()
+				{
+					@Override
+					public Long call()
+					{
+						long writeStart = System.currentTimeMillis();
+						System.out.println("Writing to File: " + frameFilename);
+						frameCamera.writeImage(frameFilename, frameDim);
+						return System.currentTimeMillis() - writeStart;
+					}
+				});
+			}
+			if(previousWrite != null)
+			{
+				animationWrite += previousWrite.get();
+			}
+		}
+		catch(InterruptedException | ExecutionException e)
+		{
+			e.printStackTrace();
+		}
+		finally
+		{
+			writer.shutdown();
+			animation.moveObjects(-1, sceneObjects);
+			if(animation.moveMeshes(-1, meshes) && movingObjects != null)
+			{
+				movingObjects.meshesMoved();
+			}
+			camera = baseCamera;
+		}
+		traceMillis = animationTrace;
+		writeMillis = animationWrite;
 		System.out.println("Done");
 	}
 	
+	/**
+	 * @return width and height in pixels of the blocks traced as packets, 1 if rays are traced one at a time
+	 */
+	int getPacketSize()
+	{
+		return packetSize;
+	}
+	
+	/**
+	 * Overrides the number of threads the settings file asked for
+	 * @param threads
+	 */
+	public void setRenderThreads(int threads)
+	{
+		renderThreads = Math.max(1, threads);
+	}
+	
+	/**
+	 * Overrides the camera file's film size and the settings file's output size, must follow loading
+	 * @param width in pixels
+	 * @param height in pixels
+	 */
+	public void setResolution(int width, int height)
+	{
+		camera.setFilmSize(width, height);
+		outputDim = new int[] {width, height};
+	}
+	
+	/**
+	 * @return milliseconds the last load spent reading and parsing files, building excluded
+	 */
+	public long getParseMillis()
+	{
+		return parseMillis;
+	}
+	
+	/**
+	 * @return milliseconds the last load spent building the acceleration structure
+	 */
+	public long getBuildMillis()
+	{
+		return buildMillis;
+	}
+	
+	/**
+	 * @return milliseconds the last render spent tracing, over every frame of an animation
+	 */
+	public long getTraceMillis()
+	{
+		return traceMillis;
+	}
+	
+	/**
+	 * @return milliseconds the last render spent writing the image, over every frame of
+	 * an animation, where most of it overlaps tracing
+	 */
+	public long getWriteMillis()
+	{
+		return writeMillis;
+	}
+	
+	/**
+	 * @return every GeometricObject in the loaded scene
+	 */
+	public ArrayList<GeometricObject> getSceneObjects()
+	{
+		return sceneObjects;
+	}
+	
+	/**
+	 * @return every TriangleMesh in the loaded scene
+	 */
+	public ArrayList<TriangleMesh> getMeshes()
+	{
+		return meshes;
+	}
+	
+	/**
+	 * @return every PointLight in the loaded scene
+	 */
+	public ArrayList<PointLight> getPointLights()
+	{
+		return pointLights;
+	}
+	
+	/**
+	 * @return the camera of the loaded scene
+	 */
+	public Camera getCamera()
+	{
+		return camera;
+	}
+	
 	/**
 	 * Highest level control 
 	 */
@@ -4,6 +4,9 @@ import java.lang.Math;
 
 /**
  * A simple linear-algebra class for a 3d vector
+ * add, sub, scale and cross return new vectors; the set and InPlace methods
+ * overwrite this vector instead, for loops that would otherwise make a
+ * vector per step
  * @author alexaulabaugh
  *
  */
@@ -66,7 +69,92 @@ public class TripletVector
 	 */
 	public double getLength()
 	{
-		return Math.sqrt(Math.pow(components[0], 2) + Math.pow(components[1], 2) + Math.pow(components[2], 2));
+		return Math.sqrt(components[0]*components[0] + components[1]*components[1] + components[2]*components[2]);
+	}
+	
+	/**
+	 * Overwrites the components of this vector
+	 * @param x
+	 * @param y
+	 * @param z
+	 * @return this vector
+	 */
+	public TripletVector set(double x, double y, double z)
+	{
+		components[0] = x;
+		components[1] = y;
+		components[2] = z;
+		return this;
+	}
+	
+	/**
+	 * Copies another vector into this vector
+	 * @param other_vector
+	 * @return this vector
+	 */
+	public TripletVector set(TripletVector other_vector)
+	{
+		double[] otherComponents = other_vector.getComponents();
+		components[0] = otherComponents[0];
+		components[1] = otherComponents[1];
+		components[2] = otherComponents[2];
+		return this;
+	}
+	
+	/**
+	 * Adds another vector to this vector, overwriting this vector
+	 * @param other_vector
+	 * @return this vector
+	 */
+	public TripletVector addInPlace(TripletVector other_vector)
+	{
+		double[] otherComponents = other_vector.getComponents();
+		components[0] += otherComponents[0];
+		components[1] += otherComponents[1];
+		components[2] += otherComponents[2];
+		return this;
+	}
+	
+	/**
+	 * Subtracts another vector from this vector, overwriting this vector
+	 * @param other_vector
+	 * @return this vector
+	 */
+	public TripletVector subInPlace(TripletVector other_vector)
+	{
+		double[] otherComponents = other_vector.getComponents();
+		components[0] -= otherComponents[0];
+		components[1] -= otherComponents[1];
+		components[2] -= otherComponents[2];
+		return this;
+	}
+	
+	/**
+	 * Scales this vector by a scalar, overwriting this vector
+	 * @param scalar
+	 * @return this vector
+	 */
+	public TripletVector scaleInPlace(double scalar)
+	{
+		components[0] *= scalar;
+		components[1] *= scalar;
+		components[2] *= scalar;
+		return this;
+	}
+	
+	/**
+	 * Adds another vector times a scalar to this vector, overwriting this vector
+	 * @param other_vector
+	 * @param scalar
+	 * @return this vector
+	 */
+	public TripletVector addScaledInPlace(TripletVector other_vector, double scalar)
+	{
+		double[] otherComponents = other_vector.getComponents();
+		components[0] += otherComponents[0]*scalar;
+		components[1] += otherComponents[1]*scalar;
+		components[2] += otherComponents[2]*scalar;
+		return this;
 	}
 	
 	/**
@@ -0,0 +1,119 @@
+package acceleration;
+
+import java.util.ArrayList;
+
+import rendering.HitPoint;
+import rendering.Ray;
+import rendering.TracingCoordinator;
+
+/**
+ * Measures primary rays per second through a RegularGrid walked with the
+ * 3D-DDA against the same grid walked with the box-stepping walk it replaced,
+ * and checks the two walks agree on what each ray hits
+ * It sits in package acceleration, outside src, to reach the grid's
+ * package-private intersectRayLegacy
+ * Usage: GridTraversalBenchmark [m] settingsFile...
+ * Settings files are looked up in src/config/settings/ like the GUI does
+ * Build against the renderer's classes, from the repository root:
+ * javac -cp bin -d bin tools/benchmark/acceleration/GridTraversalBenchmark.java
+ * @author alexaulabaugh
+ *
+ */
+public class GridTraversalBenchmark
+{
+	//Timed passes over the rays for each walk, the fastest is reported
+	private static final int PASSES = 3;
+
+	public static void main(String[] args)
+	{
+		int m = 3;
+		int firstFile = 0;
+		if(args.length > 0 && args[0].matches("\\d+"))
+		{
+			m = Integer.parseInt(args[0]);
+			firstFile = 1;
+		}
+		for(int i = firstFile; i < args.length; i++)
+		{
+			TracingCoordinator tracer = new TracingCoordinator();
+			tracer.loadFromFile(args[i]);
+			RegularGrid grid = new RegularGrid(m);
+			grid.addGeometricObjectList(tracer.getSceneObjects(), tracer.getMeshes());
+			ArrayList<Ray> rays = tracer.getCamera().getRays();
+
+			//warm up both walks before timing either
+			run(grid, rays, false);
+			run(grid, rays, true);
+
+			double ddaSeconds = Double.MAX_VALUE;
+			double legacySeconds = Double.MAX_VALUE;
+			for(int pass = 0; pass < PASSES; pass++)
+			{
+				long start = System.nanoTime();
+				run(grid, rays, false);
+				ddaSeconds = Math.min(ddaSeconds, (System.nanoTime() - start)*1e-9);
+
+				start = System.nanoTime();
+				run(grid, rays, true);
+				legacySeconds = Math.min(legacySeconds, (System.nanoTime() - start)*1e-9);
+			}
+
+			int mismatches = 0;
+			TraversalScratch scratch = new TraversalScratch();
+			HitPoint ddaHit = new HitPoint();
+			HitPoint legacyHit = new HitPoint();
+			for(Ray ray : rays)
+			{
+				grid.intersectRay(ray, ddaHit, scratch);
+				grid.intersectRayLegacy(ray, legacyHit);
+				if(ddaHit.getObject() != legacyHit.getObject() || ddaHit.getTriangle() != legacyHit.getTriangle())
+				{
+					mismatches++;
+				}
+			}
+
+			double speedup = legacySeconds/ddaSeconds;
+			System.out.println(args[i] + ": " + rays.size() + " rays");
+			System.out.println("  3D-DDA:        " + Math.round(rays.size()/ddaSeconds) + " rays/sec");
+			System.out.println("  box stepping:  " + Math.round(rays.size()/legacySeconds) + " rays/sec");
+			if(speedup >= 1)
+			{
+				System.out.println("  DDA is " + String.format("%.2f", speedup) + "x faster than legacy");
+			}
+			else
+			{
+				System.out.println("  DDA is " + String.format("%.2f", 1/speedup) + "x slower than legacy");
+			}
+			System.out.println("  the walks disagree on " + mismatches + " rays");
+		}
+	}
+
+	/**
+	 * @param grid
+	 * @param rays
+	 * @param legacy true to walk with intersectRayLegacy, false with intersectRay
+	 * @return number of rays that hit something, so the work can't be skipped
+	 */
+	private static int run(RegularGrid grid, ArrayList<Ray> rays, boolean legacy)
+	{
+		int hits = 0;
+		TraversalScratch scratch = new TraversalScratch();
+		HitPoint hit = new HitPoint();
+		for(Ray ray : rays)
+		{
+			if(legacy)
+			{
+				grid.intersectRayLegacy(ray, hit);
+			}
+			else
+			{
+				grid.intersectRay(ray, hit, scratch);
+			}
+			if(hit.getObject() != null)
+			{
+				hits++;
+			}
+		}
+		return hits;
+	}
+}
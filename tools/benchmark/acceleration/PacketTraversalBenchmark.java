@@ -0,0 +1,294 @@
+package acceleration;
+
+import java.util.ArrayList;
+
+import rendering.Camera;
+import rendering.HitPoint;
+import rendering.PointLight;
+import rendering.Ray;
+import rendering.TracingCoordinator;
+
+/**
+ * Measures rays per second through a BoundingVolumeHierarchy traced one at a
+ * time against the same rays traced as packets, for the camera rays of blocks
+ * of pixels and for the shadow rays from their hits toward each point light,
+ * and checks both ways agree on what each ray hits
+ * Usage: PacketTraversalBenchmark [packetSize] settingsFile...
+ * Settings files are looked up in src/config/settings/ like the GUI does
+ * Build against the renderer's classes, from the repository root:
+ * javac -cp bin -d bin tools/benchmark/acceleration/PacketTraversalBenchmark.java
+ * @author alexaulabaugh
+ *
+ */
+public class PacketTraversalBenchmark
+{
+	//Timed passes over the rays for each way, the fastest is reported
+	private static final int PASSES = 5;
+
+	public static void main(String[] args)
+	{
+		int packetSize = 8;
+		int firstFile = 0;
+		if(args.length > 0 && args[0].matches("\\d+"))
+		{
+			packetSize = Integer.parseInt(args[0]);
+			firstFile = 1;
+		}
+		for(int i = firstFile; i < args.length; i++)
+		{
+			TracingCoordinator tracer = new TracingCoordinator();
+			tracer.loadFromFile(args[i]);
+			BoundingVolumeHierarchy bvh = new BoundingVolumeHierarchy();
+			bvh.addGeometricObjectList(tracer.getSceneObjects(), tracer.getMeshes());
+			ArrayList<Ray[]> cameraPackets = cameraPackets(tracer.getCamera(), packetSize);
+			ArrayList<Ray[]> shadowPackets = new ArrayList<Ray[]>();
+			ArrayList<double[]> shadowMaxT = new ArrayList<double[]>();
+			ArrayList<double[]> shadowEnds = new ArrayList<double[]>();
+			shadowPackets(bvh, tracer, cameraPackets, shadowPackets, shadowMaxT, shadowEnds);
+
+			//warm up every way before timing any
+			for(int way = 0; way < 4; way++)
+			{
+				run(bvh, way, cameraPackets, shadowPackets, shadowMaxT, shadowEnds);
+			}
+			double[] seconds = {Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE, Double.MAX_VALUE};
+			for(int pass = 0; pass < PASSES; pass++)
+			{
+				for(int way = 0; way < 4; way++)
+				{
+					long start = System.nanoTime();
+					run(bvh, way, cameraPackets, shadowPackets, shadowMaxT, shadowEnds);
+					seconds[way] = Math.min(seconds[way], (System.nanoTime() - start)*1e-9);
+				}
+			}
+
+			int cameraRays = 0;
+			for(Ray[] packet : cameraPackets)
+			{
+				cameraRays += packet.length;
+			}
+			int shadowRays = 0;
+			for(Ray[] packet : shadowPackets)
+			{
+				shadowRays += packet.length;
+			}
+			System.out.println(args[i] + ": " + cameraRays + " camera rays, " + shadowRays + " shadow rays, " + packetSize + "x" + packetSize + " packets");
+			System.out.println("  camera, one at a time:  " + Math.round(cameraRays/seconds[0]) + " rays/sec");
+			System.out.println("  camera, packets:        " + Math.round(cameraRays/seconds[1]) + " rays/sec");
+			System.out.println("  shadow, one at a time:  " + Math.round(shadowRays/seconds[2]) + " rays/sec");
+			System.out.println("  shadow, packets:        " + Math.round(shadowRays/seconds[3]) + " rays/sec");
+			System.out.println("  the ways disagree on " + mismatches(bvh, cameraPackets, shadowPackets, shadowMaxT, shadowEnds) + " rays");
+		}
+	}
+
+	/**
+	 * @param camera
+	 * @param packetSize width and height of the blocks of pixels
+	 * @return the first camera ray of every pixel, a packet per block of pixels
+	 */
+	private static ArrayList<Ray[]> cameraPackets(Camera camera, int packetSize)
+	{
+		ArrayList<Ray[]> packets = new ArrayList<Ray[]>();
+		ArrayList<Ray> pixelRays = new ArrayList<Ray>();
+		for(int blockx = 0; blockx < camera.getFilmWidth(); blockx += packetSize)
+		{
+			for(int blocky = 0; blocky < camera.getFilmHeight(); blocky += packetSize)
+			{
+				ArrayList<Ray> packet = new ArrayList<Ray>();
+				for(int x = blockx; x < Math.min(blockx + packetSize, camera.getFilmWidth()); x++)
+				{
+					for(int y = blocky; y < Math.min(blocky + packetSize, camera.getFilmHeight()); y++)
+					{
+						pixelRays.clear();
+						camera.getPixelRays(x, y, pixelRays);
+						packet.add(pixelRays.get(0));
+					}
+				}
+				packets.add(packet.toArray(new Ray[0]));
+			}
+		}
+		return packets;
+	}
+
+	/**
+	 * Makes a packet of shadow rays from each camera packet's hits toward each point light
+	 * @param bvh
+	 * @param tracer
+	 * @param cameraPackets
+	 * @param shadowPackets filled with the shadow rays
+	 * @param shadowMaxT filled with how far each shadow ray goes
+	 * @param shadowEnds filled with the light each packet ends at
+	 */
+	private static void shadowPackets(BoundingVolumeHierarchy bvh, TracingCoordinator tracer, ArrayList<Ray[]> cameraPackets, ArrayList<Ray[]> shadowPackets, ArrayList<double[]> shadowMaxT, ArrayList<double[]> shadowEnds)
+	{
+		TraversalScratch scratch = new TraversalScratch();
+		HitPoint hit = new HitPoint();
+		for(Ray[] packet : cameraPackets)
+		{
+			ArrayList<double[]> points = new ArrayList<double[]>();
+			for(Ray ray : packet)
+			{
+				bvh.intersectRay(ray, hit, scratch);
+				if(hit.getObject() != null)
+				{
+					points.add(hit.getPoint().getComponents().clone());
+				}
+			}
+			for(PointLight pointLight : tracer.getPointLights())
+			{
+				double[] light = pointLight.getLocation().getComponents();
+				Ray[] rays = new Ray[points.size()];
+				double[] maxT = new double[points.size()];
+				for(int r = 0; r < rays.length; r++)
+				{
+					//Aimed like the renderer aims them, leaving the surface a little toward the light
+					double[] point = points.get(r);
+					double dx = light[0] - point[0];
+					double dy = light[1] - point[1];
+					double dz = light[2] - point[2];
+					double length = Math.sqrt(dx*dx + dy*dy + dz*dz);
+					rays[r] = new Ray().set(point[0] + dx/length*0.001, point[1] + dy/length*0.001, point[2] + dz/length*0.001, dx/length, dy/length, dz/length);
+					maxT[r] = length - 0.001;
+				}
+				shadowPackets.add(rays);
+				shadowMaxT.add(maxT);
+				shadowEnds.add(light);
+			}
+		}
+	}
+
+	/**
+	 * @param bvh
+	 * @param way 0 and 1 trace the camera rays one at a time and as packets, 2 and 3 the shadow rays
+	 * @param cameraPackets
+	 * @param shadowPackets
+	 * @param shadowMaxT
+	 * @param shadowEnds
+	 * @return number of rays that hit something, so the work can't be skipped
+	 */
+	private static int run(BoundingVolumeHierarchy bvh, int way, ArrayList<Ray[]> cameraPackets, ArrayList<Ray[]> shadowPackets, ArrayList<double[]> shadowMaxT, ArrayList<double[]> shadowEnds)
+	{
+		int hits = 0;
+		TraversalScratch scratch = new TraversalScratch();
+		RayPacket packet = new RayPacket();
+		HitPoint[] packetHits = new HitPoint[0];
+		if(way < 2)
+		{
+			for(Ray[] rays : cameraPackets)
+			{
+				if(packetHits.length < rays.length)
+				{
+					packetHits = newHits(rays.length);
+				}
+				if(way == 0)
+				{
+					for(int r = 0; r < rays.length; r++)
+					{
+						bvh.intersectRay(rays[r], packetHits[r], scratch);
+					}
+				}
+				else
+				{
+					packet.setRays(rays, rays.length);
+					bvh.intersectPacket(packet, packetHits, scratch);
+				}
+				for(int r = 0; r < rays.length; r++)
+				{
+					if(packetHits[r].getObject() != null)
+					{
+						hits++;
+					}
+				}
+			}
+			return hits;
+		}
+		for(int p = 0; p < shadowPackets.size(); p++)
+		{
+			Ray[] rays = shadowPackets.get(p);
+			double[] maxT = shadowMaxT.get(p);
+			if(way == 2)
+			{
+				for(int r = 0; r < rays.length; r++)
+				{
+					if(bvh.occluded(rays[r], maxT[r], scratch))
+					{
+						hits++;
+					}
+				}
+			}
+			else
+			{
+				packet.setShadowRays(rays, maxT, rays.length, shadowEnds.get(p));
+				bvh.occludedPacket(packet, scratch);
+				for(int r = 0; r < rays.length; r++)
+				{
+					if(packet.isBlocked(r))
+					{
+						hits++;
+					}
+				}
+			}
+		}
+		return hits;
+	}
+
+	/**
+	 * @param bvh
+	 * @param cameraPackets
+	 * @param shadowPackets
+	 * @param shadowMaxT
+	 * @param shadowEnds
+	 * @return number of rays whose hit, or whether they're blocked, differs between the two ways
+	 */
+	private static int mismatches(BoundingVolumeHierarchy bvh, ArrayList<Ray[]> cameraPackets, ArrayList<Ray[]> shadowPackets, ArrayList<double[]> shadowMaxT, ArrayList<double[]> shadowEnds)
+	{
+		int mismatches = 0;
+		TraversalScratch scratch = new TraversalScratch();
+		RayPacket packet = new RayPacket();
+		HitPoint single = new HitPoint();
+		for(Ray[] rays : cameraPackets)
+		{
+			HitPoint[] packetHits = newHits(rays.length);
+			packet.setRays(rays, rays.length);
+			bvh.intersectPacket(packet, packetHits, scratch);
+			for(int r = 0; r < rays.length; r++)
+			{
+				bvh.intersectRay(rays[r], single, scratch);
+				if(single.getObject() != packetHits[r].getObject() || single.getTriangle() != packetHits[r].getTriangle()
+						|| (single.getObject() != null && single.getT() != packetHits[r].getT()))
+				{
+					mismatches++;
+				}
+			}
+		}
+		for(int p = 0; p < shadowPackets.size(); p++)
+		{
+			Ray[] rays = shadowPackets.get(p);
+			double[] maxT = shadowMaxT.get(p);
+			packet.setShadowRays(rays, maxT, rays.length, shadowEnds.get(p));
+			bvh.occludedPacket(packet, scratch);
+			for(int r = 0; r < rays.length; r++)
+			{
+				if(bvh.occluded(rays[r], maxT[r], scratch) != packet.isBlocked(r))
+				{
+					mismatches++;
+				}
+			}
+		}
+		return mismatches;
+	}
+
+	/**
+	 * @param count
+	 * @return count new hitpoints
+	 */
+	private static HitPoint[] newHits(int count)
+	{
+		HitPoint[] hits = new HitPoint[count];
+		for(int i = 0; i < count; i++)
+		{
+			hits[i] = new HitPoint();
+		}
+		return hits;
+	}
+}
@@ -0,0 +1,182 @@
+package regression;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+
+import rendering.TracingCoordinator;
+
+/**
+ * Renders the regression scenes in tools/regression/config and compares
+ * renders pixel by pixel, so a change can be checked against the reference
+ * images or against the renders of another commit
+ * Usage, from the repository root:
+ * RenderRegression render outputDir [scene...]
+ * RenderRegression compare expectedDir actualDir [scene...]
+ * A scene is named by its settings file, settings_Aliasing.txt is Aliasing,
+ * and leaving the scenes out means all of them
+ * Only loadFromFile and renderToFile are used, so the class builds against
+ * the renderer of any commit in the history, see compare_commits.sh
+ * @author alexaulabaugh
+ *
+ */
+public class RenderRegression
+{
+	//Where the regression settings, scene and camera files are, from the repository root
+	private static final String CONFIG_DIR = "tools/regression/config/";
+	//The same folder seen from src/config/settings/, which loadFromFile reads settings files from
+	private static final String SETTINGS_FROM_CONFIG = "../../../" + CONFIG_DIR;
+
+	public static void main(String[] args)
+	{
+		if(args.length >= 2 && args[0].equals("render"))
+		{
+			render(new File(args[1]), sceneNames(args, 2));
+		}
+		else if(args.length >= 3 && args[0].equals("compare"))
+		{
+			if(compare(new File(args[1]), new File(args[2]), sceneNames(args, 3)) > 0)
+			{
+				System.exit(1);
+			}
+		}
+		else
+		{
+			System.out.println("Usage: RenderRegression render <output dir> [scene...]");
+			System.out.println("       RenderRegression compare <expected dir> <actual dir> [scene...]");
+			System.exit(2);
+		}
+	}
+
+	/**
+	 * @param args the command line
+	 * @param first index of the first scene name in args
+	 * @return the scenes named in args, or every scene in CONFIG_DIR if none are
+	 */
+	private static ArrayList<String> sceneNames(String[] args, int first)
+	{
+		ArrayList<String> scenes = new ArrayList<String>();
+		for(int i = first; i < args.length; i++)
+		{
+			scenes.add(args[i]);
+		}
+		if(scenes.isEmpty())
+		{
+			String[] files = new File(CONFIG_DIR).list();
+			if(files == null)
+			{
+				System.out.println("Error: Cannot find " + CONFIG_DIR + ", run from the repository root");
+				return scenes;
+			}
+			Arrays.sort(files);
+			for(String file : files)
+			{
+				if(file.startsWith("settings_") && file.endsWith(".txt"))
+				{
+					scenes.add(file.substring("settings_".length(), file.length() - ".txt".length()));
+				}
+			}
+		}
+		return scenes;
+	}
+
+	/**
+	 * Renders each scene to <scene>.png in a folder
+	 * @param outputDir the folder, made if it doesn't exist
+	 * @param scenes
+	 */
+	private static void render(File outputDir, ArrayList<String> scenes)
+	{
+		outputDir.mkdirs();
+		for(String scene : scenes)
+		{
+			TracingCoordinator tracer = new TracingCoordinator();
+			tracer.loadFromFile(SETTINGS_FROM_CONFIG + "settings_" + scene + ".txt");
+			tracer.renderToFile(new File(outputDir, scene + ".png").getPath());
+		}
+	}
+
+	/**
+	 * Prints how many pixels of each scene differ between two folders of renders
+	 * @param expectedDir
+	 * @param actualDir
+	 * @param scenes
+	 * @return the number of scenes whose renders differ or couldn't be read
+	 */
+	private static int compare(File expectedDir, File actualDir, ArrayList<String> scenes)
+	{
+		int failed = 0;
+		for(String scene : scenes)
+		{
+			BufferedImage expected = readImage(new File(expectedDir, scene + ".png"));
+			BufferedImage actual = readImage(new File(actualDir, scene + ".png"));
+			if(expected == null || actual == null)
+			{
+				failed++;
+				continue;
+			}
+			if(expected.getWidth() != actual.getWidth() || expected.getHeight() != actual.getHeight())
+			{
+				System.out.println(scene + ": size differs, " + expected.getWidth() + "x" + expected.getHeight() + " against " + actual.getWidth() + "x" + actual.getHeight());
+				failed++;
+				continue;
+			}
+			int differing = 0;
+			int largestDifference = 0;
+			for(int y = 0; y < expected.getHeight(); y++)
+			{
+				for(int x = 0; x < expected.getWidth(); x++)
+				{
+					int expectedRGB = expected.getRGB(x, y);
+					int actualRGB = actual.getRGB(x, y);
+					if(expectedRGB != actualRGB)
+					{
+						differing++;
+						for(int shift = 0; shift < 24; shift += 8)
+						{
+							int difference = Math.abs(((expectedRGB >> shift) & 0xFF) - ((actualRGB >> shift) & 0xFF));
+							largestDifference = Math.max(largestDifference, difference);
+						}
+					}
+				}
+			}
+			if(differing == 0)
+			{
+				System.out.println(scene + ": identical");
+			}
+			else
+			{
+				System.out.println(scene + ": " + differing + " of " + expected.getWidth()*expected.getHeight() + " pixels differ, by up to " + largestDifference + " in a channel");
+				failed++;
+			}
+		}
+		System.out.println((scenes.size() - failed) + " of " + scenes.size() + " scenes identical");
+		return failed;
+	}
+
+	/**
+	 * @param file
+	 * @return the image, or null if it can't be read
+	 */
+	private static BufferedImage readImage(File file)
+	{
+		try
+		{
+			BufferedImage image = ImageIO.read(file);
+			if(image == null)
+			{
+				System.out.println("Error: " + file + " is not an image");
+			}
+			return image;
+		}
+		catch(IOException e)
+		{
+			System.out.println("Error: Cannot read " + file);
+			return null;
+		}
+	}
+}
@@ -0,0 +1,158 @@
+package acceleration;
+
+import java.util.Random;
+
+/**
+ * Checks the Vector API triangle kernel against the one slot at a time loop
+ * it stands in for: for random and hand made triangles and rays both must
+ * pick the same slot with bit for bit the same t
+ * It sits in package acceleration to reach PackedTriangles, and must be run
+ * with the kernel built and loaded, see check_vector.sh
+ * Usage: TriangleKernelAgreement [rays]
+ * @author alexaulabaugh
+ *
+ */
+public class TriangleKernelAgreement
+{
+	//Slots in the random packs, ranges are taken from anywhere in them
+	private static final int SLOTS = 64;
+	//Longest range tested at once, longer than a few kernel steps
+	private static final int MAX_RANGE = 13;
+
+	public static void main(String[] args)
+	{
+		PackedTriangles.Kernel kernel = PackedTriangles.getVectorKernel();
+		if(kernel == null)
+		{
+			System.out.println("Error: The Vector API kernel isn't loaded, build src-vector and run with --add-modules jdk.incubator.vector");
+			System.exit(2);
+		}
+		int rays = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+		Random random = new Random(242);
+		int[] counts = new int[3];
+
+		//Triangles scattered about the origin, with degenerate and repeated ones mixed in
+		for(int pack = 0; pack < 20; pack++)
+		{
+			PackedTriangles packed = randomPack(random);
+			for(int ray = 0; ray < rays/20; ray++)
+			{
+				double[] org = {random.nextGaussian()*3, random.nextGaussian()*3, random.nextGaussian()*3};
+				double[] dir = {-org[0] + random.nextGaussian(), -org[1] + random.nextGaussian(), -org[2] + random.nextGaussian()};
+				compare(kernel, packed, random, org, dir, counts);
+			}
+		}
+
+		//A fan of triangles sharing edges and a vertex, hit exactly on the shared parts
+		PackedTriangles fan = fanPack();
+		double[][] fanOrigins = {{0, 0, -5}, {1, 0, -5}, {0.5, 0.5, -5}, {-1, 0, -5}, {0, 0, 5}, {0.25, 0, -1}};
+		for(double[] org : fanOrigins)
+		{
+			double[][] dirs = {{0, 0, 1}, {0, 0, -1}, {1, 0, 0}, {0.1, 0.2, 1}, {0, 1e-300, 1}};
+			for(double[] dir : dirs)
+			{
+				for(int repeat = 0; repeat < 50; repeat++)
+				{
+					compare(kernel, fan, random, org, dir, counts);
+				}
+			}
+		}
+
+		System.out.println(counts[0] + " tests, " + counts[1] + " hit something, " + counts[2] + " disagreements");
+		if(counts[2] > 0)
+		{
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Tests one ray against a random range of a pack both ways, for the nearest and any hit
+	 * @param kernel
+	 * @param packed
+	 * @param random
+	 * @param org
+	 * @param dir
+	 * @param counts tests run, tests that hit, tests where the two ways disagree
+	 */
+	private static void compare(PackedTriangles.Kernel kernel, PackedTriangles packed, Random random, double[] org, double[] dir, int[] counts)
+	{
+		int start = random.nextInt(SLOTS);
+		int end = Math.min(SLOTS, start + 1 + random.nextInt(MAX_RANGE));
+		double tMin = random.nextInt(4) == 0 ? random.nextDouble() : 0;
+		double tMax = random.nextInt(4) == 0 ? 1 + random.nextDouble()*5 : Double.MAX_VALUE;
+		for(int anyHit = 0; anyHit < 2; anyHit++)
+		{
+			double[] scalarT = {tMax};
+			double[] vectorT = {tMax};
+			int scalarSlot = packed.intersectScalar(start, end, org, dir, tMin, scalarT, anyHit == 1);
+			int vectorSlot = kernel.intersect(packed, start, end, org, dir, tMin, vectorT, anyHit == 1);
+			counts[0]++;
+			if(scalarSlot >= 0)
+			{
+				counts[1]++;
+			}
+			if(scalarSlot != vectorSlot || Double.doubleToRawLongBits(scalarT[0]) != Double.doubleToRawLongBits(vectorT[0]))
+			{
+				counts[2]++;
+				if(counts[2] <= 10)
+				{
+					System.out.println("Error: slots " + start + " to " + end + (anyHit == 1 ? " any hit" : " nearest") + ": scalar " + scalarSlot + " at " + scalarT[0] + ", vector " + vectorSlot + " at " + vectorT[0]);
+				}
+			}
+		}
+	}
+
+	/**
+	 * @param random
+	 * @return SLOTS slots of random triangles, with some slots left degenerate,
+	 * some flattened to lines and some repeating an earlier slot
+	 */
+	private static PackedTriangles randomPack(Random random)
+	{
+		PackedTriangles packed = new PackedTriangles(SLOTS);
+		double[] edges = new double[9];
+		for(int slot = 0; slot < SLOTS; slot++)
+		{
+			int kind = random.nextInt(10);
+			if(kind == 0)
+			{
+				//Left degenerate, like a slot holding a sphere
+				continue;
+			}
+			//Kind 2 repeats the triangle before, so both are hit at the same t
+			if(kind > 2 || slot == 0)
+			{
+				for(int i = 0; i < 9; i++)
+				{
+					edges[i] = random.nextGaussian()*(i < 3 ? 1 : 2);
+				}
+			}
+			if(kind == 1)
+			{
+				//The second edge along the first, a triangle with no area
+				for(int i = 6; i < 9; i++)
+				{
+					edges[i] = edges[i - 3]*0.5;
+				}
+			}
+			packed.setTriangle(slot, edges);
+		}
+		return packed;
+	}
+
+	/**
+	 * @return SLOTS slots repeating a fan of triangles around the origin in the z = 0 plane
+	 */
+	private static PackedTriangles fanPack()
+	{
+		PackedTriangles packed = new PackedTriangles(SLOTS);
+		double[][] corners = {{1, 0}, {0, 1}, {-1, 0}, {0, -1}};
+		for(int slot = 0; slot < SLOTS; slot++)
+		{
+			double[] a = corners[slot%4];
+			double[] b = corners[(slot + 1)%4];
+			packed.setTriangle(slot, new double[] {0, 0, 0, a[0], a[1], 0, b[0], b[1], 0});
+		}
+		return packed;
+	}
+}
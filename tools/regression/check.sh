@@ -0,0 +1,12 @@
+#!/bin/sh
+# Renders the regression scenes from the working tree and compares them with
+# the reference images in tools/regression/reference
+# Usage, from the repository root: tools/regression/check.sh [scene...]
+# To replace the references after an intended change to the images:
+# java -cp <classes> regression.RenderRegression render tools/regression/reference
+set -e
+work=$(mktemp -d)
+trap 'rm -rf "$work"' EXIT
+javac -encoding UTF-8 -nowarn -d "$work/classes" $(find src -name '*.java') tools/regression/RenderRegression.java
+java -cp "$work/classes" regression.RenderRegression render "$work/images" "$@" > "$work/render.log"
+java -cp "$work/classes" regression.RenderRegression compare tools/regression/reference "$work/images" "$@"
@@ -0,0 +1,13 @@
+#!/bin/sh
+# Checks the Vector API triangle kernel in src-vector against the scalar loop:
+# first kernel against loop on random and hand made triangles, then the
+# regression scenes rendered with the kernel against the reference images
+# Usage, from the repository root: tools/regression/check_vector.sh [scene...]
+set -e
+work=$(mktemp -d)
+trap 'rm -rf "$work"' EXIT
+modules="--add-modules jdk.incubator.vector"
+javac $modules -encoding UTF-8 -nowarn -d "$work/classes" $(find src src-vector -name '*.java') tools/regression/RenderRegression.java tools/regression/acceleration/TriangleKernelAgreement.java 2> "$work/javac.log" || { cat "$work/javac.log"; exit 1; }
+java $modules -cp "$work/classes" acceleration.TriangleKernelAgreement 2> /dev/null
+java $modules -cp "$work/classes" regression.RenderRegression render "$work/images" "$@" > "$work/render.log" 2>&1
+java -cp "$work/classes" regression.RenderRegression compare tools/regression/reference "$work/images" "$@"
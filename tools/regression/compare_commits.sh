@@ -0,0 +1,39 @@
+#!/bin/sh
+# Renders the regression scenes at two commits and reports the pixels that differ
+# Usage, from the repository root: tools/regression/compare_commits.sh <commit> <commit> [scene...]
+# e.g. tools/regression/compare_commits.sh HEAD~1 HEAD
+# Both commits are built from clean worktrees and render this tree's copy of
+# tools/regression, so every commit gets the same scenes whatever it shipped with
+# Sampling only became seeded with [user-017], earlier commits render the
+# jittered, glossy, area light and russian roulette scenes differently every run
+set -e
+if [ $# -lt 2 ]
+then
+	echo "Usage: $0 <commit> <commit> [scene...]"
+	exit 2
+fi
+root=$(pwd)
+first=$1
+second=$2
+shift 2
+work=$(mktemp -d)
+trap 'git worktree remove --force "$work/a" 2>/dev/null; git worktree remove --force "$work/b" 2>/dev/null; rm -rf "$work"' EXIT
+for side in a b
+do
+	if [ $side = a ]
+	then
+		commit=$first
+	else
+		commit=$second
+	fi
+	git worktree add --quiet --detach "$work/$side" "$commit"
+	rm -rf "$work/$side/tools/regression"
+	mkdir -p "$work/$side/tools/regression"
+	cp -R "$root/tools/regression/config" "$root/tools/regression/RenderRegression.java" "$work/$side/tools/regression/"
+	cd "$work/$side"
+	javac -encoding UTF-8 -nowarn -d "$work/$side-classes" $(find src -name '*.java') tools/regression/RenderRegression.java
+	echo "Rendering $commit"
+	java -cp "$work/$side-classes" regression.RenderRegression render "$work/$side-images" "$@" > "$work/$side-render.log"
+	cd "$root"
+done
+java -cp "$work/a-classes" regression.RenderRegression compare "$work/a-images" "$work/b-images" "$@"